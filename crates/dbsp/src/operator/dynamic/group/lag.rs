@@ -132,24 +132,30 @@ where
         OV: DataTrait + ?Sized,
         B: for<'a> DynFilterMap<DynItemRef<'a> = (&'a K, &'a V)>,
     {
-        self.dyn_map_index(
+        let encoded = self.dyn_map_index(
             &factories.lag_factories.input_factories,
             Box::new(move |(k, v), kv| {
                 let (out_k, out_v) = kv.split_mut();
                 k.clone_to(out_k);
                 encode(v, out_v);
             }),
-        )
-        .dyn_lag(&factories.lag_factories, offset, project)
-        .dyn_map_index(
-            &factories.output_factories,
-            Box::new(move |(k, v), kv| {
-                let (out_k, out_v) = kv.split_mut();
-                let (v1, v2) = v.split();
-                k.clone_to(out_k);
-                decode(v1, v2, out_v);
-            }),
-        )
+        );
+        // Encoding does not change the keys, so the keys that may be dropped
+        // from the trace of `self` may be dropped from the traces of `encoded`.
+        encoded
+            .trace_bounds()
+            .add_key_filter_source(self.trace_bounds());
+        encoded
+            .dyn_lag(&factories.lag_factories, offset, project)
+            .dyn_map_index(
+                &factories.output_factories,
+                Box::new(move |(k, v), kv| {
+                    let (out_k, out_v) = kv.split_mut();
+                    let (v1, v2) = v.split();
+                    k.clone_to(out_k);
+                    decode(v1, v2, out_v);
+                }),
+            )
     }
 }
 
@@ -318,7 +318,11 @@ where
         //                                                    └────────────────────────┤Z^-1│◄────────────┘
         //                                                                             └────┘
         // ```
-        let bounds = TraceBounds::unbounded();
+        let bounds = <TraceBounds<OB::Key, OB::Val>>::unbounded();
+        // A key that is dropped from the trace of the input does not occur in
+        // the input anymore, so the transformer will not look it up in the
+        // output trace either.
+        bounds.add_key_filter_source(self.trace_bounds());
         let feedback = circuit.add_integrate_trace_feedback::<Spine<OB>>(output_factories, bounds);
 
         let output = circuit
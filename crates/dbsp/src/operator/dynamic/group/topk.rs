@@ -149,30 +149,36 @@ where
     where
         V2: DataTrait + ?Sized,
     {
-        self.dyn_map_index(
+        let encoded = self.dyn_map_index(
             &factories.inner_factories,
             Box::new(move |(k, v), kv| {
                 let (out_k, out_v) = kv.split_mut();
                 k.clone_to(out_k);
                 encode(v, out_v);
             }),
-        )
-        .dyn_group_transform(
-            &factories.inner_factories,
-            &factories.inner_factories,
-            Box::new(DiffGroupTransformer::new(
-                factories.inner_factories.val_factory(),
-                TopK::asc(factories.inner_factories.val_factory(), k),
-            )),
-        )
-        .dyn_map_index(
-            &factories.input_factories,
-            Box::new(move |(k, v), kv| {
-                let (out_k, out_v) = kv.split_mut();
-                k.clone_to(out_k);
-                decode(v).clone_to(out_v);
-            }),
-        )
+        );
+        // Encoding does not change the keys, so the keys that may be dropped
+        // from the trace of `self` may be dropped from the traces of `encoded`.
+        encoded
+            .trace_bounds()
+            .add_key_filter_source(self.trace_bounds());
+        encoded
+            .dyn_group_transform(
+                &factories.inner_factories,
+                &factories.inner_factories,
+                Box::new(DiffGroupTransformer::new(
+                    factories.inner_factories.val_factory(),
+                    TopK::asc(factories.inner_factories.val_factory(), k),
+                )),
+            )
+            .dyn_map_index(
+                &factories.input_factories,
+                Box::new(move |(k, v), kv| {
+                    let (out_k, out_v) = kv.split_mut();
+                    k.clone_to(out_k);
+                    decode(v).clone_to(out_v);
+                }),
+            )
     }
 
     /// See [`Stream::topk_rank_custom_order`].
@@ -188,15 +194,20 @@ where
         V2: DataTrait + ?Sized,
         OV: DataTrait + ?Sized,
     {
-        self.dyn_map_index(
+        let encoded = self.dyn_map_index(
             &factories.inner_factories,
             Box::new(move |(k, v), kv| {
                 let (out_k, out_v) = kv.split_mut();
                 k.clone_to(out_k);
                 encode(v, out_v);
             }),
-        )
-        .dyn_group_transform(
+        );
+        // Encoding does not change the keys, so the keys that may be dropped
+        // from the trace of `self` may be dropped from the traces of `encoded`.
+        encoded
+            .trace_bounds()
+            .add_key_filter_source(self.trace_bounds());
+        encoded.dyn_group_transform(
             &factories.inner_factories,
             &factories.output_factories,
             Box::new(DiffGroupTransformer::new(
@@ -224,15 +235,20 @@ where
         V2: DataTrait + ?Sized,
         OV: DataTrait + ?Sized,
     {
-        self.dyn_map_index(
+        let encoded = self.dyn_map_index(
             &factories.inner_factories,
             Box::new(move |(k, v), kv| {
                 let (out_k, out_v) = kv.split_mut();
                 k.clone_to(out_k);
                 encode(v, out_v);
             }),
-        )
-        .dyn_group_transform(
+        );
+        // Encoding does not change the keys, so the keys that may be dropped
+        // from the trace of `self` may be dropped from the traces of `encoded`.
+        encoded
+            .trace_bounds()
+            .add_key_filter_source(self.trace_bounds());
+        encoded.dyn_group_transform(
             &factories.inner_factories,
             &factories.output_factories,
             Box::new(DiffGroupTransformer::new(
@@ -259,15 +275,20 @@ where
         V2: DataTrait + ?Sized,
         OV: DataTrait + ?Sized,
     {
-        self.dyn_map_index(
+        let encoded = self.dyn_map_index(
             &factories.inner_factories,
             Box::new(move |(k, v), kv| {
                 let (out_k, out_v) = kv.split_mut();
                 k.clone_to(out_k);
                 encode(v, out_v);
             }),
-        )
-        .dyn_group_transform(
+        );
+        // Encoding does not change the keys, so the keys that may be dropped
+        // from the trace of `self` may be dropped from the traces of `encoded`.
+        encoded
+            .trace_bounds()
+            .add_key_filter_source(self.trace_bounds());
+        encoded.dyn_group_transform(
             &factories.inner_factories,
             &factories.output_factories,
             Box::new(DiffGroupTransformer::new(
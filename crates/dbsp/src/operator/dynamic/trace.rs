@@ -113,6 +113,7 @@ impl<K: DataTrait + ?Sized, V: DataTrait + ?Sized> TraceBounds<K, V> {
         Self(Rc::new(RefCell::new(TraceBoundsInner {
             key_bounds: Vec::new(),
             key_filter: None,
+            key_filter_sources: Vec::new(),
             val_predicate: Predicate::Bounds(Vec::new()),
         })))
     }
@@ -123,6 +124,7 @@ impl<K: DataTrait + ?Sized, V: DataTrait + ?Sized> TraceBounds<K, V> {
         Self(Rc::new(RefCell::new(TraceBoundsInner {
             key_bounds: vec![TraceBound::new()],
             key_filter: None,
+            key_filter_sources: Vec::new(),
             val_predicate: Predicate::Bounds(vec![TraceBound::new()]),
         })))
     }
@@ -135,6 +137,22 @@ impl<K: DataTrait + ?Sized, V: DataTrait + ?Sized> TraceBounds<K, V> {
         self.0.borrow_mut().key_filter = Some(filter);
     }
 
+    /// Apply the key retainment condition of `source` to this trace too,
+    /// unless this trace has a key retainment condition of its own.
+    ///
+    /// Use this for traces whose keys are derived from the keys of another
+    /// trace, when a key that is dropped from `source` will not be looked up
+    /// in this trace anymore.
+    pub(crate) fn add_key_filter_source<V2>(&self, source: TraceBounds<K, V2>)
+    where
+        V2: DataTrait + ?Sized,
+    {
+        self.0
+            .borrow_mut()
+            .key_filter_sources
+            .push(Box::new(move || source.key_filter()));
+    }
+
     pub(crate) fn add_val_bound(&self, bound: TraceBound<V>) {
         match &mut self.0.borrow_mut().val_predicate {
             Predicate::Bounds(bounds) => bounds.push(bound),
@@ -163,9 +181,17 @@ impl<K: DataTrait + ?Sized, V: DataTrait + ?Sized> TraceBounds<K, V> {
             .map(|bx| clone_box(bx.as_ref()))
     }
 
-    /// Set key retainment condition.
+    /// Key retainment condition: either the condition set using
+    /// [`Self::set_key_filter`], or the condition of the first source added
+    /// using [`Self::add_key_filter_source`] that has one.
     pub(crate) fn key_filter(&self) -> Option<Filter<K>> {
-        (*self.0).borrow().key_filter.clone()
+        let inner = (*self.0).borrow();
+        inner.key_filter.clone().or_else(|| {
+            inner
+                .key_filter_sources
+                .iter()
+                .find_map(|source| source())
+        })
     }
 
     /// Returns effective value retention condition, computed as the
@@ -205,6 +231,10 @@ struct TraceBoundsInner<K: ?Sized + 'static, V: ?Sized + 'static> {
     /// Key retainment condition (can be set at the same time as one
     /// or more key bounds).
     key_filter: Option<Filter<K>>,
+    /// Retainment conditions of other traces, used when `key_filter`
+    /// is not set.
+    #[allow(clippy::type_complexity)]
+    key_filter_sources: Vec<Box<dyn Fn() -> Option<Filter<K>>>>,
     /// Value bounds _or_ retainment condition.
     val_predicate: Predicate<V>,
 }
@@ -367,7 +397,7 @@ where
     /// spilled) version, because it always exists, whereas the sharded version
     /// might be created only *after* we get the trace bounds for the source
     /// stream.
-    fn trace_bounds(&self) -> TraceBounds<B::Key, B::Val>
+    pub(crate) fn trace_bounds(&self) -> TraceBounds<B::Key, B::Val>
     where
         B: BatchReader,
     {
@@ -40,31 +40,46 @@ import org.dbsp.util.Logger;
 
 import javax.annotation.Nullable;
 import javax.sql.DataSource;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintStream;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.Arrays;
 import java.util.Map;
 
 /** Main entry point of the SQL compiler. */
 public class CompilerMain {
     final CompilerOptions options;
+    /** Stream that receives the usage and verbose output. */
+    final PrintStream output;
+    /** Stream that receives the diagnostics produced while parsing the arguments. */
+    final PrintStream errors;
 
-    CompilerMain() {
+    CompilerMain(PrintStream output, PrintStream errors) {
         this.options = new CompilerOptions();
+        this.output = output;
+        this.errors = errors;
+    }
+
+    CompilerMain() {
+        this(System.out, System.err);
     }
 
     void usage(JCommander commander) {
         // JCommander mistakenly prints this as default value
         // if it manages to parse it partially.
         this.options.ioOptions.loggingLevel.clear();
-        commander.usage();
+        StringBuilder builder = new StringBuilder();
+        commander.getUsageFormatter().usage(builder);
+        this.output.print(builder);
     }
 
     int parseOptions(String[] argv) {
@@ -77,10 +92,10 @@ public class CompilerMain {
         } catch (ParameterException ex) {
             if (ex.getMessage().contains("Only one main parameter allowed")) {
                 if (this.options.ioOptions.outputFile.isEmpty()) {
-                    System.err.println("Did you forget to specify the output file with -o?");
+                    this.errors.println("Did you forget to specify the output file with -o?");
                 }
             }
-            System.err.println(ex.getMessage());
+            this.errors.println(ex.getMessage());
             return 1;
         }
         if (this.options.help) {
@@ -93,7 +108,7 @@ public class CompilerMain {
                 int level = Integer.parseInt(entry.getValue());
                 Logger.INSTANCE.setLoggingLevel(entry.getKey(), level);
             } catch (NumberFormatException ex) {
-                System.err.println("-T option must be followed by 'class=number'; could not parse " + entry);
+                this.errors.println("-T option must be followed by 'class=number'; could not parse " + entry);
                 return 1;
             }
         }
@@ -120,6 +135,23 @@ public class CompilerMain {
         }
     }
 
+    /** Write the contents to the specified file, unless the file already has exactly
+     * these contents.  Leaving the file untouched allows the Rust build to skip
+     * recompiling a program that has not changed.
+     * @return true if the file was written. */
+    static boolean writeIfChanged(String file, byte[] contents) throws IOException {
+        Path path = Paths.get(file);
+        if (Files.exists(path) && Arrays.equals(Files.readAllBytes(path), contents)) {
+            Logger.INSTANCE.belowLevel("CompilerMain", 1)
+                    .append("Output unchanged: ")
+                    .append(file)
+                    .newline();
+            return false;
+        }
+        Files.write(path, contents);
+        return true;
+    }
+
     static int schemaCount = 0;
 
     /** Run compiler, return exit code. */
@@ -146,7 +178,7 @@ public class CompilerMain {
             return compiler.messages;
         }
         if (this.options.ioOptions.verbosity >= 1)
-            System.out.println(this.options);
+            this.output.println(this.options);
 
         compiler.compileInput();
         if (compiler.hasErrors())
@@ -181,11 +213,21 @@ public class CompilerMain {
             return compiler.messages;
         }
         try {
-            PrintStream stream = this.getOutputStream();
-            RustFileWriter writer = new RustFileWriter(stream);
-            writer.add(dbsp);
-            writer.write(compiler);
-            stream.close();
+            if (this.options.ioOptions.outputFile.isEmpty()) {
+                PrintStream stream = this.getOutputStream();
+                RustFileWriter writer = new RustFileWriter(stream);
+                writer.add(dbsp);
+                writer.write(compiler);
+                stream.close();
+            } else {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                PrintStream stream = new PrintStream(bytes);
+                RustFileWriter writer = new RustFileWriter(stream);
+                writer.add(dbsp);
+                writer.write(compiler);
+                stream.close();
+                writeIfChanged(this.options.ioOptions.outputFile, bytes.toByteArray());
+            }
         } catch (IOException e) {
             compiler.reportError(SourcePositionRange.INVALID,
                     "Error writing to file", e.getMessage());
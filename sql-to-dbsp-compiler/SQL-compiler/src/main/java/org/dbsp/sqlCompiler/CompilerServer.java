@@ -0,0 +1,234 @@
+package org.dbsp.sqlCompiler;
+
+import org.dbsp.sqlCompiler.compiler.CompilerOptions;
+import org.dbsp.sqlCompiler.compiler.errors.CompilerMessages;
+import org.dbsp.util.Logger;
+
+import javax.annotation.Nullable;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** A long-running compiler process, which avoids paying the JVM and
+ * Calcite startup costs for every compilation.
+ * Requests are read from stdin, one per line; each request contains the
+ * command-line arguments of a {@link CompilerMain} invocation, separated by
+ * whitespace; arguments containing spaces can be enclosed in single or double quotes.
+ * Requests must specify an output file with -o, which is only rewritten when the
+ * generated Rust differs from its current contents.  The changes to the output
+ * file are written as a unified diff to a file with the same name and the suffix
+ * ".diff"; the diff is empty when the output did not change.
+ * A request that repeats the arguments and the input of the previous request
+ * for the same output file, while the output file still holds the program
+ * generated then, is answered without compiling.  Otherwise the request is
+ * compiled from scratch: statements and views are not reused between requests,
+ * since Calcite's validator rewrites the parsed statements in place and the
+ * circuit optimizations work on the whole program.
+ * For each request the compiler messages and the verbose output are printed
+ * to stderr, followed by a line "done exitCode" on stdout.
+ * An empty line or end of input stops the server. */
+public class CompilerServer {
+    final PrintStream output;
+    final PrintStream errors;
+    /** Number of requests processed. */
+    public int requests = 0;
+    /** Number of requests answered without compiling. */
+    public int cached = 0;
+
+    /** The last successful compilation that produced an output file. */
+    record Compilation(byte[] request, byte[] rust) {}
+
+    /** Maps each output file to the compilation that produced it. */
+    final Map<String, Compilation> compilations;
+
+    public CompilerServer(PrintStream output, PrintStream errors) {
+        this.output = output;
+        this.errors = errors;
+        this.compilations = new HashMap<>();
+    }
+
+    /** Split a request into arguments.
+     * @return null if the request contains an unterminated quote. */
+    @Nullable
+    static List<String> tokenize(String request) {
+        List<String> result = new ArrayList<>();
+        @Nullable StringBuilder current = null;
+        char quote = 0;
+        for (char c: request.toCharArray()) {
+            if (quote != 0) {
+                if (c == quote)
+                    quote = 0;
+                else
+                    current.append(c);
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+                if (current == null)
+                    current = new StringBuilder();
+            } else if (Character.isWhitespace(c)) {
+                if (current != null) {
+                    result.add(current.toString());
+                    current = null;
+                }
+            } else {
+                if (current == null)
+                    current = new StringBuilder();
+                current.append(c);
+            }
+        }
+        if (quote != 0)
+            return null;
+        if (current != null)
+            result.add(current.toString());
+        return result;
+    }
+
+    /** Hash of the arguments and of the input file of a request.
+     * @return null if the result of the request may depend on other state,
+     *         such as a database used as a metadata source, or if the request
+     *         produces other files than the Rust program. */
+    @Nullable
+    static byte[] requestHash(List<String> argv, CompilerMain main) throws IOException {
+        CompilerOptions.IO io = main.options.ioOptions;
+        if (io.inputFile == null || !io.metadataSource.isEmpty() || !io.udfs.isEmpty() ||
+                io.emitJsonSchema != null || io.emitJpeg || io.emitPng)
+            return null;
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        for (String arg: argv) {
+            digest.update(arg.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+        }
+        digest.update(Files.readAllBytes(Paths.get(io.inputFile)));
+        return digest.digest();
+    }
+
+    /** Compute a unified diff between two versions of a file.
+     * The lines shared at the beginning and at the end are skipped,
+     * and the rest is reported as a single hunk. */
+    static String diff(String file, String before, String after) {
+        if (before.equals(after))
+            return "";
+        List<String> left = before.lines().toList();
+        List<String> right = after.lines().toList();
+        int prefix = 0;
+        while (prefix < left.size() && prefix < right.size() &&
+                left.get(prefix).equals(right.get(prefix)))
+            prefix++;
+        int suffix = 0;
+        while (suffix < left.size() - prefix && suffix < right.size() - prefix &&
+                left.get(left.size() - 1 - suffix).equals(right.get(right.size() - 1 - suffix)))
+            suffix++;
+        int removed = left.size() - prefix - suffix;
+        int added = right.size() - prefix - suffix;
+        StringBuilder builder = new StringBuilder();
+        builder.append("--- ").append(file).append("\n")
+                .append("+++ ").append(file).append("\n")
+                .append("@@ -").append(removed == 0 ? prefix : prefix + 1).append(",").append(removed)
+                .append(" +").append(added == 0 ? prefix : prefix + 1).append(",").append(added)
+                .append(" @@\n");
+        for (int i = prefix; i < prefix + removed; i++)
+            builder.append("-").append(left.get(i)).append("\n");
+        for (int i = prefix; i < prefix + added; i++)
+            builder.append("+").append(right.get(i)).append("\n");
+        return builder.toString();
+    }
+
+    /** Process one request, return the exit code. */
+    int process(String request) throws IOException {
+        List<String> argv = tokenize(request);
+        if (argv == null) {
+            this.errors.println("Unterminated quote in request");
+            return 1;
+        }
+        CompilerMain main = new CompilerMain(this.errors, this.errors);
+        int exitCode = main.parseOptions(argv.toArray(new String[0]));
+        if (exitCode != 0)
+            return exitCode;
+        String outputFile = main.options.ioOptions.outputFile;
+        if (outputFile.isEmpty()) {
+            // stdout is used by the protocol
+            this.errors.println("Requests must specify an output file with -o");
+            return 1;
+        }
+
+        Path outputPath = Paths.get(outputFile);
+        byte[] before = Files.exists(outputPath) ? Files.readAllBytes(outputPath) : new byte[0];
+        @Nullable byte[] hash = requestHash(argv, main);
+        @Nullable Compilation previous = this.compilations.get(outputFile);
+        if (hash != null && previous != null &&
+                Arrays.equals(previous.request(), hash) && Arrays.equals(previous.rust(), before)) {
+            Logger.INSTANCE.belowLevel("CompilerServer", 1)
+                    .append("Request unchanged: ")
+                    .append(outputFile)
+                    .newline();
+            this.cached++;
+            Files.writeString(Paths.get(outputFile + ".diff"), "");
+            return 0;
+        }
+
+        CompilerMessages messages;
+        try {
+            messages = main.run();
+        } catch (SQLException e) {
+            this.errors.println(e.getMessage());
+            return 1;
+        }
+        messages.show(this.errors);
+        this.compilations.remove(outputFile);
+        boolean rustOutput = !main.options.ioOptions.emitJpeg && !main.options.ioOptions.emitPng;
+        if (messages.exitCode == 0 && rustOutput && Files.exists(outputPath)) {
+            byte[] after = Files.readAllBytes(outputPath);
+            if (hash != null)
+                this.compilations.put(outputFile, new Compilation(hash, after));
+            Files.writeString(Paths.get(outputFile + ".diff"), diff(outputFile,
+                    new String(before, StandardCharsets.UTF_8),
+                    new String(after, StandardCharsets.UTF_8)));
+        }
+        return messages.exitCode;
+    }
+
+    /** Serve requests until the input is exhausted. */
+    public void serve(Reader input) throws IOException {
+        BufferedReader reader = new BufferedReader(input);
+        while (true) {
+            String line = reader.readLine();
+            if (line == null || line.isBlank())
+                break;
+            int exitCode;
+            try {
+                exitCode = this.process(line);
+            } catch (IOException e) {
+                this.errors.println(e.getMessage());
+                exitCode = 1;
+            }
+            // Logging levels set with -T only apply to one request
+            Logger.INSTANCE.clearLoggingLevels();
+            this.requests++;
+            this.output.println("done " + exitCode);
+            this.output.flush();
+        }
+    }
+
+    public static void main(String[] argv) throws IOException {
+        CompilerServer server = new CompilerServer(System.out, System.err);
+        server.serve(new InputStreamReader(System.in));
+    }
+}
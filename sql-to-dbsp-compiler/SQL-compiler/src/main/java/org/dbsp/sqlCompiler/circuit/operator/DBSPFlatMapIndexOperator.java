@@ -0,0 +1,56 @@
+package org.dbsp.sqlCompiler.circuit.operator;
+
+import org.dbsp.sqlCompiler.compiler.frontend.calciteObject.CalciteObject;
+import org.dbsp.sqlCompiler.compiler.visitors.VisitDecision;
+import org.dbsp.sqlCompiler.compiler.visitors.outer.CircuitVisitor;
+import org.dbsp.sqlCompiler.ir.expression.DBSPExpression;
+import org.dbsp.sqlCompiler.ir.type.DBSPType;
+import org.dbsp.sqlCompiler.ir.type.user.DBSPTypeIndexedZSet;
+
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.Objects;
+
+/** Generate an IndexedZSet by applying a function to every element of an input dataset;
+ * the function produces a collection of (key, value) pairs for each element,
+ * e.g., an Option.  Behaves like a flat_map followed by a map_index.
+ * Input can be a ZSet or an IndexedZSet. */
+public final class DBSPFlatMapIndexOperator extends DBSPUnaryOperator {
+    /** Create a FlatMapIndexOperator
+     * @param node            Corresponding Calcite node.
+     * @param function        Function that produces the (key, value) pairs for a row.
+     * @param outputType      Type of output stream element.
+     * @param isMultiset      True if the output may contain duplicates.
+     * @param input           Source operator. */
+    public DBSPFlatMapIndexOperator(CalciteObject node, DBSPExpression function,
+                                    DBSPTypeIndexedZSet outputType, boolean isMultiset,
+                                    DBSPOperator input) {
+        super(node, "flat_map_index", function, outputType, isMultiset, input);
+        this.checkArgumentFunctionType(function, 0, input);
+    }
+
+    @Override
+    public void accept(CircuitVisitor visitor) {
+        visitor.push(this);
+        VisitDecision decision = visitor.preorder(this);
+        if (!decision.stop())
+            visitor.postorder(this);
+        visitor.pop(this);
+    }
+
+    @Override
+    public DBSPOperator withFunction(@Nullable DBSPExpression expression, DBSPType type) {
+        return new DBSPFlatMapIndexOperator(
+                this.getNode(), Objects.requireNonNull(expression),
+                type.to(DBSPTypeIndexedZSet.class), this.isMultiset, this.input());
+    }
+
+    @Override
+    public DBSPOperator withInputs(List<DBSPOperator> newInputs, boolean force) {
+        if (force || this.inputsDiffer(newInputs))
+            return new DBSPFlatMapIndexOperator(
+                    this.getNode(), this.getFunction(),
+                    this.getOutputIndexedZSetType(), this.isMultiset, newInputs.get(0));
+        return this;
+    }
+}
@@ -23,10 +23,12 @@
 
 package org.dbsp.sqlCompiler.circuit.operator;
 
+import org.dbsp.sqlCompiler.compiler.IErrorReporter;
 import org.dbsp.sqlCompiler.compiler.errors.InternalCompilerError;
 import org.dbsp.sqlCompiler.compiler.errors.SourcePositionRange;
 import org.dbsp.sqlCompiler.compiler.frontend.calciteObject.CalciteObject;
 import org.dbsp.sqlCompiler.compiler.visitors.inner.EquivalenceContext;
+import org.dbsp.sqlCompiler.compiler.visitors.inner.StructuralHash;
 import org.dbsp.sqlCompiler.ir.DBSPNode;
 import org.dbsp.sqlCompiler.ir.IDBSPOuterNode;
 import org.dbsp.sqlCompiler.ir.expression.DBSPExpression;
@@ -307,4 +309,14 @@ public abstract class DBSPOperator extends DBSPNode implements IHasType, IDBSPOu
             return false;
         return EquivalenceContext.equiv(this.function, other.function);
     }
+
+    /** A hash value which is consistent with {@link #equivalent}:
+     * equivalent operators always have the same structural hash.
+     * Used to limit the number of operator pairs that have to be compared. */
+    public int structuralHash(IErrorReporter reporter) {
+        int result = this.operation.hashCode();
+        for (DBSPOperator input: this.inputs)
+            result = 31 * result + Long.hashCode(input.getId());
+        return 31 * result + StructuralHash.hash(reporter, this.function);
+    }
 }
@@ -0,0 +1,59 @@
+package org.dbsp.sqlCompiler.circuit.operator;
+
+import org.dbsp.sqlCompiler.compiler.errors.InternalCompilerError;
+import org.dbsp.sqlCompiler.compiler.frontend.calciteObject.CalciteObject;
+import org.dbsp.sqlCompiler.compiler.visitors.VisitDecision;
+import org.dbsp.sqlCompiler.compiler.visitors.outer.CircuitVisitor;
+import org.dbsp.sqlCompiler.ir.expression.DBSPExpression;
+import org.dbsp.sqlCompiler.ir.type.DBSPType;
+import org.dbsp.sqlCompiler.ir.type.user.DBSPTypeIndexedZSet;
+
+import javax.annotation.Nullable;
+import java.util.List;
+
+/** Non-incremental antijoin: at each step the output contains the elements of
+ * the left input whose keys do not appear in the right input.
+ * Both inputs are IndexedZSets with the same key type.
+ * The incremental version is {@link DBSPAntiJoinOperator}. */
+public final class DBSPStreamAntiJoinOperator extends DBSPOperator {
+    public DBSPStreamAntiJoinOperator(CalciteObject node, DBSPOperator left, DBSPOperator right) {
+        super(node, "stream_antijoin", null, left.outputType, left.isMultiset);
+        this.addInput(left);
+        this.addInput(right);
+        DBSPTypeIndexedZSet leftType = left.getOutputIndexedZSetType();
+        DBSPTypeIndexedZSet rightType = right.getOutputIndexedZSetType();
+        if (!leftType.keyType.sameType(rightType.keyType))
+            throw new InternalCompilerError("Inputs do not have the same key type " + leftType.keyType +
+                    " and " + rightType.keyType, this);
+    }
+
+    public DBSPOperator left() {
+        return this.inputs.get(0);
+    }
+
+    public DBSPOperator right() {
+        return this.inputs.get(1);
+    }
+
+    @Override
+    public DBSPOperator withFunction(@Nullable DBSPExpression expression, DBSPType outputType) {
+        return this;
+    }
+
+    @Override
+    public DBSPOperator withInputs(List<DBSPOperator> newInputs, boolean force) {
+        assert newInputs.size() == 2: "Expected 2 inputs, got " + newInputs.size();
+        if (force || this.inputsDiffer(newInputs))
+            return new DBSPStreamAntiJoinOperator(this.getNode(), newInputs.get(0), newInputs.get(1));
+        return this;
+    }
+
+    @Override
+    public void accept(CircuitVisitor visitor) {
+        visitor.push(this);
+        VisitDecision decision = visitor.preorder(this);
+        if (!decision.stop())
+            visitor.postorder(this);
+        visitor.pop(this);
+    }
+}
@@ -173,6 +173,9 @@ public class CompilerOptions implements IDiff<CompilerOptions> {
         public boolean emitHandles = false;
         @Parameter(names = "--jdbcSource", description = "Connection string to a database that contains table metadata")
         public String metadataSource = "";
+        @Parameter(names = "--split", description = "Generate each independent part of the circuit as a separate Rust module; " +
+                "views which share operators other than table inputs are generated in the same module")
+        public boolean splitCircuit = false;
 
         /** Only compare fields that matter. */
         public boolean same(IO other) {
@@ -186,6 +189,7 @@ public class CompilerOptions implements IDiff<CompilerOptions> {
                     ", metadataSource=" + this.metadataSource +
                     ", emitJpeg=" + this.emitJpeg +
                     ", emitHandles=" + this.emitHandles +
+                    ", splitCircuit=" + this.splitCircuit +
                     ", emitPng=" + this.emitPng +
                     ", emitJsonErrors=" + this.emitJsonErrors +
                     ", emitJsonSchema=" + Utilities.singleQuote(this.emitJsonSchema) +
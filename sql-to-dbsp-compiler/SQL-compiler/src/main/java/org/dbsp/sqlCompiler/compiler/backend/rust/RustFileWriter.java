@@ -4,7 +4,9 @@ import org.dbsp.sqlCompiler.circuit.DBSPCircuit;
 import org.dbsp.sqlCompiler.compiler.DBSPCompiler;
 import org.dbsp.sqlCompiler.compiler.IErrorReporter;
 import org.dbsp.sqlCompiler.compiler.visitors.inner.BetaReduction;
+import org.dbsp.sqlCompiler.compiler.visitors.inner.HoistConstants;
 import org.dbsp.sqlCompiler.compiler.visitors.inner.InnerVisitor;
+import org.dbsp.sqlCompiler.compiler.visitors.inner.MinimizeClones;
 import org.dbsp.sqlCompiler.compiler.visitors.outer.CircuitRewriter;
 import org.dbsp.sqlCompiler.ir.DBSPFunction;
 import org.dbsp.sqlCompiler.ir.IDBSPInnerNode;
@@ -359,6 +361,9 @@ public class RustFileWriter {
         FindResources findResources = new FindResources(compiler);
         CircuitRewriter findCircuitResources = findResources.getCircuitVisitor();
         LowerCircuitVisitor lower = new LowerCircuitVisitor(compiler);
+        CircuitRewriter hoist = new HoistConstants(compiler).circuitRewriter();
+        CircuitRewriter minimizeClones = new MinimizeClones(compiler).circuitRewriter();
+        boolean optimize = compiler.options.languageOptions.optimizationLevel >= 2;
 
         for (IDBSPNode node: this.toWrite) {
             IDBSPInnerNode inner = node.as(IDBSPInnerNode.class);
@@ -371,6 +376,12 @@ public class RustFileWriter {
                 outer = lower.apply(outer);
                 // Beta reduction is beneficial after implementing aggregates.
                 outer = reducer.apply(outer);
+                // Lowering may generate new constant expressions.
+                if (optimize)
+                    outer = hoist.apply(outer);
+                // Remove the clones which are not needed, as the last rewrite before emitting code.
+                if (optimize)
+                    outer = minimizeClones.apply(outer);
                 // Find the resources used to generate the correct Rust preamble
                 outer = findCircuitResources.apply(outer);
                 lowered.add(outer);
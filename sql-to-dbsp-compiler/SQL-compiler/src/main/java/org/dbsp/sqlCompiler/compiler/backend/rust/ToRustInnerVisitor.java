@@ -59,6 +59,7 @@ import org.dbsp.sqlCompiler.ir.expression.DBSPPathExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPQualifyTypeExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPQuestionExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPRawTupleExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPSetContainsExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPSomeExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPSortExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPTupleExpression;
@@ -106,6 +107,7 @@ import org.dbsp.sqlCompiler.ir.statement.DBSPConstItem;
 import org.dbsp.sqlCompiler.ir.statement.DBSPExpressionStatement;
 import org.dbsp.sqlCompiler.ir.statement.DBSPLetStatement;
 import org.dbsp.sqlCompiler.ir.statement.DBSPStatement;
+import org.dbsp.sqlCompiler.ir.statement.DBSPStaticItem;
 import org.dbsp.sqlCompiler.ir.statement.DBSPStructItem;
 import org.dbsp.sqlCompiler.ir.type.DBSPType;
 import org.dbsp.sqlCompiler.ir.type.DBSPTypeAny;
@@ -818,6 +820,40 @@ public class ToRustInnerVisitor extends InnerVisitor {
         return VisitDecision.STOP;
     }
 
+    @Override
+    public VisitDecision preorder(DBSPSetContainsExpression expression) {
+        // The set is sorted once, on first use, since the Rust order
+        // of values may differ from the order of the Java literals.
+        this.builder.append("{").increase()
+                .append("static SET: std::sync::OnceLock<Vec<");
+        expression.getElementType().accept(this);
+        this.builder.append(">> = std::sync::OnceLock::new();").newline()
+                .append("let set = SET.get_or_init(|| {").increase()
+                .append("let mut set = vec!(").increase();
+        for (DBSPExpression value: expression.values) {
+            value.accept(this);
+            this.builder.append(",").newline();
+        }
+        this.builder.decrease().append(");").newline()
+                .append("set.sort();").newline()
+                .append("set").newline()
+                .decrease().append("});").newline();
+        if (expression.expression.getType().mayBeNull) {
+            this.builder.append("match &");
+            expression.expression.accept(this);
+            this.builder.append(" {").increase()
+                    .append("None => None,").newline()
+                    .append("Some(x) => Some(set.binary_search(x).is_ok()),")
+                    .newline().decrease().append("}");
+        } else {
+            this.builder.append("set.binary_search(&");
+            expression.expression.accept(this);
+            this.builder.append(").is_ok()");
+        }
+        this.builder.newline().decrease().append("}");
+        return VisitDecision.STOP;
+    }
+
     @Override
     public VisitDecision preorder(DBSPCloneExpression expression) {
         expression.expression.accept(this);
@@ -893,6 +929,17 @@ public class ToRustInnerVisitor extends InnerVisitor {
         return VisitDecision.STOP;
     }
 
+    @Override
+    public VisitDecision preorder(DBSPStaticItem item) {
+        this.builder.append("static ")
+                .append(item.name).append(": StaticLazy<");
+        item.getType().accept(this);
+        this.builder.append("> = StaticLazy::new(|| ");
+        item.expression.accept(this);
+        this.builder.append(");");
+        return VisitDecision.STOP;
+    }
+
     @Override
     public VisitDecision preorder(DBSPExpressionStatement statement) {
         statement.expression.accept(this);
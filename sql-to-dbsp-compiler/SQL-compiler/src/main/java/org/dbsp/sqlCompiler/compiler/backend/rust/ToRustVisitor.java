@@ -29,6 +29,7 @@ import org.dbsp.sqlCompiler.circuit.operator.DBSPAggregateOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPConstantOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPControlledFilterOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPDeclaration;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPDelayOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPDistinctOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPIndexedTopKOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPIntegrateTraceRetainKeysOperator;
@@ -37,7 +38,9 @@ import org.dbsp.sqlCompiler.circuit.operator.DBSPLagOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPPartitionedRollingAggregateOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPPartitionedRollingAggregateWithWaterlineOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPSemiJoinOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPSinkOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPSourceBaseOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPSourceMapOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPSourceMultisetOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPSumOperator;
@@ -70,6 +73,7 @@ import org.dbsp.sqlCompiler.ir.expression.literal.DBSPISizeLiteral;
 import org.dbsp.sqlCompiler.ir.expression.literal.DBSPStrLiteral;
 import org.dbsp.sqlCompiler.ir.expression.literal.DBSPZSetLiteral;
 import org.dbsp.sqlCompiler.ir.statement.DBSPFunctionItem;
+import org.dbsp.sqlCompiler.ir.statement.DBSPStaticItem;
 import org.dbsp.sqlCompiler.ir.statement.DBSPStructItem;
 import org.dbsp.sqlCompiler.ir.statement.DBSPStructWithHelperItem;
 import org.dbsp.sqlCompiler.ir.type.DBSPType;
@@ -91,9 +95,13 @@ import org.dbsp.util.Utilities;
 
 import javax.annotation.Nullable;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
 
 /** This visitor generates a Rust implementation of a circuit. */
@@ -106,6 +114,9 @@ public class ToRustVisitor extends CircuitVisitor {
     final CompilerOptions options;
     final ProgramMetadata metadata;
     final Set<String> structsGenerated;
+    /** Components of the circuit being generated when splitting the circuit; null otherwise. */
+    @Nullable
+    List<Component> components;
 
     /* Example output generated when 'generateCatalog' is true:
      * pub fn test_circuit(workers: usize) -> (DBSPHandle, Catalog) {
@@ -361,12 +372,213 @@ public class ToRustVisitor extends CircuitVisitor {
             }
         }
 
+        if (this.options.ioOptions.splitCircuit) {
+            this.components = this.findComponents(circuit.name, circuit.circuit);
+            this.generateComponents(circuit.circuit, this.components);
+        }
+
         this.builder.append("pub fn ")
                 .append(circuit.name);
         circuit.circuit.accept(this);
+        this.components = null;
         return VisitDecision.STOP;
     }
 
+    /** A set of operators which is not connected to the rest of the circuit
+     * except through the input tables.
+     * When splitting the circuit each component is generated as a separate Rust module. */
+    static class Component {
+        /** Name of the Rust module; derived from the names of the views and tables,
+         * so it does not change when unrelated parts of the program change. */
+        final String name;
+        /** Operators in the component, in topological order. */
+        final List<DBSPOperator> operators;
+        /** Source operators whose streams are read by the component. */
+        final List<DBSPOperator> sources;
+
+        Component(String name, List<DBSPOperator> operators) {
+            this.name = name;
+            this.operators = operators;
+            Set<DBSPOperator> sources = new LinkedHashSet<>();
+            for (DBSPOperator operator: operators) {
+                for (DBSPOperator input: operator.inputs)
+                    if (input.is(DBSPSourceBaseOperator.class))
+                        sources.add(input);
+            }
+            this.sources = new ArrayList<>(sources);
+        }
+    }
+
+    static DBSPOperator findRoot(Map<DBSPOperator, DBSPOperator> parent, DBSPOperator operator) {
+        DBSPOperator root = operator;
+        while (parent.get(root) != root)
+            root = parent.get(root);
+        // Path compression
+        while (operator != root) {
+            DBSPOperator next = parent.get(operator);
+            parent.put(operator, root);
+            operator = next;
+        }
+        return root;
+    }
+
+    static String sanitizeModuleName(String name) {
+        StringBuilder result = new StringBuilder();
+        for (char c: name.toLowerCase(Locale.ENGLISH).toCharArray())
+            result.append(Character.isLetterOrDigit(c) && c < 128 ? c : '_');
+        return result.toString();
+    }
+
+    /** Partition the operators of the circuit into connected components.
+     * The source operators are not part of any component: they are created
+     * by the circuit, and their streams are passed to the components that read them,
+     * so views that only share input tables end up in different components. */
+    List<Component> findComponents(String circuitName, DBSPPartialCircuit circuit) {
+        Map<DBSPOperator, DBSPOperator> parent = new HashMap<>();
+        for (DBSPOperator operator: circuit.getAllOperators())
+            parent.put(operator, operator);
+        for (DBSPOperator operator: circuit.getAllOperators()) {
+            if (operator.is(DBSPSourceBaseOperator.class))
+                continue;
+            List<DBSPOperator> connected = Linq.where(operator.inputs,
+                    i -> !i.is(DBSPSourceBaseOperator.class));
+            DBSPDelayOperator delay = operator.as(DBSPDelayOperator.class);
+            if (delay != null && delay.output != null)
+                // The back-edge is not an input
+                connected.add(delay.output);
+            for (DBSPOperator other: connected)
+                parent.put(findRoot(parent, operator), findRoot(parent, other));
+        }
+
+        Map<DBSPOperator, List<DBSPOperator>> byRoot = new LinkedHashMap<>();
+        for (DBSPOperator operator: circuit.getAllOperators()) {
+            if (operator.is(DBSPSourceBaseOperator.class))
+                continue;
+            byRoot.computeIfAbsent(findRoot(parent, operator), k -> new ArrayList<>()).add(operator);
+        }
+
+        List<Component> result = new ArrayList<>();
+        Set<String> names = new HashSet<>();
+        for (List<DBSPOperator> operators: byRoot.values()) {
+            // Prefer the view name, then the table name
+            String name = null;
+            for (DBSPOperator operator: operators) {
+                DBSPSinkOperator sink = operator.as(DBSPSinkOperator.class);
+                if (sink != null) {
+                    name = sink.viewName;
+                    break;
+                }
+            }
+            Component component = new Component("", operators);
+            if (name == null && !component.sources.isEmpty())
+                name = component.sources.get(0).to(DBSPSourceBaseOperator.class).tableName;
+            if (name == null)
+                name = "component";
+            name = sanitizeModuleName(circuitName + "_" + name);
+            String unique = name;
+            for (int i = 1; names.contains(unique); i++)
+                unique = name + "_" + i;
+            names.add(unique);
+            result.add(new Component(unique, operators));
+        }
+        return result;
+    }
+
+    /** True if the operator produces a handle which is returned by the circuit. */
+    boolean producesHandle(DBSPOperator operator) {
+        return this.useHandles &&
+                (operator.is(DBSPSourceMultisetOperator.class) ||
+                        operator.is(DBSPSourceMapOperator.class) ||
+                        operator.is(DBSPSinkOperator.class));
+    }
+
+    /** Generate the Rust type of the handle of a source or sink operator. */
+    void generateHandleType(DBSPOperator operator, ToRustInnerVisitor inner, IndentStream stream) {
+        DBSPViewBaseOperator output = operator.as(DBSPViewBaseOperator.class);
+        if (output != null) {
+            DBSPType outputType = output.input().outputType;
+            stream.append("OutputHandle<");
+            outputType.accept(inner);
+            stream.append(">");
+            return;
+        }
+        DBSPType type;
+        DBSPTypeZSet zset = operator.outputType.as(DBSPTypeZSet.class);
+        if (zset != null) {
+            type = new DBSPTypeUser(
+                    zset.getNode(), DBSPTypeCode.USER, "ZSetHandle", false,
+                    zset.elementType);
+        } else {
+            DBSPTypeIndexedZSet ix = operator.outputType.to(DBSPTypeIndexedZSet.class);
+            type = new DBSPTypeUser(
+                    ix.getNode(), DBSPTypeCode.USER, "SetHandle", false,
+                    ix.elementType);
+        }
+        type.accept(inner);
+    }
+
+    /** Generate one module for each component, containing a function which
+     * builds the operators of the component.  The functions are independent,
+     * so the Rust compiler can generate code for them in parallel, and
+     * incremental compilation can reuse the modules that have not changed.
+     * Declarations and struct helpers are generated outside the modules, since
+     * they may be shared between components. */
+    void generateComponents(DBSPPartialCircuit circuit, List<Component> components) {
+        for (DBSPOperator operator: circuit.getAllOperators())
+            this.generateStructHelpers(operator);
+        for (DBSPDeclaration item: circuit.declarations) {
+            if (item.item.is(DBSPFunctionItem.class) || item.item.is(DBSPStaticItem.class)) {
+                item.accept(this);
+                this.builder.newline().newline();
+            }
+        }
+
+        for (Component component: components) {
+            this.builder.append("mod ")
+                    .append(component.name)
+                    .append(" {")
+                    .increase()
+                    .append("use super::*;")
+                    .newline()
+                    .newline()
+                    .append("pub fn build(circuit: &dbsp::RootCircuit");
+            if (!this.useHandles)
+                this.builder.append(", catalog: &mut Catalog");
+            for (DBSPOperator source: component.sources) {
+                this.builder.append(", ")
+                        .append(source.getOutputName())
+                        .append(": ");
+                new DBSPTypeStream(source.outputType).accept(this.innerVisitor);
+            }
+            this.builder.append(") -> (");
+            for (DBSPOperator operator: component.operators) {
+                if (this.producesHandle(operator)) {
+                    this.generateHandleType(operator, this.innerVisitor, this.builder);
+                    this.builder.append(", ");
+                }
+            }
+            this.builder.append(") {")
+                    .increase();
+            for (DBSPOperator operator: component.operators)
+                this.processNode(operator);
+            this.builder.append("(");
+            for (DBSPOperator operator: component.operators) {
+                if (this.producesHandle(operator))
+                    this.builder.append(this.handleName(operator))
+                            .append(", ");
+            }
+            this.builder.append(")")
+                    .newline()
+                    .decrease()
+                    .append("}")
+                    .newline()
+                    .decrease()
+                    .append("}")
+                    .newline()
+                    .newline();
+        }
+    }
+
     @Override
     public VisitDecision preorder(DBSPPartialCircuit circuit) {
         StringBuilder b = new StringBuilder();
@@ -378,26 +590,12 @@ public class ToRustVisitor extends CircuitVisitor {
         } else {
             signature.append("(");
             for (DBSPOperator input: circuit.sourceOperators.values()) {
-                DBSPType type;
-                DBSPTypeZSet zset = input.outputType.as(DBSPTypeZSet.class);
-                if (zset != null) {
-                    type = new DBSPTypeUser(
-                            zset.getNode(), DBSPTypeCode.USER, "ZSetHandle", false,
-                            zset.elementType);
-                } else {
-                    DBSPTypeIndexedZSet ix = input.outputType.to(DBSPTypeIndexedZSet.class);
-                    type = new DBSPTypeUser(
-                            ix.getNode(), DBSPTypeCode.USER, "SetHandle", false,
-                            ix.elementType);
-                }
-                type.accept(inner);
+                this.generateHandleType(input, inner, signature);
                 signature.append(", ");
             }
             for (DBSPViewBaseOperator output: circuit.sinkOperators.values()) {
-                DBSPType outputType = output.input().outputType;
-                signature.append("OutputHandle<");
-                outputType.accept(inner);
-                signature.append(">, ");
+                this.generateHandleType(output, inner, signature);
+                signature.append(", ");
             }
             signature.append(")");
         }
@@ -413,23 +611,61 @@ public class ToRustVisitor extends CircuitVisitor {
         if (!this.useHandles)
             this.builder.append("let mut catalog = Catalog::new();").newline();
 
-        for (DBSPDeclaration item: circuit.declarations) {
-            // Generate functions used locally
-            if (item.item.is(DBSPFunctionItem.class)) {
-                item.accept(this);
-                this.builder.newline().newline();
+        if (this.components != null) {
+            // The sources are shared by the components
+            for (DBSPOperator operator: circuit.getAllOperators())
+                if (operator.is(DBSPSourceBaseOperator.class))
+                    this.processNode(operator);
+            for (Component component: this.components) {
+                if (this.useHandles) {
+                    this.builder.append("let (");
+                    for (DBSPOperator operator: component.operators) {
+                        if (this.producesHandle(operator))
+                            this.builder.append(this.handleName(operator))
+                                    .append(", ");
+                    }
+                    this.builder.append(") = ");
+                }
+                this.builder.append(component.name)
+                        .append("::build(circuit");
+                if (!this.useHandles)
+                    this.builder.append(", &mut catalog");
+                for (DBSPOperator source: component.sources)
+                    this.builder.append(", ")
+                            .append(source.getOutputName())
+                            .append(".clone()");
+                this.builder.append(");")
+                        .newline();
+            }
+        } else {
+            for (DBSPDeclaration item: circuit.declarations) {
+                // Generate functions and statics used locally
+                if (item.item.is(DBSPFunctionItem.class) || item.item.is(DBSPStaticItem.class)) {
+                    item.accept(this);
+                    this.builder.newline().newline();
+                }
             }
-        }
 
-        for (IDBSPNode node : circuit.getAllOperators())
-            this.processNode(node);
+            for (IDBSPNode node : circuit.getAllOperators())
+                this.processNode(node);
+        }
 
-        if (!this.useHandles)
+        if (!this.useHandles) {
             this.builder.append("Ok(catalog)");
-        else
-            this.builder.append("Ok((")
-                    .append(this.streams.toString())
-                    .append("))");
+        } else {
+            this.builder.append("Ok((");
+            if (this.components != null) {
+                // Same order as the handles in the signature
+                for (DBSPOperator operator: circuit.getAllOperators()) {
+                    if (this.producesHandle(operator))
+                        this.builder.append(this.handleName(operator))
+                                .append(", ");
+                }
+            } else {
+                this.builder.append(this.streams.toString());
+            }
+            this.builder.append("))");
+        }
         this.builder.newline()
                 .decrease()
                 .append("})?;")
@@ -481,11 +717,31 @@ public class ToRustVisitor extends CircuitVisitor {
         }
     }
 
+    /** Generate the helper declarations for the structs used by a source or sink operator. */
+    void generateStructHelpers(DBSPOperator operator) {
+        if (this.useHandles)
+            return;
+        DBSPSourceMultisetOperator multiset = operator.as(DBSPSourceMultisetOperator.class);
+        if (multiset != null) {
+            this.generateStructHelpers(multiset.originalRowType, multiset.metadata);
+            return;
+        }
+        DBSPSourceMapOperator map = operator.as(DBSPSourceMapOperator.class);
+        if (map != null) {
+            DBSPTypeStruct type = map.originalRowType;
+            this.generateStructHelpers(type, map.metadata);
+            this.generateStructHelpers(map.getKeyStructType(type.sanitizedName + "_key"), map.metadata);
+            this.generateStructHelpers(map.getStructUpsertType(type.sanitizedName + "_upsert"), map.metadata);
+            return;
+        }
+        DBSPSinkOperator sink = operator.as(DBSPSinkOperator.class);
+        if (sink != null)
+            this.generateStructHelpers(sink.originalRowType, null);
+    }
+
     @Override
     public VisitDecision preorder(DBSPSourceMultisetOperator operator) {
-        DBSPTypeStruct type = operator.originalRowType;
-        if (!this.options.ioOptions.emitHandles)
-            this.generateStructHelpers(type, operator.metadata);
+        this.generateStructHelpers(operator);
 
         this.writeComments(operator)
                 .append("let (")
@@ -519,19 +775,12 @@ public class ToRustVisitor extends CircuitVisitor {
 
     @Override
     public VisitDecision preorder(DBSPSourceMapOperator operator) {
+        this.generateStructHelpers(operator);
         DBSPTypeStruct type = operator.originalRowType;
-        if (!this.options.ioOptions.emitHandles)
-            this.generateStructHelpers(type, operator.metadata);
-
         DBSPTypeStruct keyStructType = operator.getKeyStructType(
                 operator.originalRowType.sanitizedName + "_key");
-        if (!this.options.ioOptions.emitHandles)
-            this.generateStructHelpers(keyStructType, operator.metadata);
-
         DBSPTypeStruct upsertStruct = operator.getStructUpsertType(
                 operator.originalRowType.sanitizedName + "_upsert");
-        if (!this.options.ioOptions.emitHandles)
-            this.generateStructHelpers(upsertStruct, operator.metadata);
 
         this.writeComments(operator)
                 .append("let (")
@@ -690,6 +939,26 @@ public class ToRustVisitor extends CircuitVisitor {
         return VisitDecision.STOP;
     }
 
+    @Override
+    public VisitDecision preorder(DBSPSemiJoinOperator operator) {
+        // There is no incremental semijoin in DBSP: left - antijoin(left, right)
+        DBSPType streamType = new DBSPTypeStream(operator.outputType);
+        String left = operator.left().getOutputName();
+        this.writeComments(operator)
+                .append("let ")
+                .append(operator.getOutputName())
+                .append(": ");
+        streamType.accept(this.innerVisitor);
+        this.builder.append(" = ")
+                .append(left)
+                .append(".minus(&")
+                .append(left)
+                .append(".antijoin(&")
+                .append(operator.right().getOutputName())
+                .append("));");
+        return VisitDecision.STOP;
+    }
+
     @Override
     public VisitDecision preorder(DBSPWaterlineOperator operator) {
         DBSPType streamType = new DBSPTypeStream(operator.outputType);
@@ -716,9 +985,7 @@ public class ToRustVisitor extends CircuitVisitor {
     @Override
     public VisitDecision preorder(DBSPSinkOperator operator) {
         this.writeComments(operator);
-        DBSPTypeStruct type = operator.originalRowType;
-        if (!this.options.ioOptions.emitHandles)
-            this.generateStructHelpers(type, null);
+        this.generateStructHelpers(operator);
         if (!this.useHandles) {
             IHasSchema description = this.metadata.getViewDescription(operator.viewName);
             DBSPStrLiteral json = new DBSPStrLiteral(description.asJson().toString(), false, true);
@@ -25,6 +25,7 @@ package org.dbsp.sqlCompiler.compiler.frontend;
 
 import com.google.common.collect.ImmutableList;
 import org.apache.calcite.adapter.jdbc.JdbcTableScan;
+import org.apache.calcite.rel.RelCollations;
 import org.apache.calcite.rel.RelFieldCollation;
 import org.apache.calcite.rel.RelNode;
 import org.apache.calcite.rel.RelRoot;
@@ -56,6 +57,7 @@ import org.apache.calcite.rex.RexLiteral;
 import org.apache.calcite.rex.RexNode;
 import org.apache.calcite.rex.RexOver;
 import org.apache.calcite.rex.RexWindowBound;
+import org.apache.calcite.sql.SqlAggFunction;
 import org.apache.calcite.sql.SqlDataTypeSpec;
 import org.apache.calcite.sql.SqlIdentifier;
 import org.apache.calcite.sql.SqlInsert;
@@ -67,6 +69,11 @@ import org.apache.calcite.sql.SqlRankFunction;
 import org.apache.calcite.sql.SqlUserDefinedTypeNameSpec;
 import org.apache.calcite.sql.ddl.SqlAttributeDefinition;
 import org.apache.calcite.sql.ddl.SqlCreateType;
+import org.apache.calcite.sql.fun.SqlCountAggFunction;
+import org.apache.calcite.sql.fun.SqlMinMaxAggFunction;
+import org.apache.calcite.sql.fun.SqlStdOperatorTable;
+import org.apache.calcite.sql.fun.SqlSumAggFunction;
+import org.apache.calcite.sql.fun.SqlSumEmptyIsZeroAggFunction;
 import org.apache.calcite.sql.type.SqlTypeName;
 import org.apache.calcite.util.ImmutableBitSet;
 import org.dbsp.sqlCompiler.circuit.DBSPPartialCircuit;
@@ -88,8 +95,10 @@ import org.dbsp.sqlCompiler.circuit.operator.DBSPPartitionedRollingAggregateOper
 import org.dbsp.sqlCompiler.circuit.operator.DBSPSinkOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPSourceMultisetOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPStreamAggregateOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPStreamAntiJoinOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPStreamDistinctOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPStreamJoinOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPStreamSemiJoinOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPSubtractOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPSumOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPViewOperator;
@@ -559,28 +568,41 @@ public class CalciteToDBSPCompiler extends RelVisitor
 
     /** Implement one aggregate from a set of rollups described by a LogicalAggregate. */
     DBSPOperator implementOneAggregate(LogicalAggregate aggregate, ImmutableBitSet localKeys) {
-        CalciteObject node = CalciteObject.create(aggregate);
         RelNode input = aggregate.getInput();
         DBSPOperator opInput = this.getInputAs(input, true);
-        List<AggregateCall> aggregateCalls = aggregate.getAggCallList();
+        DBSPType inputRowType = this.convertType(input.getRowType(), false);
+        return this.implementOneAggregate(aggregate, opInput, inputRowType,
+                aggregate.getGroupSet(), aggregate.getAggCallList(), localKeys);
+    }
 
+    /** Implement one aggregate from a set of rollups.
+     * @param aggregate      Aggregate whose result is computed.
+     * @param opInput        Operator producing the data that is aggregated.
+     * @param inputRowType   Type of the rows produced by opInput.
+     * @param groupSet       Fields of the input rows that form the keys of the aggregate.
+     * @param aggregateCalls Aggregation functions, applied to the input rows.
+     * @param localKeys      Subset of groupSet used for grouping in this rollup. */
+    DBSPOperator implementOneAggregate(
+            LogicalAggregate aggregate, DBSPOperator opInput, DBSPType inputRowType,
+            ImmutableBitSet groupSet, List<AggregateCall> aggregateCalls, ImmutableBitSet localKeys) {
+        CalciteObject node = CalciteObject.create(aggregate);
+        int groupCount = groupSet.cardinality();
         DBSPType type = this.convertType(aggregate.getRowType(), false);
         DBSPTypeTuple tuple = type.to(DBSPTypeTuple.class);
-        DBSPType inputRowType = this.convertType(input.getRowType(), false);
         DBSPVariablePath t = inputRowType.ref().var("t");
-        DBSPTypeTuple keySlice = tuple.slice(0, aggregate.getGroupSet().cardinality());
+        DBSPTypeTuple keySlice = tuple.slice(0, groupCount);
         DBSPTupleExpression globalKeys = this.generateKeyExpression(
-                aggregate.getGroupSet(), aggregate.getGroupSet(), t, keySlice);
-        DBSPType[] aggTypes = Utilities.arraySlice(tuple.tupFields, aggregate.getGroupCount());
+                groupSet, groupSet, t, keySlice);
+        DBSPType[] aggTypes = Utilities.arraySlice(tuple.tupFields, groupCount);
         DBSPTypeTuple aggType = new DBSPTypeTuple(aggTypes);
-        DBSPAggregate fold = this.createAggregate(aggregate, aggregateCalls, tuple, inputRowType, aggregate.getGroupCount(), localKeys);
+        DBSPAggregate fold = this.createAggregate(aggregate, aggregateCalls, tuple, inputRowType, groupCount, localKeys);
         // The aggregate operator will not return a stream of type aggType, but a stream
         // with a type given by fd.defaultZero.
         DBSPTypeTuple typeFromAggregate = fold.defaultZeroType();
         DBSPTypeIndexedZSet aggregateResultType = makeIndexedZSet(globalKeys.getType(), typeFromAggregate);
 
         DBSPTupleExpression localKeyExpression = this.generateKeyExpression(
-                localKeys, aggregate.getGroupSet(), t, keySlice);
+                localKeys, groupSet, t, keySlice);
         DBSPClosureExpression makeKeys =
                 new DBSPRawTupleExpression(
                         localKeyExpression,
@@ -588,7 +610,7 @@ public class CalciteToDBSPCompiler extends RelVisitor
         DBSPType localGroupType = localKeyExpression.getType();
         DBSPTypeIndexedZSet localGroupAndInput = makeIndexedZSet(localGroupType, inputRowType);
         DBSPOperator createIndex = new DBSPMapIndexOperator(
-                node, makeKeys, localGroupAndInput, false, opInput);
+                node, makeKeys, localGroupAndInput, opInput.isMultiset, opInput);
         this.circuit.addOperator(createIndex);
         DBSPTypeIndexedZSet aggregateType = makeIndexedZSet(localGroupType, typeFromAggregate);
 
@@ -611,15 +633,15 @@ public class CalciteToDBSPCompiler extends RelVisitor
         // Adjust the key such that all local groups are converted to have the same keys as the
         // global group.  This is used as part of the rollup.
         DBSPOperator adjust;
-        if (localKeys.equals(aggregate.getGroupSet())) {
+        if (localKeys.equals(groupSet)) {
             adjust = agg;
         } else {
             // Generate a new key where each field that is in the groupKeys but not in the local is a null.
             DBSPVariablePath reindexVar = new DBSPVariablePath("t", aggregateType.getKVRefType());
-            DBSPExpression[] reindexFields = new DBSPExpression[aggregate.getGroupCount()];
+            DBSPExpression[] reindexFields = new DBSPExpression[groupCount];
             int localIndex = 0;
             int i = 0;
-            for (int globalIndex: aggregate.getGroupSet()) {
+            for (int globalIndex: groupSet) {
                 if (localKeys.get(globalIndex)) {
                     reindexFields[globalIndex] = reindexVar
                             .field(0)
@@ -644,19 +666,19 @@ public class CalciteToDBSPCompiler extends RelVisitor
         // Flatten the resulting set
         DBSPTypeTupleBase kvType = new DBSPTypeRawTuple(globalKeys.getType().ref(), typeFromAggregate.ref());
         DBSPVariablePath kv = kvType.var("kv");
-        DBSPExpression[] flattenFields = new DBSPExpression[aggregate.getGroupCount() + aggType.size()];
-        for (int i = 0; i < aggregate.getGroupCount(); i++)
+        DBSPExpression[] flattenFields = new DBSPExpression[groupCount + aggType.size()];
+        for (int i = 0; i < groupCount; i++)
             flattenFields[i] = kv.deepCopy().field(0).deref().field(i).applyCloneIfNeeded().cast(tuple.getFieldType(i));
         for (int i = 0; i < aggType.size(); i++) {
             DBSPExpression flattenField = kv.deepCopy().field(1).deref().field(i).applyCloneIfNeeded();
             // Here we correct from the type produced by the Folder (typeFromAggregate) to the
             // actual expected type aggType (which is the tuple of aggTypes).
-            flattenFields[aggregate.getGroupCount() + i] = flattenField.cast(aggTypes[i]);
+            flattenFields[groupCount + i] = flattenField.cast(aggTypes[i]);
         }
         DBSPExpression mapper = new DBSPTupleExpression(flattenFields).closure(kv.asParameter());
         DBSPMapOperator map = new DBSPMapOperator(node, mapper, this.makeZSet(tuple), adjust);
         this.circuit.addOperator(map);
-        if (aggregate.getGroupCount() != 0 || aggregateCalls.isEmpty()) {
+        if (groupCount != 0 || aggregateCalls.isEmpty()) {
             return map;
         }
 
@@ -694,6 +716,78 @@ public class CalciteToDBSPCompiler extends RelVisitor
         return sum;
     }
 
+    /** The function which combines partial results of an aggregation function,
+     * or null if the aggregate cannot be computed from partial results. */
+    @Nullable
+    static SqlAggFunction rollupFunction(AggregateCall call) {
+        if (call.isDistinct() || call.hasFilter() || call.isApproximate())
+            return null;
+        SqlAggFunction function = call.getAggregation();
+        if (function instanceof SqlCountAggFunction)
+            return SqlStdOperatorTable.SUM0;
+        if (function instanceof SqlSumAggFunction ||
+                function instanceof SqlSumEmptyIsZeroAggFunction ||
+                function instanceof SqlMinMaxAggFunction)
+            return function;
+        return null;
+    }
+
+    /** Aggregation functions which compute the results of an aggregate from the results
+     * of the same aggregate for a finer grouping.  The finer results have the
+     * type of the aggregate: group keys followed by one field for each aggregation function.
+     * Returns null if some aggregation function cannot be computed in this way. */
+    @Nullable
+    static List<AggregateCall> rollupCalls(LogicalAggregate aggregate) {
+        List<AggregateCall> result = new ArrayList<>();
+        int index = aggregate.getGroupCount();
+        for (AggregateCall call: aggregate.getAggCallList()) {
+            SqlAggFunction rollup = rollupFunction(call);
+            if (rollup == null)
+                return null;
+            result.add(AggregateCall.create(rollup, false, false, false, List.of(),
+                    List.of(index), -1, null, RelCollations.EMPTY, call.getType(), call.getName()));
+            index++;
+        }
+        return result;
+    }
+
+    /** Implement all the groupings of a rollup.  Each grouping is computed
+     * from the result of the smallest grouping already computed that contains it,
+     * so only the finest groupings read the input of the aggregate.
+     * @param aggregate   Aggregate to implement.
+     * @param plan        Groupings, in decreasing order of cardinality.
+     * @param rollupCalls Aggregation functions which combine partial results. */
+    List<DBSPOperator> implementRollup(
+            LogicalAggregate aggregate, List<ImmutableBitSet> plan, List<AggregateCall> rollupCalls) {
+        DBSPType rowType = this.convertType(aggregate.getRowType(), false);
+        // The results of the finer groupings contain all the keys, in order
+        ImmutableBitSet allKeys = ImmutableBitSet.range(aggregate.getGroupCount());
+        List<DBSPOperator> result = new ArrayList<>();
+        for (int i = 0; i < plan.size(); i++) {
+            ImmutableBitSet keys = plan.get(i);
+            int finer = -1;
+            for (int j = 0; j < i; j++) {
+                ImmutableBitSet candidate = plan.get(j);
+                if (candidate.contains(keys) &&
+                        (finer < 0 || candidate.cardinality() < plan.get(finer).cardinality()))
+                    finer = j;
+            }
+            DBSPOperator op;
+            if (finer < 0) {
+                op = this.implementOneAggregate(aggregate, keys);
+            } else {
+                // Position of each key within the group set
+                ImmutableBitSet.Builder localKeys = ImmutableBitSet.builder();
+                for (int key: keys)
+                    localKeys.set(aggregate.getGroupSet().indexOf(key));
+                op = this.implementOneAggregate(aggregate, result.get(finer), rowType,
+                        allKeys, rollupCalls, localKeys.build());
+            }
+            result.add(op);
+        }
+        return result;
+    }
+
     /** Implement a LogicalAggregate.  The LogicalAggregate can contain a rollup,
      * described by a set of groups.  The aggregate is computed for each group,
      * and the results are combined.
@@ -715,7 +809,12 @@ public class CalciteToDBSPCompiler extends RelVisitor
             this.assignOperator(aggregate, result);
         } else {
             // One aggregate for each group
-            List<DBSPOperator> aggregates = Linq.map(plan, b -> this.implementOneAggregate(aggregate, b));
+            List<AggregateCall> rollupCalls = plan.size() > 1 ? rollupCalls(aggregate) : null;
+            List<DBSPOperator> aggregates;
+            if (rollupCalls != null)
+                aggregates = this.implementRollup(aggregate, plan, rollupCalls);
+            else
+                aggregates = Linq.map(plan, b -> this.implementOneAggregate(aggregate, b));
             // The result is the sum of all aggregates
             DBSPOperator sum = new DBSPSumOperator(node, aggregates);
             this.assignOperator(aggregate, sum);
@@ -918,12 +1017,187 @@ public class CalciteToDBSPCompiler extends RelVisitor
         return filter;
     }
 
+    /** Index the rows of 'input' by the specified columns, cast to 'keyTypes'.
+     * @param keepRows If true the values are the rows, otherwise they are empty.
+     * The result is not added to the circuit. */
+    private DBSPOperator indexByKey(CalciteObject node, DBSPOperator input, List<Integer> keyColumns,
+                                    List<DBSPType> keyTypes, boolean keepRows) {
+        DBSPTypeTuple rowType = input.getType().to(DBSPTypeZSet.class).elementType.to(DBSPTypeTuple.class);
+        DBSPVariablePath t = rowType.ref().var("t");
+        List<DBSPExpression> keyFields = new ArrayList<>();
+        for (int i = 0; i < keyColumns.size(); i++)
+            keyFields.add(t.deref().field(keyColumns.get(i)).applyCloneIfNeeded().cast(keyTypes.get(i)));
+        DBSPExpression key = new DBSPTupleExpression(node, keyFields);
+        DBSPExpression value = keepRows ?
+                DBSPTupleExpression.flatten(t.deref()) :
+                new DBSPRawTupleExpression();
+        DBSPClosureExpression toKey = new DBSPRawTupleExpression(key, value).closure(t.asParameter());
+        return new DBSPMapIndexOperator(
+                node, toKey, makeIndexedZSet(key.getType(), value.getType()), input);
+    }
+
+    /** Combine two indexed collections with the same key type using a semi-join or an anti-join.
+     * Returns the rows of the left collection; the result is not added to the circuit. */
+    private DBSPOperator semiOrAntiJoin(CalciteObject node, DBSPOperator leftIndex,
+                                        DBSPOperator rightIndex, boolean semi) {
+        DBSPOperator semiOrAnti;
+        if (semi)
+            semiOrAnti = new DBSPStreamSemiJoinOperator(node, leftIndex, rightIndex);
+        else
+            semiOrAnti = new DBSPStreamAntiJoinOperator(node, leftIndex, rightIndex);
+        this.circuit.addOperator(semiOrAnti);
+        return new DBSPDeindexOperator(node, semiOrAnti);
+    }
+
+    /** The rows of 'input' which have no matching row in 'other', where rows match
+     * when the specified columns are equal.  Rows of 'input' with a null key never match.
+     * The anti-join only keeps the distinct keys of 'other', so the work done to maintain
+     * the result is proportional to the number of keys that change.
+     * @param other    Must not contain rows with null keys.
+     * The result is not added to the circuit. */
+    private DBSPOperator unmatchedRows(CalciteObject node, DBSPOperator input, List<Integer> inputColumns,
+                                       DBSPOperator other, List<Integer> otherColumns, List<DBSPType> commonTypes) {
+        DBSPTypeTuple rowType = input.getType().to(DBSPTypeZSet.class).elementType.to(DBSPTypeTuple.class);
+        List<DBSPType> keyTypes = new ArrayList<>();
+        for (int i = 0; i < inputColumns.size(); i++)
+            keyTypes.add(commonTypes.get(i).setMayBeNull(rowType.getFieldType(inputColumns.get(i)).mayBeNull));
+        DBSPOperator index = this.indexByKey(node, input, inputColumns, keyTypes, true);
+        this.circuit.addOperator(index);
+        DBSPOperator otherIndex = this.indexByKey(node, other, otherColumns, keyTypes, false);
+        this.circuit.addOperator(otherIndex);
+        return this.semiOrAntiJoin(node, index, otherIndex, false);
+    }
+
+    /** Implement a SEMI or ANTI join.
+     * When the join condition is an equi-join the inputs are keyed by the join columns,
+     * and combined by a semi-join or anti-join operator, which only needs to store
+     * the distinct keys of the right input.
+     * Otherwise the left rows which have a match are computed by an inner join,
+     * and the left input is joined with their distinct values. */
+    private void visitSemiOrAntiJoin(LogicalJoin join,
+                                     JoinConditionAnalyzer.ConditionDecomposition decomposition,
+                                     DBSPOperator left, DBSPOperator right) {
+        CalciteObject node = CalciteObject.create(join);
+        DBSPTypeTuple resultType = this.convertType(join.getRowType(), false).to(DBSPTypeTuple.class);
+        DBSPTypeTuple leftElementType = left.getType().to(DBSPTypeZSet.class).elementType.to(DBSPTypeTuple.class);
+        DBSPOperator filteredRight = this.filterNonNullKeys(
+                join, Linq.map(decomposition.comparisons, c -> c.rightColumn), right);
+        DBSPTypeTuple rightElementType = filteredRight.getType().to(DBSPTypeZSet.class).elementType
+                .to(DBSPTypeTuple.class);
+        DBSPVariablePath l = leftElementType.ref().var("l");
+        DBSPVariablePath r = rightElementType.ref().var("r");
+
+        boolean semi = join.getJoinType() == JoinRelType.SEMI;
+        DBSPOperator result;
+        @Nullable
+        RexNode leftOver = decomposition.getLeftOver();
+        if (leftOver == null) {
+            // Rows of the left input with a null key never match, but they must
+            // be preserved by an ANTI join, so the left input is not filtered.
+            List<DBSPType> keyTypes = Linq.map(decomposition.comparisons,
+                    c -> c.commonType.setMayBeNull(leftElementType.getFieldType(c.leftColumn).mayBeNull));
+            DBSPOperator leftIndex = this.indexByKey(node, left,
+                    Linq.map(decomposition.comparisons, c -> c.leftColumn), keyTypes, true);
+            this.circuit.addOperator(leftIndex);
+            DBSPOperator rightIndex = this.indexByKey(node, filteredRight,
+                    Linq.map(decomposition.comparisons, c -> c.rightColumn), keyTypes, false);
+            this.circuit.addOperator(rightIndex);
+            result = this.semiOrAntiJoin(node, leftIndex, rightIndex, semi);
+        } else {
+            // Compute the inner join, and keep the distinct left rows that have a match
+            DBSPOperator filteredLeft = this.filterNonNullKeys(
+                    join, Linq.map(decomposition.comparisons, c -> c.leftColumn), left);
+            DBSPTypeTuple filteredLeftType = filteredLeft.getType().to(DBSPTypeZSet.class).elementType
+                    .to(DBSPTypeTuple.class);
+            DBSPVariablePath fl = filteredLeftType.ref().var("l");
+            DBSPExpression leftKey = new DBSPTupleExpression(node, Linq.map(
+                    decomposition.comparisons,
+                    c -> fl.deref().field(c.leftColumn).applyCloneIfNeeded().cast(c.commonType)));
+            DBSPExpression rightKey = new DBSPTupleExpression(node, Linq.map(
+                    decomposition.comparisons,
+                    c -> r.deref().field(c.rightColumn).applyCloneIfNeeded().cast(c.commonType)));
+            DBSPClosureExpression toLeftKey = new DBSPRawTupleExpression(
+                    leftKey, DBSPTupleExpression.flatten(fl.deref()))
+                    .closure(fl.asParameter());
+            DBSPOperator joinLeft = new DBSPMapIndexOperator(
+                    node, toLeftKey, makeIndexedZSet(leftKey.getType(), filteredLeftType), filteredLeft.isMultiset, filteredLeft);
+            this.circuit.addOperator(joinLeft);
+            DBSPClosureExpression toRightKey = new DBSPRawTupleExpression(
+                    rightKey, DBSPTupleExpression.flatten(r.deref()))
+                    .closure(r.asParameter());
+            DBSPOperator joinRight = new DBSPMapIndexOperator(
+                    node, toRightKey, makeIndexedZSet(rightKey.getType(), rightElementType), filteredRight.isMultiset, filteredRight);
+            this.circuit.addOperator(joinRight);
+
+            DBSPTupleExpression lr = DBSPTupleExpression.flatten(fl.deref(), r.deref());
+            DBSPVariablePath k = leftKey.getType().ref().var("k");
+            DBSPClosureExpression makeTuple = lr.closure(k.asParameter(), fl.asParameter(), r.asParameter());
+            DBSPOperator inner = new DBSPStreamJoinOperator(node, this.makeZSet(lr.getType()),
+                    makeTuple, left.isMultiset || right.isMultiset, joinLeft, joinRight);
+            this.circuit.addOperator(inner);
+
+            DBSPVariablePath t = lr.getType().ref().var("t");
+            ExpressionCompiler expressionCompiler = new ExpressionCompiler(t, this.compiler);
+            DBSPExpression condition = expressionCompiler.compile(leftOver);
+            if (condition.getType().mayBeNull)
+                condition = ExpressionCompiler.wrapBoolIfNeeded(condition);
+            DBSPBoolLiteral bLit = condition.as(DBSPBoolLiteral.class);
+            if (bLit == null || bLit.value == null || !bLit.value) {
+                condition = new DBSPClosureExpression(
+                        CalciteObject.create(join.getCondition()), condition, t.asParameter());
+                inner = new DBSPFilterOperator(node, condition, inner);
+                this.circuit.addOperator(inner);
+            }
+
+            DBSPVariablePath joinVar = lr.getType().ref().var("j");
+            DBSPClosureExpression toLeftColumns =
+                    DBSPTupleExpression.flatten(joinVar.deref())
+                            .slice(0, leftElementType.size())
+                            .pointwiseCast(leftElementType).closure(joinVar.asParameter());
+            DBSPOperator matchedRows = new DBSPMapOperator(
+                    node, toLeftColumns, this.makeZSet(leftElementType), inner);
+            this.circuit.addOperator(matchedRows);
+            DBSPOperator matched = new DBSPStreamDistinctOperator(node, matchedRows);
+            this.circuit.addOperator(matched);
+
+            // The matching rows are already computed by the inner join, so a semi-join
+            // operator would save nothing here: join the left input with the matching rows.
+            DBSPClosureExpression toRow = new DBSPRawTupleExpression(
+                    DBSPTupleExpression.flatten(l.deref()),
+                    DBSPTupleExpression.flatten(l.deref()))
+                    .closure(l.asParameter());
+            DBSPOperator leftIndex = new DBSPMapIndexOperator(
+                    node, toRow, makeIndexedZSet(leftElementType, leftElementType), left);
+            this.circuit.addOperator(leftIndex);
+            DBSPClosureExpression toKey = new DBSPRawTupleExpression(
+                    DBSPTupleExpression.flatten(l.deref()), new DBSPRawTupleExpression())
+                    .closure(l.asParameter());
+            DBSPOperator matchedIndex = new DBSPMapIndexOperator(
+                    node, toKey, makeIndexedZSet(leftElementType, new DBSPTypeRawTuple()), matched);
+            this.circuit.addOperator(matchedIndex);
+            DBSPVariablePath k = leftElementType.ref().var("k");
+            DBSPVariablePath u = new DBSPTypeRawTuple().ref().var("u");
+            DBSPClosureExpression toLeft = DBSPTupleExpression.flatten(l.deref())
+                    .closure(k.asParameter(), l.asParameter(), u.asParameter());
+            result = new DBSPStreamJoinOperator(node, this.makeZSet(leftElementType),
+                    toLeft, left.isMultiset, leftIndex, matchedIndex);
+            if (!semi) {
+                this.circuit.addOperator(result);
+                result = new DBSPSubtractOperator(node, left, result);
+            }
+        }
+        if (!resultType.sameType(leftElementType)) {
+            this.circuit.addOperator(result);
+            DBSPClosureExpression cast = DBSPTupleExpression.flatten(l.deref())
+                    .pointwiseCast(resultType).closure(l.asParameter());
+            result = new DBSPMapOperator(node, cast, this.makeZSet(resultType), result);
+        }
+        this.assignOperator(join, result);
+    }
+
     private void visitJoin(LogicalJoin join) {
         CalciteObject node = CalciteObject.create(join);
         JoinRelType joinType = join.getJoinType();
-        if (joinType == JoinRelType.ANTI || joinType == JoinRelType.SEMI)
-            throw new UnimplementedException(node);
-
         DBSPTypeTuple resultType = this.convertType(join.getRowType(), false).to(DBSPTypeTuple.class);
         if (join.getInputs().size() != 2)
             throw new InternalCompilerError("Unexpected join with " + join.getInputs().size() + " inputs", node);
@@ -935,6 +1209,10 @@ public class CalciteToDBSPCompiler extends RelVisitor
         JoinConditionAnalyzer analyzer = new JoinConditionAnalyzer(node,
                 leftElementType.to(DBSPTypeTuple.class).size(), this.compiler.getTypeCompiler());
         JoinConditionAnalyzer.ConditionDecomposition decomposition = analyzer.analyze(join.getCondition());
+        if (joinType == JoinRelType.ANTI || joinType == JoinRelType.SEMI) {
+            this.visitSemiOrAntiJoin(join, decomposition, left, right);
+            return;
+        }
         // If any key field is nullable we need to filter the inputs; this will make key columns non-nullable
         DBSPOperator filteredLeft = this.filterNonNullKeys(join, Linq.map(decomposition.comparisons, c -> c.leftColumn), left);
         DBSPOperator filteredRight = this.filterNonNullKeys(join, Linq.map(decomposition.comparisons, c -> c.rightColumn), right);
@@ -981,7 +1259,7 @@ public class CalciteToDBSPCompiler extends RelVisitor
                 .closure(l.asParameter());
         DBSPOperator leftIndex = new DBSPMapIndexOperator(
                 node, toLeftKey,
-                makeIndexedZSet(leftKey.getType(), leftElementType), false, filteredLeft);
+                makeIndexedZSet(leftKey.getType(), leftElementType), filteredLeft.isMultiset, filteredLeft);
         this.circuit.addOperator(leftIndex);
 
         DBSPClosureExpression toRightKey = new DBSPRawTupleExpression(
@@ -989,7 +1267,7 @@ public class CalciteToDBSPCompiler extends RelVisitor
                 .closure(r.asParameter());
         DBSPOperator rIndex = new DBSPMapIndexOperator(
                 node, toRightKey,
-                makeIndexedZSet(rightKey.getType(), rightElementType), false, filteredRight);
+                makeIndexedZSet(rightKey.getType(), rightElementType), filteredRight.isMultiset, filteredRight);
         this.circuit.addOperator(rIndex);
 
         DBSPClosureExpression makeTuple = lr.closure(k.asParameter(), l.asParameter(), r.asParameter());
@@ -1028,32 +1306,51 @@ public class CalciteToDBSPCompiler extends RelVisitor
         // Handle outer joins
         DBSPOperator result = joinResult;
         DBSPVariablePath joinVar = lr.getType().ref().var("j");
+        List<Integer> leftKeyColumns = Linq.map(decomposition.comparisons, c -> c.leftColumn);
+        List<Integer> rightKeyColumns = Linq.map(decomposition.comparisons, c -> c.rightColumn);
+        List<DBSPType> commonTypes = Linq.map(decomposition.comparisons, c -> c.commonType);
         if (joinType == JoinRelType.LEFT || joinType == JoinRelType.FULL) {
             this.circuit.addOperator(result);
-            // project the join on the left columns
-            DBSPClosureExpression toLeftColumns =
-                    DBSPTupleExpression.flatten(joinVar.deref())
-                            .slice(0, leftColumns)
-                            .pointwiseCast(leftResultType).closure(joinVar.asParameter());
-            DBSPOperator joinLeftColumns = new DBSPMapOperator(
-                    node, toLeftColumns, this.makeZSet(leftResultType), inner);
-            this.circuit.addOperator(joinLeftColumns);
-            DBSPOperator distJoin = new DBSPStreamDistinctOperator(node, joinLeftColumns);
-            this.circuit.addOperator(distJoin);
-
-            // subtract from left relation
-            DBSPOperator leftCast = left;
-            if (!leftResultType.sameType(leftElementType)) {
-                DBSPClosureExpression castLeft =
-                    DBSPTupleExpression.flatten(l.deref())
-                            .pointwiseCast(leftResultType).closure(l.asParameter()
-                );
-                leftCast = new DBSPMapOperator(node, castLeft, this.makeZSet(leftResultType), left);
-                this.circuit.addOperator(leftCast);
+            DBSPOperator dist;
+            if (leftOver == null) {
+                // Left rows whose key does not appear in the right input
+                DBSPOperator unmatched = this.unmatchedRows(
+                        node, left, leftKeyColumns, filteredRight, rightKeyColumns, commonTypes);
+                dist = unmatched;
+                if (!leftResultType.sameType(leftElementType)) {
+                    this.circuit.addOperator(unmatched);
+                    DBSPClosureExpression castLeft =
+                            DBSPTupleExpression.flatten(l.deref())
+                                    .pointwiseCast(leftResultType).closure(l.asParameter());
+                    dist = new DBSPMapOperator(node, castLeft, this.makeZSet(leftResultType), unmatched);
+                }
+            } else {
+                // Whether a row has a match depends on the whole row, not just on the key.
+                // project the join on the left columns
+                DBSPClosureExpression toLeftColumns =
+                        DBSPTupleExpression.flatten(joinVar.deref())
+                                .slice(0, leftColumns)
+                                .pointwiseCast(leftResultType).closure(joinVar.asParameter());
+                DBSPOperator joinLeftColumns = new DBSPMapOperator(
+                        node, toLeftColumns, this.makeZSet(leftResultType), inner);
+                this.circuit.addOperator(joinLeftColumns);
+                DBSPOperator distJoin = new DBSPStreamDistinctOperator(node, joinLeftColumns);
+                this.circuit.addOperator(distJoin);
+
+                // subtract from left relation
+                DBSPOperator leftCast = left;
+                if (!leftResultType.sameType(leftElementType)) {
+                    DBSPClosureExpression castLeft =
+                        DBSPTupleExpression.flatten(l.deref())
+                                .pointwiseCast(leftResultType).closure(l.asParameter()
+                    );
+                    leftCast = new DBSPMapOperator(node, castLeft, this.makeZSet(leftResultType), left);
+                    this.circuit.addOperator(leftCast);
+                }
+                DBSPOperator sub = new DBSPSubtractOperator(node, leftCast, distJoin);
+                this.circuit.addOperator(sub);
+                dist = new DBSPStreamDistinctOperator(node, sub);
             }
-            DBSPOperator sub = new DBSPSubtractOperator(node, leftCast, distJoin);
-            this.circuit.addOperator(sub);
-            DBSPStreamDistinctOperator dist = new DBSPStreamDistinctOperator(node, sub);
             this.circuit.addOperator(dist);
 
             // fill nulls in the right relation fields
@@ -1070,31 +1367,46 @@ public class CalciteToDBSPCompiler extends RelVisitor
         if (joinType == JoinRelType.RIGHT || joinType == JoinRelType.FULL) {
             this.circuit.addOperator(result);
 
-            // project the join on the right columns
-            DBSPClosureExpression toRightColumns =
-                    DBSPTupleExpression.flatten(joinVar.deref())
-                            .slice(leftColumns, totalColumns)
-                            .pointwiseCast(rightResultType).closure(
-                    joinVar.asParameter());
-            DBSPOperator joinRightColumns = new DBSPMapOperator(
-                    node, toRightColumns, this.makeZSet(rightResultType), inner);
-            this.circuit.addOperator(joinRightColumns);
-            DBSPOperator distJoin = new DBSPStreamDistinctOperator(node, joinRightColumns);
-            this.circuit.addOperator(distJoin);
-
-            // subtract from right relation
-            DBSPOperator rightCast = right;
-            if (!rightResultType.sameType(rightElementType)) {
-                DBSPClosureExpression castRight =
-                        DBSPTupleExpression.flatten(r.deref())
+            DBSPOperator dist;
+            if (leftOver == null) {
+                // Right rows whose key does not appear in the left input
+                DBSPOperator unmatched = this.unmatchedRows(
+                        node, right, rightKeyColumns, filteredLeft, leftKeyColumns, commonTypes);
+                dist = unmatched;
+                if (!rightResultType.sameType(rightElementType)) {
+                    this.circuit.addOperator(unmatched);
+                    DBSPClosureExpression castRight =
+                            DBSPTupleExpression.flatten(r.deref())
+                                    .pointwiseCast(rightResultType).closure(r.asParameter());
+                    dist = new DBSPMapOperator(node, castRight, this.makeZSet(rightResultType), unmatched);
+                }
+            } else {
+                // project the join on the right columns
+                DBSPClosureExpression toRightColumns =
+                        DBSPTupleExpression.flatten(joinVar.deref())
+                                .slice(leftColumns, totalColumns)
                                 .pointwiseCast(rightResultType).closure(
-                        r.asParameter());
-                rightCast = new DBSPMapOperator(node, castRight, this.makeZSet(rightResultType), right);
-                this.circuit.addOperator(rightCast);
+                        joinVar.asParameter());
+                DBSPOperator joinRightColumns = new DBSPMapOperator(
+                        node, toRightColumns, this.makeZSet(rightResultType), inner);
+                this.circuit.addOperator(joinRightColumns);
+                DBSPOperator distJoin = new DBSPStreamDistinctOperator(node, joinRightColumns);
+                this.circuit.addOperator(distJoin);
+
+                // subtract from right relation
+                DBSPOperator rightCast = right;
+                if (!rightResultType.sameType(rightElementType)) {
+                    DBSPClosureExpression castRight =
+                            DBSPTupleExpression.flatten(r.deref())
+                                    .pointwiseCast(rightResultType).closure(
+                            r.asParameter());
+                    rightCast = new DBSPMapOperator(node, castRight, this.makeZSet(rightResultType), right);
+                    this.circuit.addOperator(rightCast);
+                }
+                DBSPOperator sub = new DBSPSubtractOperator(node, rightCast, distJoin);
+                this.circuit.addOperator(sub);
+                dist = new DBSPStreamDistinctOperator(node, sub);
             }
-            DBSPOperator sub = new DBSPSubtractOperator(node, rightCast, distJoin);
-            this.circuit.addOperator(sub);
-            DBSPStreamDistinctOperator dist = new DBSPStreamDistinctOperator(node, sub);
             this.circuit.addOperator(dist);
 
             // fill nulls in the left relation fields
@@ -1167,7 +1479,9 @@ public class CalciteToDBSPCompiler extends RelVisitor
         if (this.modifyTableTranslation != null) {
             this.modifyTableTranslation.setResult(result);
         } else {
-            DBSPOperator constant = new DBSPConstantOperator(node, result, false);
+            // The rows are not compared, so several rows may contain duplicates
+            boolean isMultiset = result.size() > 1 || Linq.any(result.data.values(), w -> w != 1);
+            DBSPOperator constant = new DBSPConstantOperator(node, result, isMultiset);
             this.assignOperator(values, constant);
         }
     }
@@ -1593,37 +1907,69 @@ public class CalciteToDBSPCompiler extends RelVisitor
                     DBSPTypeAny.getDefault(), numericBound);
         }
 
-        @Override
-        DBSPOperator implement(DBSPOperator input, DBSPOperator lastOperator) {
-            // The final result is accumulated using join operators, which just keep adding columns to
-            // the "lastOperator".  The "lastOperator" is initially the input node itself.
-            List<RelFieldCollation> orderKeys = group.orderKeys.getFieldCollations();
+        /** The expression computing the partition of a row. */
+        DBSPTupleExpression getPartition() {
             List<Integer> partitionKeys = group.keys.toList();
             List<DBSPExpression> expressions = Linq.map(partitionKeys,
                     f -> inputRowRefVar.deepCopy().deref().field(f).applyCloneIfNeeded());
-            DBSPTupleExpression partition = new DBSPTupleExpression(node, expressions);
+            return new DBSPTupleExpression(node, expressions);
+        }
 
+        RelFieldCollation getCollation() {
+            List<RelFieldCollation> orderKeys = group.orderKeys.getFieldCollations();
             if (orderKeys.size() != 1)
                 // TODO: this is only true if we have window bounds
                 throw new UnimplementedException("ORDER BY should be on exactly one column", node);
-            RelFieldCollation collation = orderKeys.get(0);
-            int orderColumnIndex = collation.getFieldIndex();
+            return orderKeys.get(0);
+        }
 
-            DBSPExpression originalOrderField = inputRowRefVar.deref().field(orderColumnIndex);
+        /** The column used for sorting, as it appears in the input row. */
+        DBSPExpression getOriginalOrderField() {
+            int orderColumnIndex = this.getCollation().getFieldIndex();
+            DBSPExpression originalOrderField = inputRowRefVar.deepCopy().deref().field(orderColumnIndex);
             DBSPType sortType = originalOrderField.getType();
             if (!sortType.is(DBSPTypeInteger.class) &&
                     !sortType.is(DBSPTypeTimestamp.class) &&
                     !sortType.is(DBSPTypeDate.class))
                 throw new UnimplementedException("OVER currently cannot sort on columns with type "
                         + Utilities.singleQuote(sortType.asSqlString()), node);
-            boolean ascending = collation.getDirection() == RelFieldCollation.Direction.ASCENDING;
-            boolean nullsLast = collation.nullDirection != RelFieldCollation.NullDirection.FIRST;
+            return originalOrderField;
+        }
 
-            // This only works if the order field is unsigned.
-            DBSPExpression orderField = new DBSPUnsignedWrapExpression(
-                    node, originalOrderField, ascending, nullsLast);
-            DBSPType unsignedSortType = orderField.getType();
+        boolean isAscending() {
+            return this.getCollation().getDirection() == RelFieldCollation.Direction.ASCENDING;
+        }
+
+        boolean isNullsLast() {
+            return this.getCollation().nullDirection != RelFieldCollation.NullDirection.FIRST;
+        }
+
+        /** The column used for sorting, converted to an unsigned value.
+         * This only works if the order field is unsigned. */
+        DBSPExpression getOrderField() {
+            return new DBSPUnsignedWrapExpression(
+                    node, this.getOriginalOrderField(), this.isAscending(), this.isNullsLast());
+        }
 
+        /** Type of the aggregates computed for each (partition, order value) pair. */
+        DBSPTypeTuple getAggregateResultType() {
+            List<DBSPType> types = Linq.map(aggregateCalls, c -> this.compiler.convertType(c.type, false));
+            return new DBSPTypeTuple(types);
+        }
+
+        /** True if 'other' partitions and sorts its input in the same way,
+         * so the two groups can share the indexing of the input and the
+         * join of the results with the input, even if their frames differ. */
+        boolean samePartitionAndOrder(StandardAggregates other) {
+            return this.group.keys.equals(other.group.keys) &&
+                    this.group.orderKeys.equals(other.group.orderKeys);
+        }
+
+        /** Index the input by the order field, with values (partition, row).
+         * @return A differentiated stream, since the window aggregate operator is incremental. */
+        DBSPOperator partitionInput(DBSPOperator input) {
+            DBSPTupleExpression partition = this.getPartition();
+            DBSPExpression orderField = this.getOrderField();
             // Map each row to an expression of the form: |t| (order, Tup2(partition, (*t).clone()))
             DBSPExpression partitionAndRow = new DBSPTupleExpression(
                     partition, inputRowRefVar.deepCopy().deref().applyClone());
@@ -1637,6 +1983,18 @@ public class CalciteToDBSPCompiler extends RelVisitor
             // of it by adding a D and an I around it.
             DBSPDifferentiateOperator diff = new DBSPDifferentiateOperator(node, mapIndex);
             this.compiler.circuit.addOperator(diff);
+            return diff;
+        }
+
+        /** Compute the aggregates of this group.
+         * @param partitioned The result of {@link #partitionInput} for this group.
+         * @return An integrated stream indexed by (partition, order value), whose values
+         *         are the aggregates for the window of the corresponding row. */
+        DBSPOperator aggregate(DBSPOperator partitioned) {
+            DBSPTupleExpression partition = this.getPartition();
+            DBSPType sortType = this.getOriginalOrderField().getType();
+            DBSPExpression orderField = this.getOrderField();
+            DBSPType unsignedSortType = orderField.getType();
 
             // Create window description
             DBSPExpression lb = this.compileWindowBound(group.lowerBound, unsignedSortType, eComp);
@@ -1645,13 +2003,13 @@ public class CalciteToDBSPCompiler extends RelVisitor
                     new DBSPPath("RelRange", "new").toExpression(),
                     DBSPTypeAny.getDefault(), lb, ub);
 
-            List<DBSPType> types = Linq.map(aggregateCalls, c -> this.compiler.convertType(c.type, false));
-            DBSPTypeTuple tuple = new DBSPTypeTuple(types);
+            DBSPTypeTuple tuple = this.getAggregateResultType();
             DBSPAggregate fd = this.compiler.createAggregate(
                     window, aggregateCalls, tuple, inputRowType, 0, ImmutableBitSet.of());
 
             // This function is always the same: |Tup2(x, y)| (x, y)
-            DBSPVariablePath pr = new DBSPVariablePath("pr", partitionAndRow.getType().ref());
+            DBSPType partitionAndRowType = partitioned.getOutputIndexedZSetType().elementType;
+            DBSPVariablePath pr = new DBSPVariablePath("pr", partitionAndRowType.ref());
             DBSPClosureExpression partitioningFunction =
                     new DBSPRawTupleExpression(
                             pr.deref().field(0).applyCloneIfNeeded(),
@@ -1675,7 +2033,7 @@ public class CalciteToDBSPCompiler extends RelVisitor
                     node, partitioningFunction, null, fd,
                     windowExpr,
                     windowOutputType,
-                    diff);
+                    partitioned);
             this.compiler.circuit.addOperator(windowAgg);
 
             // map_index(|(key_ts_agg)| (
@@ -1691,7 +2049,7 @@ public class CalciteToDBSPCompiler extends RelVisitor
             DBSPExpression ts = var.field(1).deref().field(0);
             DBSPExpression agg = var.field(1).deref().field(1).applyCloneIfNeeded();
             DBSPUnsignedUnwrapExpression unwrap = new DBSPUnsignedUnwrapExpression(
-                    node, ts, sortType, ascending, nullsLast);
+                    node, ts, sortType, this.isAscending(), this.isNullsLast());
             DBSPExpression body = new DBSPRawTupleExpression(
                     new DBSPTupleExpression(ixKey, unwrap),
                     new DBSPApplyMethodExpression(node, "unwrap_or_default", aggResultType, agg));
@@ -1701,14 +2059,64 @@ public class CalciteToDBSPCompiler extends RelVisitor
 
             DBSPIntegrateOperator integral = new DBSPIntegrateOperator(node, index);
             this.compiler.circuit.addOperator(integral);
+            return integral;
+        }
+
+        @Override
+        DBSPOperator implement(DBSPOperator input, DBSPOperator lastOperator) {
+            return implement(Linq.list(this), input, lastOperator);
+        }
+
+        /** Implement several groups which all have the same partition and order keys.
+         * The input is indexed only once for all groups.  The aggregates of all groups
+         * are combined, and then joined with the "lastOperator" in a single join.
+         * The final result is accumulated using join operators, which just keep adding columns to
+         * the "lastOperator".  The "lastOperator" is initially the input node itself. */
+        static DBSPOperator implement(List<StandardAggregates> groups, DBSPOperator input, DBSPOperator lastOperator) {
+            StandardAggregates first = groups.get(0);
+            CalciteObject node = first.node;
+            CalciteToDBSPCompiler compiler = first.compiler;
+            DBSPOperator partitioned = first.partitionInput(input);
+
+            // Combine the aggregates of all groups into a single tuple
+            DBSPOperator aggregates = first.aggregate(partitioned);
+            for (int g = 1; g < groups.size(); g++) {
+                StandardAggregates group = groups.get(g);
+                assert first.samePartitionAndOrder(group);
+                DBSPOperator groupAggregates = group.aggregate(partitioned);
+
+                DBSPTypeIndexedZSet leftType = aggregates.getOutputIndexedZSetType();
+                DBSPTypeIndexedZSet rightType = groupAggregates.getOutputIndexedZSetType();
+                DBSPVariablePath key = leftType.keyType.ref().var("k");
+                DBSPVariablePath left = leftType.elementType.ref().var("l");
+                DBSPVariablePath right = rightType.elementType.ref().var("r");
+                DBSPExpression pair = new DBSPTupleExpression(
+                        key.deref().applyClone(),
+                        DBSPTupleExpression.flatten(left.deref(), right.deref()));
+                DBSPOperator join = new DBSPStreamJoinOperator(node, compiler.makeZSet(pair.getType()),
+                        pair.closure(key.asParameter(), left.asParameter(), right.asParameter()),
+                        aggregates.isMultiset || groupAggregates.isMultiset, aggregates, groupAggregates);
+                compiler.circuit.addOperator(join);
+
+                DBSPTypeTuple pairType = pair.getType().to(DBSPTypeTuple.class);
+                DBSPVariablePath p = pairType.ref().var("p");
+                DBSPExpression reindex = new DBSPRawTupleExpression(
+                        p.deref().field(0).applyCloneIfNeeded(),
+                        p.deref().field(1).applyCloneIfNeeded());
+                aggregates = new DBSPMapIndexOperator(node, reindex.closure(p.asParameter()),
+                        makeIndexedZSet(pairType.tupFields[0], pairType.tupFields[1]), join);
+                compiler.circuit.addOperator(aggregates);
+            }
 
             // Join the previous result with the aggregate
             // First index the aggregate.
             DBSPTypeTuple currentTupleType = lastOperator.getOutputZSetElementType().to(DBSPTypeTuple.class);
             DBSPVariablePath previousRowRefVar = currentTupleType.ref().var("t");
+            // Rows of lastOperator start with the fields of the input row, so the
+            // partition and order expressions of the input can be applied to them.
             DBSPExpression partAndOrder = new DBSPTupleExpression(
-                    partition.applyCloneIfNeeded(),
-                    originalOrderField.applyCloneIfNeeded());
+                    first.getPartition().applyCloneIfNeeded(),
+                    first.getOriginalOrderField().applyCloneIfNeeded());
             DBSPExpression indexedInput = new DBSPRawTupleExpression(
                     partAndOrder, previousRowRefVar.deepCopy().deref().applyClone());
             DBSPClosureExpression partAndOrderClo = indexedInput.closure(previousRowRefVar.asParameter());
@@ -1716,8 +2124,10 @@ public class CalciteToDBSPCompiler extends RelVisitor
             DBSPOperator indexInput = new DBSPMapIndexOperator(node, partAndOrderClo,
                     makeIndexedZSet(partAndOrder.getType(), previousRowRefVar.getType().deref()),
                     lastOperator.isMultiset, lastOperator);
-            this.compiler.circuit.addOperator(indexInput);
+            compiler.circuit.addOperator(indexInput);
 
+            DBSPTypeTuple aggResultType = aggregates.getOutputIndexedZSetType()
+                    .elementType.to(DBSPTypeTuple.class);
             DBSPVariablePath key = partAndOrder.getType().ref().var("k");
             DBSPVariablePath left = currentTupleType.ref().var("l");
             DBSPVariablePath right = aggResultType.ref().var("r");
@@ -1725,18 +2135,23 @@ public class CalciteToDBSPCompiler extends RelVisitor
                     currentTupleType.size() + aggResultType.size()];
             for (int i = 0; i < currentTupleType.size(); i++)
                 allFields[i] = left.deref().field(i).applyCloneIfNeeded();
-            for (int i = 0; i < aggResultType.size(); i++) {
-                // Calcite is very smart and sometimes infers non-nullable result types
-                // for these aggregates.  So we have to cast the results to whatever
-                // Calcite says they will be.
-                allFields[i + currentTupleType.size()] = right.deref().field(i).applyCloneIfNeeded().cast(
-                        this.windowResultType.getFieldType(this.windowFieldIndex + i));
+            int index = 0;
+            for (StandardAggregates group: groups) {
+                int groupSize = group.aggregateCalls.size();
+                for (int i = 0; i < groupSize; i++) {
+                    // Calcite is very smart and sometimes infers non-nullable result types
+                    // for these aggregates.  So we have to cast the results to whatever
+                    // Calcite says they will be.
+                    allFields[index + currentTupleType.size()] = right.deref().field(index).applyCloneIfNeeded().cast(
+                            group.windowResultType.getFieldType(group.windowFieldIndex + i));
+                    index++;
+                }
             }
             DBSPTupleExpression addExtraFieldBody = new DBSPTupleExpression(allFields);
             DBSPClosureExpression addExtraField =
                     addExtraFieldBody.closure(key.asParameter(), left.asParameter(), right.asParameter());
-            return new DBSPStreamJoinOperator(node, this.compiler.makeZSet(addExtraFieldBody.getType()),
-                    addExtraField, indexInput.isMultiset || windowAgg.isMultiset, indexInput, integral);
+            return new DBSPStreamJoinOperator(node, compiler.makeZSet(addExtraFieldBody.getType()),
+                    addExtraField, indexInput.isMultiset || aggregates.isMultiset, indexInput, aggregates);
         }
 
         @Override
@@ -1813,10 +2228,25 @@ public class CalciteToDBSPCompiler extends RelVisitor
         // We have to process multiple Groups, and each group has multiple aggregates.
         DBSPOperator lastOperator = input;
         List<GroupAndAggregates> toProcess = this.splitWindow(window, windowFieldIndex);
-        for (GroupAndAggregates ga: toProcess) {
+        for (int i = 0; i < toProcess.size(); ) {
+            GroupAndAggregates ga = toProcess.get(i);
             if (lastOperator != input)
                 this.circuit.addOperator(lastOperator);
-            lastOperator = ga.implement(input, lastOperator);
+            if (ga instanceof StandardAggregates standard) {
+                // Consecutive groups with the same partitioning and order are implemented together
+                List<StandardAggregates> fused = new ArrayList<>();
+                fused.add(standard);
+                for (i++; i < toProcess.size(); i++) {
+                    if (!(toProcess.get(i) instanceof StandardAggregates next) ||
+                            !standard.samePartitionAndOrder(next))
+                        break;
+                    fused.add(next);
+                }
+                lastOperator = StandardAggregates.implement(fused, input, lastOperator);
+            } else {
+                lastOperator = ga.implement(input, lastOperator);
+                i++;
+            }
         }
         this.assignOperator(window, lastOperator);
     }
@@ -1891,6 +2321,10 @@ public class CalciteToDBSPCompiler extends RelVisitor
             index = integral;
         }
         // Global sort.  Implemented by aggregate in a single Vec<> which is then sorted.
+        // All rows end up in the group with the empty key, so the sort runs on a
+        // single worker and the whole Vec is rebuilt after every change.
+        // Spreading it across workers needs a runtime operator that maintains
+        // a range-partitioned sorted trace; none exists yet.
         // Apply an aggregation function that just creates a vector.
         DBSPTypeVec vecType = new DBSPTypeVec(inputRowType, false);
         DBSPExpression zero = new DBSPPath(vecType.name, "new").toExpression().call();
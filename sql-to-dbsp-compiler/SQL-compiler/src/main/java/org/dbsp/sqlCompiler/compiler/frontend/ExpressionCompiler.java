@@ -23,6 +23,7 @@
 
 package org.dbsp.sqlCompiler.compiler.frontend;
 
+import com.google.common.collect.Range;
 import org.apache.calcite.rel.type.RelDataType;
 import org.apache.calcite.rel.type.RelDataTypeField;
 import org.apache.calcite.rex.RexBuilder;
@@ -32,10 +33,12 @@ import org.apache.calcite.rex.RexFieldAccess;
 import org.apache.calcite.rex.RexInputRef;
 import org.apache.calcite.rex.RexLiteral;
 import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.rex.RexUnknownAs;
 import org.apache.calcite.rex.RexUtil;
 import org.apache.calcite.rex.RexVisitorImpl;
 import org.apache.calcite.sql.SqlKind;
 import org.apache.calcite.util.DateString;
+import org.apache.calcite.util.Sarg;
 import org.apache.calcite.util.TimeString;
 import org.apache.calcite.util.TimestampString;
 import org.dbsp.sqlCompiler.compiler.DBSPCompiler;
@@ -57,6 +60,7 @@ import org.dbsp.sqlCompiler.ir.expression.DBSPExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPFieldExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPIfExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPOpcode;
+import org.dbsp.sqlCompiler.ir.expression.DBSPSetContainsExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPTupleExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPUnaryExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPVariablePath;
@@ -121,8 +125,10 @@ import org.locationtech.jts.geom.Point;
 import javax.annotation.Nullable;
 import java.math.BigDecimal;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
+import java.util.Set;
 
 import static org.dbsp.sqlCompiler.ir.type.DBSPTypeCode.NULL;
 
@@ -656,6 +662,62 @@ public class ExpressionCompiler extends RexVisitorImpl<DBSPExpression>
         return new DBSPFieldExpression(node, source, dataField.getIndex());
     }
 
+    /** Minimum number of constants in a SEARCH call for which a set membership
+     * test is generated instead of a chain of comparisons. */
+    static final int SET_CONTAINS_THRESHOLD = 8;
+
+    /** The points of a search argument, or of its complement if negated.
+     * Returns null if the search argument is not a set of points. */
+    @Nullable
+    static <C extends Comparable<C>> Set<Range<C>> searchPoints(Sarg<C> sarg, boolean negated) {
+        if (negated)
+            return sarg.isComplementedPoints() ? sarg.rangeSet.complement().asRanges() : null;
+        return sarg.isPoints() ? sarg.rangeSet.asRanges() : null;
+    }
+
+    /** Compile a SEARCH call whose search argument is a large set of points,
+     * as produced by 'x IN (...)', or the complement of such a set,
+     * as produced by 'x NOT IN (...)', into a set membership test.
+     * Returns null if the call has to be expanded into comparisons. */
+    @Nullable
+    DBSPExpression searchAsSetContains(CalciteObject node, DBSPType type, RexCall call) {
+        RexNode ref = call.operands.get(0);
+        RexLiteral literal = (RexLiteral) call.operands.get(1);
+        Sarg<?> sarg = Objects.requireNonNull(literal.getValueAs(Sarg.class));
+        if (ref.getType().isNullable() && sarg.nullAs != RexUnknownAs.UNKNOWN)
+            return null;
+        boolean negated = !sarg.isPoints();
+        Set<? extends Range<?>> points = searchPoints(sarg, negated);
+        if (points == null || points.size() < SET_CONTAINS_THRESHOLD)
+            return null;
+
+        DBSPExpression expression = ref.accept(this);
+        DBSPType elementType = expression.getType().setMayBeNull(false);
+        // Types whose SQL equality is the Rust equality
+        if (!elementType.is(DBSPTypeInteger.class) &&
+                !elementType.is(DBSPTypeDecimal.class) &&
+                !elementType.is(DBSPTypeString.class) &&
+                !elementType.is(DBSPTypeDate.class) &&
+                !elementType.is(DBSPTypeTime.class) &&
+                !elementType.is(DBSPTypeTimestamp.class))
+            return null;
+        RelDataType valueType = this.rexBuilder.getTypeFactory()
+                .createTypeWithNullability(literal.getType(), false);
+        List<DBSPExpression> values = new ArrayList<>();
+        for (Range<?> point: points) {
+            RexNode value = this.rexBuilder.makeLiteral(point.lowerEndpoint(), valueType, true, true);
+            DBSPExpression compiled = value.accept(this);
+            if (!compiled.is(DBSPLiteral.class) || !compiled.getType().sameType(elementType))
+                return null;
+            values.add(compiled);
+        }
+        DBSPExpression result = new DBSPSetContainsExpression(
+                node, expression, values.toArray(new DBSPExpression[0]));
+        if (negated)
+            result = makeUnaryExpression(node, result.getType(), DBSPOpcode.NOT, Linq.list(result));
+        return result.cast(type);
+    }
+
     @Override
     public DBSPExpression visitCall(RexCall call) {
         CalciteObject node = CalciteObject.create(call);
@@ -669,6 +731,9 @@ public class ExpressionCompiler extends RexVisitorImpl<DBSPExpression>
                 .append(" ")
                 .append(call.getType().toString());
         if (call.op.kind == SqlKind.SEARCH) {
+            DBSPExpression contains = this.searchAsSetContains(node, type, call);
+            if (contains != null)
+                return contains;
             // TODO: Ideally the optimizer should do this before handing the expression to us.
             // Then the rexBuilder won't be needed.
             call = (RexCall)RexUtil.expandSearch(this.rexBuilder, null, call);
@@ -105,6 +105,7 @@ import org.dbsp.sqlCompiler.compiler.frontend.parser.SqlCreateLocalView;
 import org.dbsp.sqlCompiler.compiler.frontend.parser.SqlCreateTable;
 import org.dbsp.sqlCompiler.compiler.frontend.parser.SqlLateness;
 import org.dbsp.sqlCompiler.compiler.frontend.parser.SqlRemove;
+import org.dbsp.sqlCompiler.compiler.frontend.statements.CalciteTableDescription;
 import org.dbsp.sqlCompiler.compiler.frontend.statements.CreateFunctionStatement;
 import org.dbsp.sqlCompiler.compiler.frontend.statements.CreateTableStatement;
 import org.dbsp.sqlCompiler.compiler.frontend.statements.CreateTypeStatement;
@@ -324,6 +325,7 @@ public class CalciteCompiler implements IWritesLogs {
         RelOptPlanner planner = new HepPlanner(new HepProgramBuilder().build());
         planner.setExecutor(RexUtil.EXECUTOR);
         this.cluster = RelOptCluster.create(planner, new RexBuilder(this.typeFactory));
+        this.cluster.setMetadataProvider(TableStatisticsMetadata.PROVIDER);
         this.converterConfig = SqlToRelConverter.config()
                 .withExpand(true);
         this.validator = null;
@@ -822,8 +824,10 @@ public class CalciteCompiler implements IWritesLogs {
                 @Nullable Map<String, String> properties = this.createConnectorProperties(ct.connectorProperties);
                 CreateTableStatement table = new CreateTableStatement(
                         node, sqlStatement, tableName, Utilities.identifierIsQuoted(ct.name), comment, cols, properties);
+                TableStatistics statistics = TableStatistics.create(this.errorReporter,
+                        new SourcePositionRange(ct.name.getParserPosition()), properties, cols);
                 boolean success = this.calciteCatalog.addTable(
-                        tableName, table.getEmulatedTable(), this.errorReporter, table);
+                        tableName, new CalciteTableDescription(table, statistics), this.errorReporter, table);
                 if (!success)
                     return null;
                 return table;
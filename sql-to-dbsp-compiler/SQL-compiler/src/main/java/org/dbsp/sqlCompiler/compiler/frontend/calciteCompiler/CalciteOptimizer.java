@@ -8,8 +8,10 @@ import org.apache.calcite.plan.hep.HepProgramBuilder;
 import org.apache.calcite.rel.RelNode;
 import org.apache.calcite.rel.RelVisitor;
 import org.apache.calcite.rel.core.Join;
+import org.apache.calcite.rel.core.TableScan;
 import org.apache.calcite.rel.rules.CoreRules;
 import org.apache.calcite.rel.rules.PruneEmptyRules;
+import org.dbsp.sqlCompiler.compiler.frontend.statements.CalciteTableDescription;
 import org.dbsp.util.IWritesLogs;
 import org.dbsp.util.Logger;
 
@@ -88,9 +90,11 @@ public class CalciteOptimizer implements IWritesLogs {
     }
 
     final List<CalciteOptimizerStep> steps;
+    final int level;
 
     public CalciteOptimizer(int level) {
         this.steps = new ArrayList<>();
+        this.level = level;
         if (level < 1)
             // For optimization levels below 1 we don't even apply Calcite optimizations.
             // Note that this may cause compilation to fail, since our compiler does not
@@ -106,10 +110,12 @@ public class CalciteOptimizer implements IWritesLogs {
         return rel;
     }
 
-    /** Helper class to discover whether a query contains outer joins */
+    /** Helper class to discover whether a query contains outer joins,
+     * and whether it scans tables with declared statistics */
     static class OuterJoinFinder extends RelVisitor {
         public int outerJoinCount = 0;
         public int joinCount = 0;
+        public int tablesWithStatistics = 0;
         @Override public void visit(
                 RelNode node, int ordinal,
                 @org.checkerframework.checker.nullness.qual.Nullable RelNode parent) {
@@ -118,6 +124,11 @@ public class CalciteOptimizer implements IWritesLogs {
                 ++joinCount;
                 if (join.getJoinType().isOuterJoin())
                     ++outerJoinCount;
+            } else if (node instanceof TableScan) {
+                CalciteTableDescription table = node.getTable() != null ?
+                        node.getTable().unwrap(CalciteTableDescription.class) : null;
+                if (table != null && table.getStatistics() != null)
+                    ++tablesWithStatistics;
             }
             super.visit(node, ordinal, parent);
         }
@@ -176,7 +187,9 @@ public class CalciteOptimizer implements IWritesLogs {
                 OuterJoinFinder finder = new OuterJoinFinder();
                 finder.run(node);
                 // Bushy join optimization fails when the query contains outer joins.
-                boolean hasOuterJoins = (finder.outerJoinCount > 0) || (finder.joinCount < 3);
+                // With declared statistics reordering even 3 tables is worthwhile.
+                int minJoins = finder.tablesWithStatistics > 0 ? 2 : 3;
+                boolean hasOuterJoins = (finder.outerJoinCount > 0) || (finder.joinCount < minJoins);
                 if (!hasOuterJoins) {
                     this.addRules(
                             CoreRules.JOIN_TO_MULTI_JOIN,
@@ -189,6 +202,14 @@ public class CalciteOptimizer implements IWritesLogs {
             }
         });
 
+        if (this.level >= 2) {
+            // Equi semi-joins are implemented by operators which only store the
+            // distinct keys of the right input; these rules only produce equi-joins.
+            this.addStep(new SimpleOptimizerStep("Semi-joins",
+                    CoreRules.PROJECT_TO_SEMI_JOIN,
+                    CoreRules.JOIN_TO_SEMI_JOIN));
+        }
+
         this.addStep(new SimpleOptimizerStep(
                 "Move projections",
                 CoreRules.PROJECT_CORRELATE_TRANSPOSE,
@@ -0,0 +1,103 @@
+package org.dbsp.sqlCompiler.compiler.frontend.calciteCompiler;
+
+import org.apache.calcite.schema.Statistic;
+import org.dbsp.sqlCompiler.compiler.IErrorReporter;
+import org.dbsp.sqlCompiler.compiler.errors.SourcePositionRange;
+import org.dbsp.util.Utilities;
+
+import javax.annotation.Nullable;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Statistics declared by the user for a table, used by the
+ * Calcite optimizer to estimate the cost of joins.
+ * The statistics are declared as properties of the table:
+ * - 'row_count': estimated number of rows in the table
+ * - 'ndv.COLUMN': estimated number of distinct values in the specified column */
+public class TableStatistics implements Statistic {
+    public static final String ROW_COUNT = "row_count";
+    public static final String NDV_PREFIX = "ndv.";
+
+    @Nullable
+    final Double rowCount;
+    /** Maps column index to number of distinct values. */
+    final Map<Integer, Double> distinctValues;
+
+    public TableStatistics(@Nullable Double rowCount, Map<Integer, Double> distinctValues) {
+        this.rowCount = rowCount;
+        this.distinctValues = distinctValues;
+    }
+
+    @Override
+    @Nullable
+    public Double getRowCount() {
+        return this.rowCount;
+    }
+
+    /** Estimated number of distinct values in the specified column; null if unknown. */
+    @Nullable
+    public Double getDistinctValues(int column) {
+        return this.distinctValues.get(column);
+    }
+
+    static int findColumn(List<RelColumnMetadata> columns, String name) {
+        for (int i = 0; i < columns.size(); i++) {
+            RelColumnMetadata column = columns.get(i);
+            if (column.getName().equals(name) ||
+                    (!column.nameIsQuoted && column.getName().equalsIgnoreCase(name)))
+                return i;
+        }
+        return -1;
+    }
+
+    @Nullable
+    static Double parseCount(IErrorReporter reporter, SourcePositionRange position, String key, String value) {
+        try {
+            double result = Double.parseDouble(value);
+            if (result >= 0 && Double.isFinite(result))
+                return result;
+        } catch (NumberFormatException ignored) {}
+        reporter.reportError(position, "Illegal table statistic",
+                "Value of property " + Utilities.singleQuote(key) +
+                        " must be a non-negative number, not " + Utilities.singleQuote(value));
+        return null;
+    }
+
+    /** Extract the statistics from the properties of a table.
+     * @param reporter   Used to report malformed statistics.
+     * @param position   Position of the table declaration.
+     * @param properties Table properties.
+     * @param columns    Table columns.
+     * @return           The statistics declared, or null if none are declared. */
+    @Nullable
+    public static TableStatistics create(IErrorReporter reporter, SourcePositionRange position,
+                                         @Nullable Map<String, String> properties,
+                                         List<RelColumnMetadata> columns) {
+        if (properties == null)
+            return null;
+        Double rowCount = null;
+        Map<Integer, Double> distinctValues = new HashMap<>();
+        for (Map.Entry<String, String> entry: properties.entrySet()) {
+            String key = entry.getKey();
+            if (key.equals(ROW_COUNT)) {
+                rowCount = parseCount(reporter, position, key, entry.getValue());
+            } else if (key.startsWith(NDV_PREFIX)) {
+                String column = key.substring(NDV_PREFIX.length());
+                int index = findColumn(columns, column);
+                if (index < 0) {
+                    reporter.reportError(position, "Illegal table statistic",
+                            "Property " + Utilities.singleQuote(key) +
+                                    " refers to unknown column " + Utilities.singleQuote(column));
+                    continue;
+                }
+                Double ndv = parseCount(reporter, position, key, entry.getValue());
+                if (ndv != null)
+                    distinctValues.put(index, ndv);
+            }
+        }
+        if (rowCount == null && distinctValues.isEmpty())
+            return null;
+        return new TableStatistics(rowCount, distinctValues);
+    }
+}
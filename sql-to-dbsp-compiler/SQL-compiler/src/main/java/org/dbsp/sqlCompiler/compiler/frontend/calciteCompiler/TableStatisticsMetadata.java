@@ -0,0 +1,69 @@
+package org.dbsp.sqlCompiler.compiler.frontend.calciteCompiler;
+
+import org.apache.calcite.rel.core.TableScan;
+import org.apache.calcite.rel.metadata.BuiltInMetadata;
+import org.apache.calcite.rel.metadata.ChainedRelMetadataProvider;
+import org.apache.calcite.rel.metadata.DefaultRelMetadataProvider;
+import org.apache.calcite.rel.metadata.MetadataDef;
+import org.apache.calcite.rel.metadata.MetadataHandler;
+import org.apache.calcite.rel.metadata.ReflectiveRelMetadataProvider;
+import org.apache.calcite.rel.metadata.RelMdUtil;
+import org.apache.calcite.rel.metadata.RelMetadataProvider;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.util.ImmutableBitSet;
+import org.apache.calcite.util.NumberUtil;
+import org.dbsp.sqlCompiler.compiler.frontend.statements.CalciteTableDescription;
+
+import javax.annotation.Nullable;
+import java.util.List;
+
+/** Supplies the number of distinct values in table columns declared
+ * in {@link TableStatistics} to the Calcite optimizer.  Row counts do not
+ * need a handler, since Calcite reads them from the table {@link org.apache.calcite.schema.Statistic}. */
+public class TableStatisticsMetadata implements MetadataHandler<BuiltInMetadata.DistinctRowCount> {
+    static final RelMetadataProvider SOURCE = ReflectiveRelMetadataProvider.reflectiveSource(
+            new TableStatisticsMetadata(), BuiltInMetadata.DistinctRowCount.Handler.class);
+
+    /** Metadata provider which uses the declared statistics before the default Calcite estimates. */
+    public static final RelMetadataProvider PROVIDER = ChainedRelMetadataProvider.of(
+            List.of(SOURCE, DefaultRelMetadataProvider.INSTANCE));
+
+    @Override
+    public MetadataDef<BuiltInMetadata.DistinctRowCount> getDef() {
+        return BuiltInMetadata.DistinctRowCount.DEF;
+    }
+
+    @Nullable
+    public Double getDistinctRowCount(TableScan scan, RelMetadataQuery mq,
+                                      ImmutableBitSet groupKey, @Nullable RexNode predicate) {
+        CalciteTableDescription table = scan.getTable().unwrap(CalciteTableDescription.class);
+        TableStatistics statistics = table != null ? table.getStatistics() : null;
+        Double result = null;
+        if (statistics != null && !groupKey.isEmpty()) {
+            // Assume that the columns are independent
+            result = 1.0;
+            for (int column : groupKey) {
+                Double ndv = statistics.getDistinctValues(column);
+                if (ndv == null) {
+                    result = null;
+                    break;
+                }
+                result *= ndv;
+            }
+            if (result != null) {
+                Double rowCount = mq.getRowCount(scan);
+                if (rowCount != null)
+                    result = Math.min(result, rowCount);
+                result = NumberUtil.multiply(result, mq.getSelectivity(scan, predicate));
+            }
+        }
+        if (result == null) {
+            // Same as the default Calcite estimate, which is shadowed by this handler
+            boolean unique = RelMdUtil.areColumnsDefinitelyUnique(mq, scan, groupKey);
+            if (unique)
+                return NumberUtil.multiply(mq.getRowCount(scan), mq.getSelectivity(scan, predicate));
+        }
+        return result;
+    }
+}
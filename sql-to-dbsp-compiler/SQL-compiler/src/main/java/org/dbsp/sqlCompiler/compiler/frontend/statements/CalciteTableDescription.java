@@ -5,17 +5,41 @@ import org.apache.calcite.linq4j.Enumerable;
 import org.apache.calcite.rel.type.RelDataType;
 import org.apache.calcite.rel.type.RelDataTypeFactory;
 import org.apache.calcite.schema.ScannableTable;
+import org.apache.calcite.schema.Statistic;
 import org.apache.calcite.schema.impl.AbstractTable;
 import org.dbsp.sqlCompiler.compiler.errors.UnsupportedException;
 import org.dbsp.sqlCompiler.compiler.frontend.calciteCompiler.RelColumnMetadata;
+import org.dbsp.sqlCompiler.compiler.frontend.calciteCompiler.TableStatistics;
+
+import javax.annotation.Nullable;
 
 /** A description of a table wrapping the attributes that Calcite needs
  * to compile SQL programs that refer to this table. */
 public class CalciteTableDescription extends AbstractTable implements ScannableTable {
     final IHasSchema schema;
+    /** Statistics declared by the user, if any. */
+    @Nullable
+    final TableStatistics statistics;
 
-    public CalciteTableDescription(IHasSchema schema) {
+    public CalciteTableDescription(IHasSchema schema, @Nullable TableStatistics statistics) {
         this.schema = schema;
+        this.statistics = statistics;
+    }
+
+    public CalciteTableDescription(IHasSchema schema) {
+        this(schema, null);
+    }
+
+    @Nullable
+    public TableStatistics getStatistics() {
+        return this.statistics;
+    }
+
+    @Override
+    public Statistic getStatistic() {
+        if (this.statistics != null)
+            return this.statistics;
+        return super.getStatistic();
     }
 
     @Override
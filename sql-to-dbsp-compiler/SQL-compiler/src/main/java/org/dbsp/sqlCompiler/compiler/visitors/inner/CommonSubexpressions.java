@@ -0,0 +1,306 @@
+package org.dbsp.sqlCompiler.compiler.visitors.inner;
+
+import org.dbsp.sqlCompiler.compiler.DBSPCompiler;
+import org.dbsp.sqlCompiler.compiler.visitors.VisitDecision;
+import org.dbsp.sqlCompiler.ir.DBSPParameter;
+import org.dbsp.sqlCompiler.ir.IDBSPDeclaration;
+import org.dbsp.sqlCompiler.ir.IDBSPInnerNode;
+import org.dbsp.sqlCompiler.ir.expression.DBSPApplyBaseExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPApplyExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPApplyMethodExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPAssignmentExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPBaseTupleExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPBinaryExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPBlockExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPBorrowExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPCastExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPCloneExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPClosureExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPDerefExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPFieldExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPIfExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPIsNullExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPOpcode;
+import org.dbsp.sqlCompiler.ir.expression.DBSPPathExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPQuestionExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPSomeExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPUnaryExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPVariablePath;
+import org.dbsp.sqlCompiler.ir.statement.DBSPExpressionStatement;
+import org.dbsp.sqlCompiler.ir.statement.DBSPLetStatement;
+import org.dbsp.sqlCompiler.ir.statement.DBSPStatement;
+import org.dbsp.sqlCompiler.ir.type.DBSPType;
+import org.dbsp.sqlCompiler.ir.type.DBSPTypeAny;
+import org.dbsp.sqlCompiler.ir.type.DBSPTypeRef;
+import org.dbsp.sqlCompiler.ir.type.primitive.DBSPTypeVoid;
+import org.dbsp.util.Linq;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/** Computes only once the expressions which are repeated in the body of a closure.
+ * Each repeated expression is bound to a variable with a let statement at the
+ * beginning of the closure body, and all its occurrences are replaced with the variable.
+ * Only function calls, method calls, and casts which depend only on the
+ * closure parameters are factored out; calls to functions implemented by the
+ * user are left in place, since they may not be pure.
+ * An expression is factored out only if at least one of its occurrences is
+ * always evaluated, so the rewritten closure never does more work than the original.
+ * Closures which may mutate their parameters or return early are not changed. */
+public class CommonSubexpressions extends InnerRewriteVisitor {
+    final DBSPCompiler compiler;
+    /** Used to generate unique names for the variables introduced. */
+    int letCount;
+
+    public CommonSubexpressions(DBSPCompiler compiler) {
+        super(compiler);
+        this.compiler = compiler;
+        this.letCount = 0;
+    }
+
+    /** Finds the expressions in a closure which could be computed only once.
+     * Nested closures are not analyzed: they have their own parameters.
+     * Uses a stack with one entry for each expression being visited. */
+    class FindCandidates extends InnerVisitor {
+        final ResolveReferences resolver;
+        /** Expressions which could be bound to a variable, in the order they appear. */
+        final List<DBSPExpression> candidates;
+        /** Nodes which are not evaluated every time the closure is evaluated. */
+        final Set<IDBSPInnerNode> conditional;
+        /** Number of nodes in each candidate. */
+        final Map<DBSPExpression, Integer> size;
+        /** True if the corresponding expression only refers to the closure parameters. */
+        final List<Boolean> onlyParameters;
+        /** Number of nodes visited so far in the corresponding expression. */
+        final List<Integer> nodeCount;
+        /** False if the closure cannot be rewritten. */
+        boolean canRewrite;
+
+        FindCandidates() {
+            super(CommonSubexpressions.this.errorReporter);
+            this.resolver = new ResolveReferences(CommonSubexpressions.this.errorReporter, true);
+            this.candidates = new ArrayList<>();
+            this.conditional = Collections.newSetFromMap(new IdentityHashMap<>());
+            this.size = new IdentityHashMap<>();
+            this.onlyParameters = new ArrayList<>();
+            this.nodeCount = new ArrayList<>();
+            this.canRewrite = true;
+        }
+
+        /** True if evaluating the parent always evaluates the child. */
+        static boolean alwaysEvaluated(IDBSPInnerNode parent, IDBSPInnerNode child) {
+            if (parent.is(DBSPIfExpression.class))
+                return parent.to(DBSPIfExpression.class).condition == child;
+            if (parent.is(DBSPBinaryExpression.class)) {
+                DBSPBinaryExpression binary = parent.to(DBSPBinaryExpression.class);
+                // && and || do not evaluate the right operand if the left one decides the result
+                return binary.left == child ||
+                        (binary.operation != DBSPOpcode.AND && binary.operation != DBSPOpcode.OR);
+            }
+            return parent.is(DBSPClosureExpression.class) ||
+                    parent.is(DBSPBlockExpression.class) ||
+                    parent.is(DBSPLetStatement.class) ||
+                    parent.is(DBSPExpressionStatement.class) ||
+                    parent.is(DBSPApplyBaseExpression.class) ||
+                    parent.is(DBSPCastExpression.class) ||
+                    parent.is(DBSPUnaryExpression.class) ||
+                    parent.is(DBSPBaseTupleExpression.class) ||
+                    parent.is(DBSPSomeExpression.class) ||
+                    parent.is(DBSPBorrowExpression.class) ||
+                    parent.is(DBSPDerefExpression.class) ||
+                    parent.is(DBSPCloneExpression.class) ||
+                    parent.is(DBSPFieldExpression.class) ||
+                    parent.is(DBSPIsNullExpression.class);
+        }
+
+        void setConditional(IDBSPInnerNode node) {
+            IDBSPInnerNode parent = this.getParent();
+            if (parent == null)
+                return;
+            if (this.conditional.contains(parent) || !alwaysEvaluated(parent, node))
+                this.conditional.add(node);
+        }
+
+        /** True if the expression is worth computing only once. */
+        boolean isCandidate(DBSPExpression expression) {
+            DBSPType type = expression.getType();
+            if (type.is(DBSPTypeAny.class) || type.is(DBSPTypeVoid.class))
+                return false;
+            if (expression.is(DBSPApplyExpression.class)) {
+                // Functions implemented by the user may not be pure
+                DBSPPathExpression function = expression.to(DBSPApplyExpression.class)
+                        .function.as(DBSPPathExpression.class);
+                return function != null &&
+                        CommonSubexpressions.this.compiler.getCustomFunctions().getSignature(function.toString()) == null;
+            }
+            return expression.is(DBSPApplyMethodExpression.class) ||
+                    expression.is(DBSPCastExpression.class);
+        }
+
+        @Override
+        public VisitDecision preorder(DBSPType node) {
+            return VisitDecision.STOP;
+        }
+
+        @Override
+        public VisitDecision preorder(DBSPParameter parameter) {
+            DBSPTypeRef ref = parameter.getType().as(DBSPTypeRef.class);
+            if (ref != null && ref.mutable)
+                this.canRewrite = false;
+            return VisitDecision.STOP;
+        }
+
+        @Override
+        public VisitDecision preorder(DBSPStatement node) {
+            this.setConditional(node);
+            return VisitDecision.CONTINUE;
+        }
+
+        @Override
+        public VisitDecision preorder(DBSPExpression node) {
+            int last = this.onlyParameters.size() - 1;
+            if (node.is(DBSPClosureExpression.class) && last >= 0) {
+                // A nested closure
+                this.onlyParameters.set(last, false);
+                return VisitDecision.STOP;
+            }
+            if (node.is(DBSPQuestionExpression.class) || node.is(DBSPAssignmentExpression.class))
+                this.canRewrite = false;
+            this.setConditional(node);
+            this.onlyParameters.add(true);
+            this.nodeCount.add(1);
+            return VisitDecision.CONTINUE;
+        }
+
+        @Override
+        public void postorder(DBSPExpression node) {
+            int last = this.onlyParameters.size() - 1;
+            boolean only = this.onlyParameters.remove(last);
+            int count = this.nodeCount.remove(last);
+            if (node.is(DBSPVariablePath.class)) {
+                IDBSPDeclaration declaration = this.resolver.reference.get(node.to(DBSPVariablePath.class));
+                // Free variables refer to global declarations
+                only = declaration == null || declaration instanceof DBSPParameter;
+            }
+            if (only && this.isCandidate(node)) {
+                this.candidates.add(node);
+                this.size.put(node, count);
+            }
+            if (last > 0) {
+                if (!only)
+                    this.onlyParameters.set(last - 1, false);
+                this.nodeCount.set(last - 1, this.nodeCount.get(last - 1) + count);
+            }
+        }
+
+        /** The occurrences of the largest expression which appears more than once
+         * and is always evaluated at least once.  Null if there is no such expression.
+         * @param parameters  Parameters of the closure; candidates only refer to these. */
+        @Nullable
+        List<DBSPExpression> largestRepeated(DBSPParameter[] parameters) {
+            // The parameters are the same declarations in all candidates
+            EquivalenceContext context = new EquivalenceContext();
+            context.leftDeclaration.newContext();
+            context.rightDeclaration.newContext();
+            for (DBSPParameter parameter: parameters) {
+                context.leftDeclaration.substitute(parameter.name, parameter);
+                context.rightDeclaration.substitute(parameter.name, parameter);
+                context.leftToRight.put(parameter, parameter);
+            }
+            List<List<DBSPExpression>> groups = new ArrayList<>();
+            for (DBSPExpression candidate: this.candidates) {
+                List<DBSPExpression> group = null;
+                for (List<DBSPExpression> g: groups) {
+                    DBSPExpression first = g.get(0);
+                    if (first.getType().sameType(candidate.getType()) &&
+                            context.equivalent(first, candidate)) {
+                        group = g;
+                        break;
+                    }
+                }
+                if (group == null) {
+                    group = new ArrayList<>();
+                    groups.add(group);
+                }
+                group.add(candidate);
+            }
+
+            List<DBSPExpression> result = null;
+            for (List<DBSPExpression> group: groups) {
+                if (group.size() < 2 || Linq.all(group, this.conditional::contains))
+                    continue;
+                if (result == null || this.size.get(group.get(0)) > this.size.get(result.get(0)))
+                    result = group;
+            }
+            return result;
+        }
+
+        @Override
+        public void startVisit(IDBSPInnerNode node) {
+            this.resolver.apply(node);
+            super.startVisit(node);
+        }
+    }
+
+    /** Replaces the specified expressions with a reference to a variable. */
+    class Replace extends InnerRewriteVisitor {
+        final Set<DBSPExpression> occurrences;
+        final DBSPLetStatement let;
+
+        Replace(List<DBSPExpression> occurrences, DBSPLetStatement let) {
+            super(CommonSubexpressions.this.errorReporter);
+            this.occurrences = Collections.newSetFromMap(new IdentityHashMap<>());
+            this.occurrences.addAll(occurrences);
+            this.let = let;
+        }
+
+        @Override
+        protected DBSPExpression transform(DBSPExpression expression) {
+            if (this.occurrences.contains(expression))
+                return this.let.getVarReference().applyCloneIfNeeded();
+            return super.transform(expression);
+        }
+    }
+
+    /** Rewrite the closure to compute each repeated expression only once. */
+    DBSPClosureExpression eliminate(DBSPClosureExpression closure) {
+        List<DBSPStatement> lets = new ArrayList<>();
+        DBSPExpression body = closure.body;
+        while (true) {
+            DBSPExpression current = lets.isEmpty() ? body : new DBSPBlockExpression(lets, body);
+            FindCandidates finder = new FindCandidates();
+            finder.apply(current.closure(closure.parameters));
+            if (!finder.canRewrite)
+                return closure;
+            List<DBSPExpression> repeated = finder.largestRepeated(closure.parameters);
+            if (repeated == null)
+                break;
+
+            // The first occurrence becomes the initializer; smaller expressions
+            // factored out later are declared before it.
+            DBSPLetStatement let = new DBSPLetStatement("cse" + this.letCount++, repeated.get(0));
+            Replace replace = new Replace(repeated, let);
+            lets = Linq.map(lets, s -> replace.apply(s).to(DBSPStatement.class));
+            body = replace.transform(body);
+            lets.add(0, let);
+        }
+        if (lets.isEmpty())
+            return closure;
+        return new DBSPBlockExpression(lets, body).closure(closure.parameters);
+    }
+
+    @Override
+    public VisitDecision preorder(DBSPClosureExpression expression) {
+        // Nested closures are rewritten first
+        super.preorder(expression);
+        DBSPClosureExpression closure = this.getResultExpression().to(DBSPClosureExpression.class);
+        this.map(expression, this.eliminate(closure));
+        return VisitDecision.STOP;
+    }
+}
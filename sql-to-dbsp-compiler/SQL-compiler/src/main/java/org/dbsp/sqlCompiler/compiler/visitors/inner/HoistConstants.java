@@ -0,0 +1,247 @@
+package org.dbsp.sqlCompiler.compiler.visitors.inner;
+
+import org.dbsp.sqlCompiler.circuit.DBSPPartialCircuit;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPDeclaration;
+import org.dbsp.sqlCompiler.compiler.DBSPCompiler;
+import org.dbsp.sqlCompiler.compiler.visitors.VisitDecision;
+import org.dbsp.sqlCompiler.compiler.visitors.outer.CircuitRewriter;
+import org.dbsp.sqlCompiler.ir.IDBSPInnerNode;
+import org.dbsp.sqlCompiler.ir.expression.DBSPApplyExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPApplyMethodExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPBinaryExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPBorrowExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPCastExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPCloneExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPPathExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPSetContainsExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPSomeExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPUnaryExpression;
+import org.dbsp.sqlCompiler.ir.expression.literal.DBSPDecimalLiteral;
+import org.dbsp.sqlCompiler.ir.expression.literal.DBSPLiteral;
+import org.dbsp.sqlCompiler.ir.expression.literal.DBSPMapLiteral;
+import org.dbsp.sqlCompiler.ir.expression.literal.DBSPVecLiteral;
+import org.dbsp.sqlCompiler.ir.statement.DBSPStaticItem;
+import org.dbsp.sqlCompiler.ir.type.DBSPType;
+import org.dbsp.sqlCompiler.ir.type.primitive.DBSPTypeBaseType;
+import org.dbsp.sqlCompiler.ir.type.primitive.DBSPTypeKeyword;
+import org.dbsp.sqlCompiler.ir.type.primitive.DBSPTypeNull;
+import org.dbsp.sqlCompiler.ir.type.primitive.DBSPTypeStr;
+import org.dbsp.sqlCompiler.ir.type.primitive.DBSPTypeVoid;
+import org.dbsp.sqlCompiler.ir.type.user.DBSPTypeMap;
+import org.dbsp.sqlCompiler.ir.type.user.DBSPTypeUser;
+import org.dbsp.sqlCompiler.ir.type.user.DBSPTypeVec;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import static org.dbsp.sqlCompiler.ir.type.DBSPTypeCode.USER;
+
+/** Moves constant expressions out of the functions of the circuit into
+ * statics which are evaluated only once, on first use.
+ * Only constant expressions which do some work for each evaluation
+ * are moved: function calls, casts, decimal, array, and map literals.
+ * Calls to RLIKE with a constant pattern are rewritten to use a
+ * regular expression which is compiled only once.
+ * The statics are added to the declarations of the circuit. */
+public class HoistConstants extends InnerRewriteVisitor {
+    final DBSPCompiler compiler;
+    /** Statics created for the circuit currently being rewritten. */
+    final List<DBSPStaticItem> statics;
+    /** Used to generate unique names for statics;
+     * not reset between circuits, since they may share a Rust module. */
+    int staticCount;
+    /** Constant expressions in the node currently being rewritten. */
+    FindConstants constants;
+
+    /** Finds the constant expressions in an inner node.
+     * Uses a stack with one entry for each expression being visited. */
+    class FindConstants extends InnerVisitor {
+        /** Constant expressions. */
+        final Set<DBSPExpression> constant;
+        /** Constant expressions which are worth moving out. */
+        final Set<DBSPExpression> expensive;
+        /** True if all children visited so far of the corresponding expression are constant. */
+        final List<Boolean> childrenConstant;
+        /** True if any child visited so far of the corresponding expression is expensive. */
+        final List<Boolean> childrenExpensive;
+
+        FindConstants() {
+            super(HoistConstants.this.errorReporter);
+            this.constant = Collections.newSetFromMap(new IdentityHashMap<>());
+            this.expensive = Collections.newSetFromMap(new IdentityHashMap<>());
+            this.childrenConstant = new ArrayList<>();
+            this.childrenExpensive = new ArrayList<>();
+        }
+
+        @Override
+        public VisitDecision preorder(DBSPType node) {
+            return VisitDecision.STOP;
+        }
+
+        @Override
+        public VisitDecision preorder(DBSPExpression node) {
+            this.childrenConstant.add(true);
+            this.childrenExpensive.add(false);
+            return VisitDecision.CONTINUE;
+        }
+
+        @Override
+        public void postorder(DBSPExpression node) {
+            int last = this.childrenConstant.size() - 1;
+            boolean isConstant = this.childrenConstant.remove(last) && this.canBeConstant(node);
+            boolean isExpensive = this.childrenExpensive.remove(last) || this.isExpensive(node);
+            if (isConstant) {
+                this.constant.add(node);
+                if (isExpensive)
+                    this.expensive.add(node);
+            }
+            if (last > 0) {
+                if (!isConstant)
+                    this.childrenConstant.set(last - 1, false);
+                if (isExpensive)
+                    this.childrenExpensive.set(last - 1, true);
+            }
+        }
+
+        /** True if the expression is constant when all its children are constant. */
+        boolean canBeConstant(DBSPExpression expression) {
+            if (expression.is(DBSPApplyExpression.class)) {
+                // Functions implemented by the user may not be pure
+                DBSPPathExpression function = expression.to(DBSPApplyExpression.class)
+                        .function.as(DBSPPathExpression.class);
+                return function != null &&
+                        HoistConstants.this.compiler.getCustomFunctions().getSignature(function.toString()) == null;
+            }
+            return expression.is(DBSPLiteral.class) ||
+                    expression.is(DBSPPathExpression.class) ||
+                    expression.is(DBSPApplyMethodExpression.class) ||
+                    expression.is(DBSPCastExpression.class) ||
+                    expression.is(DBSPUnaryExpression.class) ||
+                    expression.is(DBSPBinaryExpression.class) ||
+                    expression.is(DBSPSomeExpression.class) ||
+                    expression.is(DBSPBorrowExpression.class) ||
+                    expression.is(DBSPCloneExpression.class);
+        }
+
+        /** True if evaluating the expression does some work, or allocates memory. */
+        boolean isExpensive(DBSPExpression expression) {
+            if (expression.is(DBSPLiteral.class) && expression.to(DBSPLiteral.class).isNull)
+                return false;
+            return expression.is(DBSPApplyExpression.class) ||
+                    expression.is(DBSPApplyMethodExpression.class) ||
+                    expression.is(DBSPCastExpression.class) ||
+                    expression.is(DBSPDecimalLiteral.class) ||
+                    expression.is(DBSPVecLiteral.class) ||
+                    expression.is(DBSPMapLiteral.class);
+        }
+    }
+
+    public HoistConstants(DBSPCompiler compiler) {
+        super(compiler);
+        this.compiler = compiler;
+        this.statics = new ArrayList<>();
+        this.staticCount = 0;
+        this.constants = new FindConstants();
+    }
+
+    /** True if a value of this type can be stored in a static. */
+    static boolean canBeStatic(DBSPType type) {
+        if (type.is(DBSPTypeBaseType.class))
+            return !type.is(DBSPTypeKeyword.class) &&
+                    !type.is(DBSPTypeNull.class) &&
+                    !type.is(DBSPTypeStr.class) &&
+                    !type.is(DBSPTypeVoid.class);
+        return type.is(DBSPTypeVec.class) || type.is(DBSPTypeMap.class);
+    }
+
+    /** Get a static which holds the value of the expression; reuses an existing static if possible. */
+    DBSPStaticItem getStatic(DBSPExpression expression) {
+        for (DBSPStaticItem item: this.statics) {
+            if (item.getType().sameType(expression.getType()) &&
+                    EquivalenceContext.equiv(item.expression, expression))
+                return item;
+        }
+        DBSPStaticItem item = new DBSPStaticItem("STATIC" + this.staticCount++, expression);
+        this.statics.add(item);
+        return item;
+    }
+
+    @Override
+    public void startVisit(IDBSPInnerNode node) {
+        super.startVisit(node);
+        this.constants = new FindConstants();
+        this.constants.apply(node);
+    }
+
+    @Override
+    protected DBSPExpression transform(DBSPExpression expression) {
+        if (this.constants.expensive.contains(expression) && canBeStatic(expression.getType()))
+            return this.getStatic(expression).getValue();
+        return super.transform(expression);
+    }
+
+    @Override
+    public VisitDecision preorder(DBSPSetContainsExpression expression) {
+        // The set values are already evaluated only once
+        this.push(expression);
+        DBSPExpression source = this.transform(expression.expression);
+        this.pop(expression);
+        DBSPExpression result = new DBSPSetContainsExpression(expression.getNode(), source, expression.values);
+        this.map(expression, result);
+        return VisitDecision.STOP;
+    }
+
+    /** If the expression is an RLIKE call with a constant pattern, return
+     * an equivalent call which uses a precompiled regular expression. */
+    @Nullable
+    DBSPExpression compileRegex(DBSPApplyExpression expression) {
+        DBSPPathExpression function = expression.function.as(DBSPPathExpression.class);
+        if (function == null)
+            return null;
+        String name = function.toString();
+        // Only when the pattern is not nullable
+        if (!name.equals("rlike__") && !name.equals("rlikeN_"))
+            return null;
+        DBSPExpression pattern = expression.arguments[1];
+        if (!this.constants.constant.contains(pattern))
+            return null;
+        DBSPType regexType = new DBSPTypeUser(expression.getNode(), USER, "CompiledRegex", false);
+        DBSPStaticItem regex = this.getStatic(
+                new DBSPApplyExpression(expression.getNode(), "compile_regex", regexType, pattern));
+        this.push(expression);
+        DBSPExpression value = this.transform(expression.arguments[0]);
+        this.pop(expression);
+        String compiled = name.equals("rlike__") ? "rlike_regex__" : "rlike_regexN_";
+        return new DBSPApplyExpression(expression.getNode(), compiled, expression.getType(),
+                value, regex.getVariable().deref().borrow());
+    }
+
+    @Override
+    public VisitDecision preorder(DBSPApplyExpression expression) {
+        DBSPExpression result = this.compileRegex(expression);
+        if (result == null)
+            return super.preorder(expression);
+        this.map(expression, result);
+        return VisitDecision.STOP;
+    }
+
+    /** A circuit rewriter which also adds the statics created to the declarations of the circuit. */
+    @Override
+    public CircuitRewriter circuitRewriter() {
+        return new CircuitRewriter(this.errorReporter, this) {
+            @Override
+            public VisitDecision preorder(DBSPPartialCircuit circuit) {
+                HoistConstants.this.statics.clear();
+                VisitDecision decision = super.preorder(circuit);
+                for (DBSPStaticItem item: HoistConstants.this.statics)
+                    this.getResult().addDeclaration(new DBSPDeclaration(item));
+                return decision;
+            }
+        };
+    }
+}
@@ -34,6 +34,7 @@ import org.dbsp.sqlCompiler.ir.expression.DBSPPathExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPQualifyTypeExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPQuestionExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPRawTupleExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPSetContainsExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPSomeExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPSortExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPTupleExpression;
@@ -77,6 +78,7 @@ import org.dbsp.sqlCompiler.ir.statement.DBSPFunctionItem;
 import org.dbsp.sqlCompiler.ir.statement.DBSPItem;
 import org.dbsp.sqlCompiler.ir.statement.DBSPLetStatement;
 import org.dbsp.sqlCompiler.ir.statement.DBSPStatement;
+import org.dbsp.sqlCompiler.ir.statement.DBSPStaticItem;
 import org.dbsp.sqlCompiler.ir.statement.DBSPStructItem;
 import org.dbsp.sqlCompiler.ir.statement.DBSPStructWithHelperItem;
 import org.dbsp.sqlCompiler.ir.type.DBSPType;
@@ -785,6 +787,17 @@ public abstract class InnerRewriteVisitor
         return VisitDecision.STOP;
     }
 
+    @Override
+    public VisitDecision preorder(DBSPSetContainsExpression expression) {
+        this.push(expression);
+        DBSPExpression source = this.transform(expression.expression);
+        DBSPExpression[] values = this.transform(expression.values);
+        this.pop(expression);
+        DBSPExpression result = new DBSPSetContainsExpression(expression.getNode(), source, values);
+        this.map(expression, result);
+        return VisitDecision.STOP;
+    }
+
     @Override
     public VisitDecision preorder(DBSPClosureExpression expression) {
         this.push(expression);
@@ -1067,6 +1080,16 @@ public abstract class InnerRewriteVisitor
         return VisitDecision.STOP;
     }
 
+    @Override
+    public VisitDecision preorder(DBSPStaticItem item) {
+        this.push(item);
+        DBSPExpression expression = this.transform(item.expression);
+        this.pop(item);
+        DBSPStaticItem result = new DBSPStaticItem(item.name, expression);
+        this.map(item, result);
+        return VisitDecision.STOP;
+    }
+
     @Override
     public VisitDecision preorder(DBSPFunctionItem item) {
         this.push(item);
@@ -1168,4 +1191,14 @@ public abstract class InnerRewriteVisitor
     public CircuitRewriter circuitRewriter() {
         return new CircuitRewriter(this.errorReporter, this);
     }
+
+    /**
+     * Given a visitor for inner nodes returns a visitor that optimizes an entire circuit,
+     * and which remembers the nodes left unchanged, so that applying it again
+     * only rewrites the operators that have changed in the meantime.
+     * Only valid for visitors whose result depends only on the node rewritten.
+     */
+    public CircuitRewriter cachedCircuitRewriter() {
+        return new CircuitRewriter(this.errorReporter, this, true);
+    }
 }
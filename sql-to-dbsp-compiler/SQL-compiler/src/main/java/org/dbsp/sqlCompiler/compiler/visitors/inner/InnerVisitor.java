@@ -60,6 +60,7 @@ import org.dbsp.sqlCompiler.ir.expression.DBSPPathExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPQualifyTypeExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPQuestionExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPRawTupleExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPSetContainsExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPSomeExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPSortExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPTupleExpression;
@@ -114,6 +115,7 @@ import org.dbsp.sqlCompiler.ir.statement.DBSPFunctionItem;
 import org.dbsp.sqlCompiler.ir.statement.DBSPItem;
 import org.dbsp.sqlCompiler.ir.statement.DBSPLetStatement;
 import org.dbsp.sqlCompiler.ir.statement.DBSPStatement;
+import org.dbsp.sqlCompiler.ir.statement.DBSPStaticItem;
 import org.dbsp.sqlCompiler.ir.statement.DBSPStructItem;
 import org.dbsp.sqlCompiler.ir.statement.DBSPStructWithHelperItem;
 import org.dbsp.sqlCompiler.ir.type.DBSPType;
@@ -314,6 +316,10 @@ public abstract class InnerVisitor implements IRTransform, IWritesLogs {
         return this.preorder(node.to(DBSPItem.class));
     }
 
+    public VisitDecision preorder(DBSPStaticItem node) {
+        return this.preorder(node.to(DBSPItem.class));
+    }
+
     public VisitDecision preorder(DBSPFunctionItem node) {
         return this.preorder(node.to(DBSPItem.class));
     }
@@ -514,6 +520,10 @@ public abstract class InnerVisitor implements IRTransform, IWritesLogs {
         return this.preorder(node.to(DBSPExpression.class));
     }
 
+    public VisitDecision preorder(DBSPSetContainsExpression node) {
+        return this.preorder(node.to(DBSPExpression.class));
+    }
+
     public VisitDecision preorder(DBSPClosureExpression node) {
         return this.preorder(node.to(DBSPExpression.class));
     }
@@ -818,6 +828,10 @@ public abstract class InnerVisitor implements IRTransform, IWritesLogs {
         this.postorder(node.to(DBSPItem.class));
     }
 
+    public void postorder(DBSPStaticItem node) {
+        this.postorder(node.to(DBSPItem.class));
+    }
+
     public void postorder(DBSPFunctionItem node) {
         this.postorder(node.to(DBSPItem.class));
     }
@@ -1030,6 +1044,10 @@ public abstract class InnerVisitor implements IRTransform, IWritesLogs {
         this.postorder(node.to(DBSPExpression.class));
     }
 
+    public void postorder(DBSPSetContainsExpression node) {
+        this.postorder(node.to(DBSPExpression.class));
+    }
+
     public void postorder(DBSPClosureExpression node) {
         this.postorder(node.to(DBSPExpression.class));
     }
@@ -0,0 +1,230 @@
+package org.dbsp.sqlCompiler.compiler.visitors.inner;
+
+import org.dbsp.sqlCompiler.circuit.DBSPCircuit;
+import org.dbsp.sqlCompiler.compiler.IErrorReporter;
+import org.dbsp.sqlCompiler.compiler.visitors.VisitDecision;
+import org.dbsp.sqlCompiler.compiler.visitors.outer.CircuitRewriter;
+import org.dbsp.sqlCompiler.ir.DBSPParameter;
+import org.dbsp.sqlCompiler.ir.IDBSPDeclaration;
+import org.dbsp.sqlCompiler.ir.IDBSPInnerNode;
+import org.dbsp.sqlCompiler.ir.expression.DBSPApplyExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPBaseTupleExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPBinaryExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPBorrowExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPCastExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPCloneExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPClosureExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPDerefExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPFieldExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPForExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPUnaryExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPVariablePath;
+import org.dbsp.sqlCompiler.ir.statement.DBSPLetStatement;
+import org.dbsp.sqlCompiler.ir.type.DBSPType;
+import org.dbsp.sqlCompiler.ir.type.DBSPTypeAny;
+import org.dbsp.sqlCompiler.ir.type.DBSPTypeRef;
+import org.dbsp.util.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/** Removes the clone operations which are not needed by the generated Rust code.
+ * - a clone of a value which is computed by the expression itself
+ *   (function call, cast, operator, tuple) is never needed
+ * - a clone of a let variable which is used only once is replaced by a move,
+ *   unless the use is in a nested closure or loop
+ * - a borrow of a clone of a value reached from a closure parameter is
+ *   replaced by a borrow of the value: parameters are references, so the value
+ *   cannot be moved while it is borrowed.
+ * The number of clones removed from each circuit is reported in the log. */
+public class MinimizeClones extends InnerRewriteVisitor {
+    /** Number of clones removed from the circuit currently being rewritten. */
+    int removed;
+    /** Uses of the variables in the node currently being rewritten. */
+    FindMoves moves;
+
+    /** Finds the uses of let variables which can move the variable value. */
+    class FindMoves extends InnerVisitor {
+        final ResolveReferences resolver;
+        /** Nesting depth of closures and loops. */
+        int depth;
+        /** Depth of each variable declaration. */
+        final Map<DBSPLetStatement, Integer> declarationDepth;
+        /** Uses of each variable. */
+        final Map<DBSPLetStatement, List<DBSPVariablePath>> uses;
+        /** Variables which cannot be moved. */
+        final Set<DBSPLetStatement> notMovable;
+        /** References to variables which can be moved instead of cloned. */
+        final Set<DBSPVariablePath> movable;
+
+        FindMoves() {
+            super(MinimizeClones.this.errorReporter);
+            this.resolver = new ResolveReferences(MinimizeClones.this.errorReporter, true);
+            this.depth = 0;
+            this.declarationDepth = new IdentityHashMap<>();
+            this.uses = new IdentityHashMap<>();
+            this.notMovable = Collections.newSetFromMap(new IdentityHashMap<>());
+            this.movable = Collections.newSetFromMap(new IdentityHashMap<>());
+        }
+
+        @Override
+        public VisitDecision preorder(DBSPClosureExpression expression) {
+            this.depth++;
+            return VisitDecision.CONTINUE;
+        }
+
+        @Override
+        public void postorder(DBSPClosureExpression expression) {
+            this.depth--;
+        }
+
+        @Override
+        public VisitDecision preorder(DBSPForExpression expression) {
+            this.depth++;
+            return VisitDecision.CONTINUE;
+        }
+
+        @Override
+        public void postorder(DBSPForExpression expression) {
+            this.depth--;
+        }
+
+        @Override
+        public VisitDecision preorder(DBSPLetStatement statement) {
+            this.declarationDepth.put(statement, this.depth);
+            if (statement.mutable)
+                this.notMovable.add(statement);
+            return VisitDecision.CONTINUE;
+        }
+
+        @Override
+        public VisitDecision preorder(DBSPVariablePath variable) {
+            IDBSPDeclaration declaration = this.resolver.reference.get(variable);
+            if (!(declaration instanceof DBSPLetStatement))
+                return VisitDecision.STOP;
+            DBSPLetStatement let = (DBSPLetStatement) declaration;
+            this.uses.computeIfAbsent(let, k -> new ArrayList<>()).add(variable);
+            Integer declared = this.declarationDepth.get(let);
+            // A value cannot be moved out of a closure or loop body
+            if (declared == null || declared != this.depth)
+                this.notMovable.add(let);
+            return VisitDecision.STOP;
+        }
+
+        @Override
+        public void startVisit(IDBSPInnerNode node) {
+            this.resolver.apply(node);
+            super.startVisit(node);
+        }
+
+        @Override
+        public void endVisit() {
+            for (Map.Entry<DBSPLetStatement, List<DBSPVariablePath>> entry: this.uses.entrySet()) {
+                if (entry.getValue().size() == 1 && !this.notMovable.contains(entry.getKey()))
+                    this.movable.add(entry.getValue().get(0));
+            }
+            super.endVisit();
+        }
+    }
+
+    public MinimizeClones(IErrorReporter reporter) {
+        super(reporter);
+        this.removed = 0;
+        this.moves = new FindMoves();
+    }
+
+    /** True if the value of the expression is not stored anywhere else. */
+    static boolean isTemporary(DBSPExpression expression) {
+        DBSPType type = expression.getType();
+        if (type.is(DBSPTypeRef.class) || type.is(DBSPTypeAny.class))
+            return false;
+        return expression.is(DBSPApplyExpression.class) ||
+                expression.is(DBSPCastExpression.class) ||
+                expression.is(DBSPBinaryExpression.class) ||
+                expression.is(DBSPUnaryExpression.class) ||
+                expression.is(DBSPBaseTupleExpression.class);
+    }
+
+    /** True if the expression is a value reached from a closure parameter which is
+     * an immutable reference. */
+    boolean isParameterValue(DBSPExpression expression) {
+        while (true) {
+            if (expression.is(DBSPFieldExpression.class))
+                expression = expression.to(DBSPFieldExpression.class).expression;
+            else if (expression.is(DBSPDerefExpression.class))
+                expression = expression.to(DBSPDerefExpression.class).expression;
+            else
+                break;
+        }
+        DBSPVariablePath variable = expression.as(DBSPVariablePath.class);
+        if (variable == null)
+            return false;
+        IDBSPDeclaration declaration = this.moves.resolver.reference.get(variable);
+        if (!(declaration instanceof DBSPParameter))
+            return false;
+        DBSPTypeRef ref = ((DBSPParameter) declaration).getType().as(DBSPTypeRef.class);
+        return ref != null && !ref.mutable;
+    }
+
+    @Override
+    public void startVisit(IDBSPInnerNode node) {
+        super.startVisit(node);
+        this.moves = new FindMoves();
+        this.moves.apply(node);
+    }
+
+    @Override
+    public VisitDecision preorder(DBSPCloneExpression expression) {
+        DBSPExpression source = expression.expression;
+        boolean remove = !source.getType().is(DBSPTypeRef.class) &&
+                (isTemporary(source) || this.moves.movable.contains(source));
+        this.push(expression);
+        DBSPExpression result = this.transform(source);
+        this.pop(expression);
+        if (remove)
+            this.removed++;
+        else
+            result = new DBSPCloneExpression(expression.getNode(), result);
+        this.map(expression, result);
+        return VisitDecision.STOP;
+    }
+
+    @Override
+    public VisitDecision preorder(DBSPBorrowExpression expression) {
+        DBSPCloneExpression clone = expression.expression.as(DBSPCloneExpression.class);
+        if (expression.mut || clone == null ||
+                clone.getType().is(DBSPTypeRef.class) ||
+                !this.isParameterValue(clone.expression))
+            return super.preorder(expression);
+        this.push(expression);
+        DBSPExpression source = this.transform(clone.expression);
+        this.pop(expression);
+        this.removed++;
+        this.map(expression, source.borrow());
+        return VisitDecision.STOP;
+    }
+
+    /** A circuit rewriter which also reports the number of clones removed. */
+    @Override
+    public CircuitRewriter circuitRewriter() {
+        return new CircuitRewriter(this.errorReporter, this) {
+            @Override
+            public DBSPCircuit apply(DBSPCircuit circuit) {
+                MinimizeClones.this.removed = 0;
+                DBSPCircuit result = super.apply(circuit);
+                Logger.INSTANCE.belowLevel(MinimizeClones.this, 1)
+                        .append("Removed ")
+                        .append(MinimizeClones.this.removed)
+                        .append(" clones from ")
+                        .append(circuit.name)
+                        .newline();
+                return result;
+            }
+        };
+    }
+}
@@ -37,6 +37,11 @@ public class ReferenceMap {
         return this.declarations.get(var);
     }
 
+    /** True if some variable refers to the specified declaration. */
+    public boolean isReferenced(IDBSPDeclaration declaration) {
+        return this.declarations.containsValue(declaration);
+    }
+
     public void clear() {
         this.declarations.clear();
     }
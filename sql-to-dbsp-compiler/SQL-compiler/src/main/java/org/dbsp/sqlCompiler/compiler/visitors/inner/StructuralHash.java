@@ -0,0 +1,89 @@
+package org.dbsp.sqlCompiler.compiler.visitors.inner;
+
+import org.dbsp.sqlCompiler.compiler.IErrorReporter;
+import org.dbsp.sqlCompiler.compiler.visitors.VisitDecision;
+import org.dbsp.sqlCompiler.ir.IDBSPInnerNode;
+import org.dbsp.sqlCompiler.ir.expression.DBSPApplyBaseExpression;
+import org.dbsp.sqlCompiler.ir.expression.literal.DBSPIndexedZSetLiteral;
+import org.dbsp.sqlCompiler.ir.expression.literal.DBSPLiteral;
+import org.dbsp.sqlCompiler.ir.expression.literal.DBSPMapLiteral;
+import org.dbsp.sqlCompiler.ir.expression.literal.DBSPVecLiteral;
+import org.dbsp.sqlCompiler.ir.expression.literal.DBSPZSetLiteral;
+import org.dbsp.sqlCompiler.ir.statement.DBSPComment;
+import org.dbsp.sqlCompiler.ir.type.DBSPType;
+
+import javax.annotation.Nullable;
+
+/** Computes a hash of an inner expression which is consistent with
+ * {@link EquivalenceContext#equiv}: two equivalent expressions always have the same hash.
+ * The hash only depends on the shape of the tree and on the values of scalar literals;
+ * variable names, types, and comments are ignored, so alpha-equivalent
+ * closures hash to the same value. */
+public class StructuralHash extends InnerVisitor {
+    int hash;
+
+    public StructuralHash(IErrorReporter reporter) {
+        super(reporter);
+        this.hash = 0;
+    }
+
+    void combine(int value) {
+        this.hash = 31 * this.hash + value;
+    }
+
+    @Override
+    public void startVisit(IDBSPInnerNode node) {
+        super.startVisit(node);
+        this.hash = 0;
+    }
+
+    @Override
+    public VisitDecision preorder(IDBSPInnerNode node) {
+        this.combine(node.getClass().getName().hashCode());
+        return VisitDecision.CONTINUE;
+    }
+
+    @Override
+    public VisitDecision preorder(DBSPType node) {
+        // Types are not compared by all expressions
+        return VisitDecision.STOP;
+    }
+
+    @Override
+    public VisitDecision preorder(DBSPComment node) {
+        // Comments are ignored by equivalence
+        return VisitDecision.STOP;
+    }
+
+    @Override
+    public VisitDecision preorder(DBSPApplyBaseExpression node) {
+        // Function and method applications may compare equivalent with each other
+        this.combine(DBSPApplyBaseExpression.class.getName().hashCode());
+        return VisitDecision.CONTINUE;
+    }
+
+    @Override
+    public VisitDecision preorder(DBSPLiteral node) {
+        this.combine(node.getClass().getName().hashCode());
+        // Collection literals may compare as equivalent even if their contents differ
+        if (!node.is(DBSPZSetLiteral.class) &&
+                !node.is(DBSPIndexedZSetLiteral.class) &&
+                !node.is(DBSPVecLiteral.class) &&
+                !node.is(DBSPMapLiteral.class))
+            this.combine(node.toString().hashCode());
+        return VisitDecision.STOP;
+    }
+
+    public int getHash() {
+        return this.hash;
+    }
+
+    /** Compute the structural hash of an expression; 0 for a null expression. */
+    public static int hash(IErrorReporter reporter, @Nullable IDBSPInnerNode node) {
+        if (node == null)
+            return 0;
+        StructuralHash visitor = new StructuralHash(reporter);
+        visitor.apply(node);
+        return visitor.getHash();
+    }
+}
@@ -3,13 +3,14 @@ package org.dbsp.sqlCompiler.compiler.visitors.outer;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPConstantOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPOperator;
 import org.dbsp.sqlCompiler.compiler.IErrorReporter;
+import org.dbsp.sqlCompiler.ir.IDBSPOuterNode;
 import org.dbsp.util.Logger;
 
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 /** Common-subexpression elimination */
 public class CSE extends Repeat {
@@ -34,54 +35,89 @@ public class CSE extends Repeat {
         }
     }
 
-    /** Find common subexpressions, write them into the 'canonical' map */
+    /** Find common subexpressions, write them into the 'canonical' map.
+     * Candidates are first grouped into buckets by {@link DBSPOperator#structuralHash},
+     * and only operators within the same bucket are compared for equivalence. */
     public static class FindCSE extends CircuitVisitor {
         /** Maps each operator to its canonical representative */
         final Map<DBSPOperator, DBSPOperator> canonical;
         final Graph.CircuitGraph graph;
-        final Set<DBSPConstantOperator> constants;
+        /** Constants seen so far, grouped by structural hash */
+        final Map<Integer, List<DBSPConstantOperator>> constants;
+        /** Cache of structural hashes for operators */
+        final Map<DBSPOperator, Integer> hashes;
+        /** Number of calls to 'equivalent' performed; used for profiling */
+        public int comparisons;
 
         public FindCSE(IErrorReporter errorReporter, Graph.CircuitGraph graph,
                        Map<DBSPOperator, DBSPOperator> canonical) {
             super(errorReporter);
             this.graph = graph;
             this.canonical = canonical;
-            this.constants = new HashSet<>();
+            this.constants = new HashMap<>();
+            this.hashes = new HashMap<>();
+            this.comparisons = 0;
+        }
+
+        @Override
+        public void startVisit(IDBSPOuterNode node) {
+            super.startVisit(node);
+            this.constants.clear();
+            this.hashes.clear();
+            this.comparisons = 0;
+        }
+
+        int hash(DBSPOperator operator) {
+            return this.hashes.computeIfAbsent(operator, o -> o.structuralHash(this.errorReporter));
         }
 
         @Override
         public void postorder(DBSPConstantOperator operator) {
-            for (DBSPConstantOperator op: this.constants) {
+            List<DBSPConstantOperator> bucket = this.constants.computeIfAbsent(
+                    this.hash(operator), k -> new ArrayList<>());
+            for (DBSPConstantOperator op: bucket) {
+                this.comparisons++;
                 if (op.equivalent(operator)) {
                     this.canonical.put(operator, op);
-                } else {
-                    this.constants.add(op);
+                    return;
                 }
             }
+            bucket.add(operator);
         }
 
         @Override
         public void postorder(DBSPOperator operator) {
             List<DBSPOperator> destinations = this.graph.edges.get(operator);
-            // Compare every pair of destinations
-            for (int i = 0; i < destinations.size(); i++) {
-                DBSPOperator base = destinations.get(i);
-                for (int j = i + 1; j < destinations.size(); j++) {
-                    DBSPOperator compare = destinations.get(j);
-                    if (this.canonical.containsKey(compare))
-                        // Already found a canonical representative
-                        continue;
-                    if (compare == base)
-                        // E.g., a join where both inputs come from the same source
+            if (destinations.size() < 2)
+                return;
+            // Group destinations by hash; only operators in the same bucket can be equivalent
+            Map<Integer, List<DBSPOperator>> buckets = new LinkedHashMap<>();
+            for (DBSPOperator destination: destinations)
+                buckets.computeIfAbsent(this.hash(destination), k -> new ArrayList<>()).add(destination);
+            for (List<DBSPOperator> bucket: buckets.values()) {
+                // Compare every pair of destinations in the bucket
+                for (int i = 0; i < bucket.size(); i++) {
+                    DBSPOperator base = bucket.get(i);
+                    if (this.canonical.containsKey(base))
                         continue;
-                    if (base.equivalent(compare)) {
-                        Logger.INSTANCE.belowLevel(this, 1)
-                                .append("CSE ")
-                                .append(compare.toString())
-                                .append(" -> ")
-                                .append(base.toString())
-                                .newline();
-                        this.canonical.put(compare, base);
+                    for (int j = i + 1; j < bucket.size(); j++) {
+                        DBSPOperator compare = bucket.get(j);
+                        if (this.canonical.containsKey(compare))
+                            // Already found a canonical representative
+                            continue;
+                        if (compare == base)
+                            // E.g., a join where both inputs come from the same source
+                            continue;
+                        this.comparisons++;
+                        if (base.equivalent(compare)) {
+                            Logger.INSTANCE.belowLevel(this, 1)
+                                    .append("CSE ")
+                                    .append(compare.toString())
+                                    .append(" -> ")
+                                    .append(base.toString())
+                                    .newline();
+                            this.canonical.put(compare, base);
+                        }
                     }
                 }
             }
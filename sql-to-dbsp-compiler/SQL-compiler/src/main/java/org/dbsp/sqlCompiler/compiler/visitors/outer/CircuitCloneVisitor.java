@@ -239,6 +239,11 @@ public class CircuitCloneVisitor extends CircuitVisitor implements IWritesLogs {
         this.replace(operator);
     }
 
+    @Override
+    public void postorder(DBSPFlatMapIndexOperator operator) {
+        this.replace(operator);
+    }
+
     @Override
     public void postorder(DBSPHopOperator operator) {
         this.replace(operator);
@@ -344,6 +349,18 @@ public class CircuitCloneVisitor extends CircuitVisitor implements IWritesLogs {
     @Override
     public void postorder(DBSPWindowOperator operator) { this.replace(operator); }
 
+    @Override
+    public void postorder(DBSPAntiJoinOperator operator) { this.replace(operator); }
+
+    @Override
+    public void postorder(DBSPSemiJoinOperator operator) { this.replace(operator); }
+
+    @Override
+    public void postorder(DBSPStreamAntiJoinOperator operator) { this.replace(operator); }
+
+    @Override
+    public void postorder(DBSPStreamSemiJoinOperator operator) { this.replace(operator); }
+
     @Override
     public void postorder(DBSPIntegrateTraceRetainKeysOperator operator) { this.replace(operator); }
 
@@ -28,6 +28,7 @@ import org.dbsp.sqlCompiler.compiler.CompilerOptions;
 import org.dbsp.sqlCompiler.compiler.DBSPCompiler;
 import org.dbsp.sqlCompiler.compiler.ICompilerComponent;
 import org.dbsp.sqlCompiler.compiler.IErrorReporter;
+import org.dbsp.sqlCompiler.compiler.visitors.inner.CommonSubexpressions;
 import org.dbsp.sqlCompiler.compiler.visitors.inner.EliminateFunctions;
 import org.dbsp.sqlCompiler.compiler.visitors.inner.ExpandWriteLog;
 import org.dbsp.sqlCompiler.compiler.visitors.inner.Simplify;
@@ -48,6 +49,9 @@ public class CircuitOptimizer implements ICompilerComponent {
         List<CircuitTransform> passes = new ArrayList<>();
         IErrorReporter reporter = this.getCompiler();
         CompilerOptions options = this.getCompiler().options;
+        // Simplify is used multiple times; a single cached instance
+        // only has to process the functions that changed since its previous use.
+        CircuitTransform simplify = new Simplify(reporter).cachedCircuitRewriter();
 
         if (!options.ioOptions.emitHandles)
             passes.add(new IndexedInputs(reporter));
@@ -63,6 +67,9 @@ public class CircuitOptimizer implements ICompilerComponent {
             passes.add(new PropagateEmptySources(reporter));
             passes.add(new DeadCode(reporter, options.languageOptions.generateInputForEveryTable, true));
             passes.add(new OptimizeDistinctVisitor(reporter));
+            passes.add(new PushFilters(reporter));
+            passes.add(new ReuseSourceIndex(reporter));
+            passes.add(new RemoveRedundantDistinct(reporter));
             if (options.languageOptions.incrementalize) {
                 passes.add(new IncrementalizeVisitor(reporter));
                 passes.add(new OptimizeIncrementalVisitor(reporter));
@@ -71,20 +78,25 @@ public class CircuitOptimizer implements ICompilerComponent {
             passes.add(new MonotoneAnalyzer(reporter));
             passes.add(new FilterJoin(reporter));
             passes.add(new OptimizeProjections(reporter));
+            passes.add(new PruneColumns(reporter));
+            passes.add(new FuseLinearOperators(reporter));
             passes.add(new DeadCode(reporter, true, false));
-            passes.add(new Simplify(reporter).circuitRewriter());
+            passes.add(simplify);
             // The predicate below controls which nodes have their output dumped at runtime
             passes.add(new InstrumentDump(reporter, t -> false));
             if (options.languageOptions.incrementalize)
                 passes.add(new NoIntegralVisitor(reporter));
         }
+        passes.add(new ExpandSemiJoins(reporter));
         passes.add(new ExpandHop(reporter));
         passes.add(new RemoveDeindexOperators(reporter));
         passes.add(new RemoveViewOperators(reporter));
         passes.add(new EliminateFunctions(reporter).circuitRewriter());
         passes.add(new ExpandWriteLog(reporter).circuitRewriter());
-        passes.add(new Simplify(reporter).circuitRewriter());
+        passes.add(simplify);
         passes.add(new CSE(reporter));
+        if (options.languageOptions.optimizationLevel >= 2)
+            passes.add(new CommonSubexpressions(this.getCompiler()).circuitRewriter());
         return new Passes(reporter, passes);
     }
 
@@ -25,9 +25,12 @@ package org.dbsp.sqlCompiler.compiler.visitors.outer;
 
 import org.dbsp.sqlCompiler.circuit.DBSPPartialCircuit;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPAggregateOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPAntiJoinOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPConstantOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPControlledFilterOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPDeclaration;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPDelayOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPFlatMapIndexOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPFlatMapOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPIntegrateTraceRetainKeysOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPJoinOperator;
@@ -35,11 +38,14 @@ import org.dbsp.sqlCompiler.circuit.operator.DBSPLagOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPMapIndexOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPMapOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPSemiJoinOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPSinkOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPSourceMapOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPSourceMultisetOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPStreamAggregateOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPStreamAntiJoinOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPStreamJoinOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPStreamSemiJoinOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPViewOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPWindowOperator;
 import org.dbsp.sqlCompiler.compiler.IErrorReporter;
@@ -47,6 +53,7 @@ import org.dbsp.sqlCompiler.compiler.visitors.VisitDecision;
 import org.dbsp.sqlCompiler.compiler.visitors.inner.IRTransform;
 import org.dbsp.sqlCompiler.ir.DBSPAggregate;
 import org.dbsp.sqlCompiler.ir.IDBSPInnerNode;
+import org.dbsp.sqlCompiler.ir.IDBSPOuterNode;
 import org.dbsp.sqlCompiler.ir.expression.DBSPComparatorExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPExpression;
 import org.dbsp.sqlCompiler.ir.statement.DBSPItem;
@@ -57,7 +64,10 @@ import org.dbsp.sqlCompiler.ir.type.user.DBSPTypeZSet;
 import org.dbsp.util.Linq;
 
 import javax.annotation.Nullable;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Applies a function (this.transform) to every function within an operator,
@@ -65,14 +75,71 @@ import java.util.List;
  */
 public class CircuitRewriter extends CircuitCloneVisitor {
     public final IRTransform transform;
+    /** If true, remember the inner nodes which are left unchanged by the transform.
+     * This is only correct if the transform is a pure function of its input. */
+    final boolean cache;
+    /** Inner nodes known to be fixed points of the transform.
+     * When this rewriter is applied again (e.g., in a later pass), only operators
+     * whose functions have changed since the previous application are rewritten. */
+    final Set<IDBSPInnerNode> fixedPoints;
+    /** Operators that a previous application mapped to themselves.
+     * Operators are immutable and refer to their inputs, so an operator
+     * that is still part of the circuit has the same inputs as then,
+     * and all the operators upstream of it were left unchanged as well.
+     * Such operators are not dirty, and they are copied without being visited. */
+    final Set<DBSPOperator> unchanged;
+    /** Number of operators copied from the unchanged set by the last application. */
+    public int skipped = 0;
 
-    public CircuitRewriter(IErrorReporter reporter, IRTransform transform) {
+    public CircuitRewriter(IErrorReporter reporter, IRTransform transform, boolean cache) {
         super(reporter, false);
         this.transform = transform;
+        this.cache = cache;
+        this.fixedPoints = Collections.newSetFromMap(new IdentityHashMap<>());
+        this.unchanged = Collections.newSetFromMap(new IdentityHashMap<>());
+    }
+
+    public CircuitRewriter(IErrorReporter reporter, IRTransform transform) {
+        this(reporter, transform, false);
+    }
+
+    IDBSPInnerNode rewrite(IDBSPInnerNode node) {
+        if (!this.cache)
+            return this.transform.apply(node);
+        if (this.fixedPoints.contains(node))
+            return node;
+        IDBSPInnerNode result = this.transform.apply(node);
+        if (result == node)
+            this.fixedPoints.add(node);
+        return result;
+    }
+
+    @Override
+    public void startVisit(IDBSPOuterNode circuit) {
+        this.skipped = 0;
+        super.startVisit(circuit);
+    }
+
+    @Override
+    public VisitDecision preorder(DBSPOperator operator) {
+        // A delay is rewritten together with its output, so it is always visited
+        if (!this.cache || !this.unchanged.contains(operator) || operator.is(DBSPDelayOperator.class))
+            return super.preorder(operator);
+        this.visited.add(operator);
+        this.map(operator, operator);
+        this.skipped++;
+        return VisitDecision.STOP;
+    }
+
+    @Override
+    protected void map(DBSPOperator old, DBSPOperator newOp, boolean add) {
+        if (this.cache && old == newOp)
+            this.unchanged.add(old);
+        super.map(old, newOp, add);
     }
 
     public DBSPExpression transform(DBSPExpression expression) {
-        IDBSPInnerNode result = this.transform.apply(expression);
+        IDBSPInnerNode result = this.rewrite(expression);
         return result.to(DBSPExpression.class);
     }
 
@@ -83,7 +150,7 @@ public class CircuitRewriter extends CircuitCloneVisitor {
     }
 
     public DBSPType transform(DBSPType type) {
-        return this.transform.apply(type).to(DBSPType.class);
+        return this.rewrite(type).to(DBSPType.class);
     }
 
     // Default implementation, used for
@@ -178,7 +245,7 @@ public class CircuitRewriter extends CircuitCloneVisitor {
         @Nullable DBSPExpression function = this.transformN(operator.function);
         @Nullable DBSPAggregate aggregate = null;
         if (operator.aggregate != null) {
-            IDBSPInnerNode transformed = this.transform.apply(operator.aggregate);
+            IDBSPInnerNode transformed = this.rewrite(operator.aggregate);
             aggregate = transformed.to(DBSPAggregate.class);
         }
         DBSPOperator input = this.mapped(operator.input());
@@ -210,13 +277,29 @@ public class CircuitRewriter extends CircuitCloneVisitor {
         this.map(operator, result);
     }
 
+    @Override
+    public void postorder(DBSPFlatMapIndexOperator operator) {
+        DBSPType resultType = this.transform(operator.outputType);
+        DBSPOperator input = this.mapped(operator.input());
+        DBSPExpression function = this.transform(operator.getFunction());
+        DBSPOperator result = operator;
+        if (!resultType.sameType(operator.outputType)
+                || input != operator.input()
+                || function != operator.getFunction()) {
+            result = new DBSPFlatMapIndexOperator(
+                    operator.getNode(), function,
+                    resultType.to(DBSPTypeIndexedZSet.class), operator.isMultiset, input);
+        }
+        this.map(operator, result);
+    }
+
     @Override
     public void postorder(DBSPAggregateOperator operator) {
         DBSPType outputType = this.transform(operator.outputType);
         @Nullable DBSPExpression function = this.transformN(operator.function);
         @Nullable DBSPAggregate aggregate = null;
         if (operator.aggregate != null)
-            aggregate = this.transform.apply(operator.aggregate).to(DBSPAggregate.class);
+            aggregate = this.rewrite(operator.aggregate).to(DBSPAggregate.class);
         DBSPOperator input = this.mapped(operator.input());
 
         DBSPOperator result = operator;
@@ -265,6 +348,42 @@ public class CircuitRewriter extends CircuitCloneVisitor {
         this.map(operator, result);
     }
 
+    @Override
+    public void postorder(DBSPAntiJoinOperator operator) {
+        List<DBSPOperator> sources = Linq.map(operator.inputs, this::mapped);
+        DBSPOperator result = operator;
+        if (Linq.different(sources, operator.inputs))
+            result = new DBSPAntiJoinOperator(operator.getNode(), sources.get(0), sources.get(1));
+        this.map(operator, result);
+    }
+
+    @Override
+    public void postorder(DBSPSemiJoinOperator operator) {
+        List<DBSPOperator> sources = Linq.map(operator.inputs, this::mapped);
+        DBSPOperator result = operator;
+        if (Linq.different(sources, operator.inputs))
+            result = new DBSPSemiJoinOperator(operator.getNode(), sources.get(0), sources.get(1));
+        this.map(operator, result);
+    }
+
+    @Override
+    public void postorder(DBSPStreamAntiJoinOperator operator) {
+        List<DBSPOperator> sources = Linq.map(operator.inputs, this::mapped);
+        DBSPOperator result = operator;
+        if (Linq.different(sources, operator.inputs))
+            result = new DBSPStreamAntiJoinOperator(operator.getNode(), sources.get(0), sources.get(1));
+        this.map(operator, result);
+    }
+
+    @Override
+    public void postorder(DBSPStreamSemiJoinOperator operator) {
+        List<DBSPOperator> sources = Linq.map(operator.inputs, this::mapped);
+        DBSPOperator result = operator;
+        if (Linq.different(sources, operator.inputs))
+            result = new DBSPStreamSemiJoinOperator(operator.getNode(), sources.get(0), sources.get(1));
+        this.map(operator, result);
+    }
+
     @Override
     public void postorder(DBSPControlledFilterOperator operator) {
         DBSPType outputType = this.transform(operator.outputType);
@@ -362,7 +481,7 @@ public class CircuitRewriter extends CircuitCloneVisitor {
 
     @Override
     public void postorder(DBSPDeclaration decl) {
-        DBSPItem rewritten = this.transform.apply(decl.item).to(DBSPItem.class);
+        DBSPItem rewritten = this.rewrite(decl.item).to(DBSPItem.class);
         this.getResult().declarations.add(new DBSPDeclaration(rewritten));
     }
 
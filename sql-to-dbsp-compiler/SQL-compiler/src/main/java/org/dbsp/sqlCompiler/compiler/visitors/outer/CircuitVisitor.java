@@ -220,6 +220,10 @@ public abstract class CircuitVisitor
         return this.preorder(node.to(DBSPUnaryOperator.class));
     }
 
+    public VisitDecision preorder(DBSPFlatMapIndexOperator node) {
+        return this.preorder(node.to(DBSPUnaryOperator.class));
+    }
+
     public VisitDecision preorder(DBSPHopOperator node) {
         return this.preorder(node.to(DBSPUnaryOperator.class));
     }
@@ -292,6 +296,22 @@ public abstract class CircuitVisitor
         return this.preorder(node.to(DBSPOperator.class));
     }
 
+    public VisitDecision preorder(DBSPAntiJoinOperator node) {
+        return this.preorder(node.to(DBSPOperator.class));
+    }
+
+    public VisitDecision preorder(DBSPSemiJoinOperator node) {
+        return this.preorder(node.to(DBSPOperator.class));
+    }
+
+    public VisitDecision preorder(DBSPStreamAntiJoinOperator node) {
+        return this.preorder(node.to(DBSPOperator.class));
+    }
+
+    public VisitDecision preorder(DBSPStreamSemiJoinOperator node) {
+        return this.preorder(node.to(DBSPOperator.class));
+    }
+
     public VisitDecision preorder(DBSPControlledFilterOperator node) {
         return this.preorder(node.to(DBSPOperator.class));
     }
@@ -434,6 +454,10 @@ public abstract class CircuitVisitor
         this.postorder(node.to(DBSPUnaryOperator.class));
     }
 
+    public void postorder(DBSPFlatMapIndexOperator node) {
+        this.postorder(node.to(DBSPUnaryOperator.class));
+    }
+
     public void postorder(DBSPHopOperator node) {
         this.postorder(node.to(DBSPUnaryOperator.class));
     }
@@ -496,6 +520,22 @@ public abstract class CircuitVisitor
         this.postorder(node.to(DBSPOperator.class));
     }
 
+    public void postorder(DBSPAntiJoinOperator node) {
+        this.postorder(node.to(DBSPOperator.class));
+    }
+
+    public void postorder(DBSPSemiJoinOperator node) {
+        this.postorder(node.to(DBSPOperator.class));
+    }
+
+    public void postorder(DBSPStreamAntiJoinOperator node) {
+        this.postorder(node.to(DBSPOperator.class));
+    }
+
+    public void postorder(DBSPStreamSemiJoinOperator node) {
+        this.postorder(node.to(DBSPOperator.class));
+    }
+
     public void postorder(DBSPControlledFilterOperator node) {
         this.postorder(node.to(DBSPOperator.class));
     }
@@ -0,0 +1,81 @@
+package org.dbsp.sqlCompiler.compiler.visitors.outer;
+
+import org.dbsp.sqlCompiler.circuit.operator.DBSPMapIndexOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPStreamAntiJoinOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPStreamDistinctOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPStreamJoinOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPStreamSemiJoinOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPSubtractOperator;
+import org.dbsp.sqlCompiler.compiler.IErrorReporter;
+import org.dbsp.sqlCompiler.compiler.frontend.TypeCompiler;
+import org.dbsp.sqlCompiler.compiler.frontend.calciteObject.CalciteObject;
+import org.dbsp.sqlCompiler.ir.expression.DBSPClosureExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPRawTupleExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPTupleExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPVariablePath;
+import org.dbsp.sqlCompiler.ir.type.DBSPTypeRawTuple;
+import org.dbsp.sqlCompiler.ir.type.user.DBSPTypeIndexedZSet;
+import org.dbsp.util.Linq;
+
+import java.util.List;
+
+/** The runtime has no non-incremental semi-join and anti-join operators.
+ * The ones left in the circuit after incrementalization are expanded into
+ * a join of the left input with the distinct keys of the right input. */
+public class ExpandSemiJoins extends CircuitCloneVisitor {
+    public ExpandSemiJoins(IErrorReporter reporter) {
+        super(reporter, false);
+    }
+
+    /** The elements of 'left' whose key appears in 'right'.
+     * The result is not added to the circuit. */
+    DBSPOperator matching(CalciteObject node, DBSPOperator left, DBSPOperator right) {
+        DBSPTypeIndexedZSet leftType = left.getOutputIndexedZSetType();
+        DBSPTypeIndexedZSet rightType = right.getOutputIndexedZSetType();
+        if (!rightType.elementType.sameType(new DBSPTypeRawTuple())) {
+            // Only the keys of the right input matter
+            DBSPVariablePath t = rightType.getKVRefType().var("t");
+            DBSPClosureExpression keys = new DBSPRawTupleExpression(
+                    t.field(0).deref().applyCloneIfNeeded(), new DBSPRawTupleExpression())
+                    .closure(t.asParameter());
+            rightType = TypeCompiler.makeIndexedZSet(rightType.keyType, new DBSPTypeRawTuple());
+            right = new DBSPMapIndexOperator(node, keys, rightType, right);
+            this.addOperator(right);
+        }
+        DBSPOperator distinct = new DBSPStreamDistinctOperator(node, right);
+        this.addOperator(distinct);
+
+        DBSPVariablePath k = leftType.keyType.ref().var("k");
+        DBSPVariablePath v = leftType.elementType.ref().var("v");
+        DBSPVariablePath r = rightType.elementType.ref().var("r");
+        DBSPTupleExpression pair = new DBSPTupleExpression(
+                k.deref().applyCloneIfNeeded(), v.deref().applyCloneIfNeeded());
+        DBSPOperator join = new DBSPStreamJoinOperator(node, TypeCompiler.makeZSet(pair.getType()),
+                pair.closure(k.asParameter(), v.asParameter(), r.asParameter()),
+                left.isMultiset, left, distinct);
+        this.addOperator(join);
+
+        DBSPVariablePath p = pair.getType().ref().var("p");
+        DBSPClosureExpression index = new DBSPRawTupleExpression(
+                p.deref().field(0).applyCloneIfNeeded(), p.deref().field(1).applyCloneIfNeeded())
+                .closure(p.asParameter());
+        return new DBSPMapIndexOperator(node, index, leftType, join);
+    }
+
+    @Override
+    public void postorder(DBSPStreamSemiJoinOperator operator) {
+        List<DBSPOperator> sources = Linq.map(operator.inputs, this::mapped);
+        DBSPOperator result = this.matching(operator.getNode(), sources.get(0), sources.get(1));
+        this.map(operator, result);
+    }
+
+    @Override
+    public void postorder(DBSPStreamAntiJoinOperator operator) {
+        List<DBSPOperator> sources = Linq.map(operator.inputs, this::mapped);
+        DBSPOperator matching = this.matching(operator.getNode(), sources.get(0), sources.get(1));
+        this.addOperator(matching);
+        DBSPOperator result = new DBSPSubtractOperator(operator.getNode(), sources.get(0), matching);
+        this.map(operator, result);
+    }
+}
@@ -0,0 +1,230 @@
+package org.dbsp.sqlCompiler.compiler.visitors.outer;
+
+import org.dbsp.sqlCompiler.circuit.operator.DBSPFilterOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPFlatMapIndexOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPFlatMapOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPMapIndexOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPMapOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPOperator;
+import org.dbsp.sqlCompiler.compiler.IErrorReporter;
+import org.dbsp.sqlCompiler.compiler.visitors.inner.BetaReduction;
+import org.dbsp.sqlCompiler.compiler.visitors.inner.Simplify;
+import org.dbsp.sqlCompiler.ir.IDBSPInnerNode;
+import org.dbsp.sqlCompiler.ir.expression.DBSPBlockExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPClosureExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPCloneExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPDerefExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPIfExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPPathExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPSomeExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPTupleExpression;
+import org.dbsp.sqlCompiler.ir.expression.literal.DBSPLiteral;
+import org.dbsp.sqlCompiler.ir.path.DBSPPath;
+import org.dbsp.sqlCompiler.ir.statement.DBSPLetStatement;
+import org.dbsp.sqlCompiler.ir.type.DBSPType;
+import org.dbsp.sqlCompiler.ir.type.DBSPTypeTuple;
+import org.dbsp.sqlCompiler.ir.type.user.DBSPTypeZSet;
+import org.dbsp.util.Linq;
+
+import javax.annotation.Nullable;
+import java.util.Objects;
+import java.util.function.Function;
+
+/** Fuses chains of linear operators (map, filter, map_index) into a single operator.
+ * Each operator in a chain materializes a batch which is only read by the next operator;
+ * after fusion a single closure is applied to each row and only the final batch is built.
+ * The fused closure returns an Option: None for the rows that are filtered out.
+ * A chain ending in a map_index becomes a flat_map_index, other chains become a flat_map;
+ * if no filter is involved the chain collapses to a map or map_index.
+ * Only operators whose source has no other consumers are fused. */
+public class FuseLinearOperators extends Passes {
+    public FuseLinearOperators(IErrorReporter reporter) {
+        super(reporter);
+        FanoutVisitor fanout = new FanoutVisitor(reporter);
+        this.add(fanout);
+        this.add(new FuseVisitor(reporter, op -> fanout.getFanout(op) == 1));
+        this.add(new DeadCode(reporter, true, false));
+    }
+
+    static class FuseVisitor extends CircuitCloneVisitor {
+        /** If this function returns 'true' the operator can be fused with its consumer. */
+        final Function<DBSPOperator, Boolean> canFuse;
+        /** Used to generate unique names for the variables introduced. */
+        int tmpCount;
+
+        public FuseVisitor(IErrorReporter reporter, Function<DBSPOperator, Boolean> canFuse) {
+            super(reporter, false);
+            this.canFuse = canFuse;
+            this.tmpCount = 0;
+        }
+
+        static boolean isNone(DBSPExpression expression) {
+            if (expression.is(DBSPLiteral.class))
+                return expression.to(DBSPLiteral.class).isNull;
+            if (expression.is(DBSPTupleExpression.class))
+                return expression.to(DBSPTupleExpression.class).isNull;
+            return expression.is(DBSPPathExpression.class) && expression.toString().equals("None");
+        }
+
+        /** True if the expression is a Some(...), or an 'if' or block
+         * which produces either None or a Some(...). */
+        static boolean isOption(DBSPExpression expression) {
+            if (expression.is(DBSPSomeExpression.class))
+                return true;
+            if (expression.is(DBSPIfExpression.class)) {
+                DBSPIfExpression ifExpression = expression.to(DBSPIfExpression.class);
+                return isOption(ifExpression.positive) && isNone(ifExpression.negative);
+            }
+            if (expression.is(DBSPBlockExpression.class)) {
+                DBSPExpression last = expression.to(DBSPBlockExpression.class).lastExpression;
+                return last != null && isOption(last);
+            }
+            return false;
+        }
+
+        /** None value of the specified type. */
+        static DBSPExpression none(DBSPType type) {
+            type = type.setMayBeNull(true);
+            if (type.is(DBSPTypeTuple.class))
+                return type.none();
+            // Raw tuples have no null literal
+            return new DBSPPathExpression(type, new DBSPPath("None"));
+        }
+
+        /** Replace each Some(e) produced by an expression in the form
+         * recognized by 'isOption' with 'continuation(e)'. */
+        static DBSPExpression replaceSome(DBSPExpression expression,
+                                          Function<DBSPExpression, DBSPExpression> continuation) {
+            if (expression.is(DBSPSomeExpression.class))
+                return continuation.apply(expression.to(DBSPSomeExpression.class).expression);
+            if (expression.is(DBSPIfExpression.class)) {
+                DBSPIfExpression ifExpression = expression.to(DBSPIfExpression.class);
+                DBSPExpression positive = replaceSome(ifExpression.positive, continuation);
+                return new DBSPIfExpression(expression.getNode(), ifExpression.condition,
+                        positive, none(positive.getType()));
+            }
+            DBSPBlockExpression block = expression.to(DBSPBlockExpression.class);
+            return new DBSPBlockExpression(block.contents,
+                    replaceSome(Objects.requireNonNull(block.lastExpression), continuation));
+        }
+
+        /** The function computed by a ZSet-producing operator,
+         * as a closure which returns an Option.  Null if the operator cannot be fused. */
+        @Nullable
+        static DBSPClosureExpression asOptionFunction(DBSPOperator operator) {
+            if (!operator.outputType.is(DBSPTypeZSet.class) || operator.function == null)
+                return null;
+            DBSPClosureExpression closure = operator.function.as(DBSPClosureExpression.class);
+            if (closure == null || closure.parameters.length != 1)
+                return null;
+            if (operator.is(DBSPMapOperator.class))
+                return closure.body.some().closure(closure.parameters);
+            if (operator.is(DBSPFilterOperator.class)) {
+                if (closure.body.getType().mayBeNull)
+                    return null;
+                DBSPExpression row = closure.parameters[0].asVariable().deref().applyClone();
+                return new DBSPIfExpression(operator.getNode(), closure.body, row.some(), none(row.getType()))
+                        .closure(closure.parameters);
+            }
+            if (operator.is(DBSPFlatMapOperator.class) && isOption(closure.body))
+                return closure;
+            return null;
+        }
+
+        /** If the expression is a clone of a dereferenced value, the reference itself,
+         * otherwise null. */
+        @Nullable
+        static DBSPExpression clonedReference(DBSPExpression expression) {
+            DBSPCloneExpression clone = expression.as(DBSPCloneExpression.class);
+            if (clone == null)
+                return null;
+            DBSPDerefExpression deref = clone.expression.as(DBSPDerefExpression.class);
+            if (deref == null)
+                return null;
+            return deref.expression;
+        }
+
+        /** Given a row value, build the Option produced by applying 'operator' to the row. */
+        DBSPExpression compose(DBSPOperator operator, DBSPClosureExpression function, DBSPExpression row) {
+            DBSPExpression reference = clonedReference(row);
+            DBSPLetStatement let = null;
+            if (reference == null) {
+                // Do not evaluate the row more than once
+                let = new DBSPLetStatement("tmp" + this.tmpCount++, row);
+                row = let.getVarReference();
+                reference = row.borrow();
+            }
+            DBSPExpression result;
+            if (operator.is(DBSPFilterOperator.class)) {
+                DBSPExpression some = row.some();
+                result = new DBSPIfExpression(operator.getNode(), function.call(reference), some, none(some.getType()));
+            } else {
+                result = function.call(reference).some();
+            }
+            if (let != null)
+                result = new DBSPBlockExpression(Linq.list(let), result);
+            return result;
+        }
+
+        /** Try to fuse the operator with its source; returns true on success. */
+        boolean fuse(DBSPOperator operator) {
+            DBSPOperator source = this.mapped(operator.inputs.get(0));
+            // We have to look up the original operator input, not source
+            if (!this.canFuse.apply(operator.inputs.get(0)))
+                return false;
+            DBSPClosureExpression sourceFunction = asOptionFunction(source);
+            if (sourceFunction == null || operator.function == null)
+                return false;
+            DBSPClosureExpression function = operator.getFunction().to(DBSPClosureExpression.class);
+            if (function.body.getType().mayBeNull && operator.is(DBSPFilterOperator.class))
+                return false;
+
+            DBSPExpression body = replaceSome(sourceFunction.body, row -> this.compose(operator, function, row));
+            IDBSPInnerNode reduced = new BetaReduction(this.errorReporter)
+                    .apply(body.closure(sourceFunction.parameters));
+            DBSPClosureExpression fused = new Simplify(this.errorReporter)
+                    .apply(reduced).to(DBSPClosureExpression.class);
+
+            DBSPOperator input = source.inputs.get(0);
+            DBSPOperator result;
+            boolean isIndexed = operator.is(DBSPMapIndexOperator.class);
+            if (fused.body.is(DBSPSomeExpression.class)) {
+                DBSPExpression value = fused.body.to(DBSPSomeExpression.class).expression;
+                DBSPClosureExpression map = value.closure(fused.parameters);
+                if (isIndexed)
+                    result = new DBSPMapIndexOperator(operator.getNode(), map,
+                            operator.getOutputIndexedZSetType(), input);
+                else
+                    result = new DBSPMapOperator(operator.getNode(), map,
+                            operator.getOutputZSetType(), input);
+            } else if (isIndexed) {
+                result = new DBSPFlatMapIndexOperator(operator.getNode(), fused,
+                        operator.getOutputIndexedZSetType(), operator.isMultiset, input);
+            } else {
+                result = new DBSPFlatMapOperator(operator.getNode(), fused,
+                        operator.getOutputZSetType(), input);
+            }
+            this.map(operator, result);
+            return true;
+        }
+
+        @Override
+        public void postorder(DBSPMapOperator operator) {
+            if (!this.fuse(operator))
+                super.postorder(operator);
+        }
+
+        @Override
+        public void postorder(DBSPMapIndexOperator operator) {
+            if (!this.fuse(operator))
+                super.postorder(operator);
+        }
+
+        @Override
+        public void postorder(DBSPFilterOperator operator) {
+            if (!this.fuse(operator))
+                super.postorder(operator);
+        }
+    }
+}
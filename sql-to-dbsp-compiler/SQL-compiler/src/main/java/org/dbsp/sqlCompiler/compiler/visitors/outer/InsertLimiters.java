@@ -7,17 +7,21 @@ import org.dbsp.sqlCompiler.circuit.operator.DBSPControlledFilterOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPDeindexOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPDelayOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPDifferentiateOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPDistinctOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPFilterOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPHopOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPIndexedTopKOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPIntegrateOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPIntegrateTraceRetainKeysOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPJoinOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPLagOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPMapIndexOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPMapOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPPartitionedRollingAggregateOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPPartitionedRollingAggregateWithWaterlineOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPSourceMultisetOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPUnaryOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPViewOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPWaterlineOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPWindowOperator;
@@ -25,13 +29,13 @@ import org.dbsp.sqlCompiler.compiler.IErrorReporter;
 import org.dbsp.sqlCompiler.compiler.IHasColumnsMetadata;
 import org.dbsp.sqlCompiler.compiler.IHasLateness;
 import org.dbsp.sqlCompiler.compiler.IHasWatermark;
-import org.dbsp.sqlCompiler.compiler.errors.UnimplementedException;
 import org.dbsp.sqlCompiler.compiler.frontend.ExpressionCompiler;
 import org.dbsp.sqlCompiler.compiler.visitors.inner.monotone.IMaybeMonotoneType;
 import org.dbsp.sqlCompiler.compiler.visitors.inner.monotone.MonotoneExpression;
 import org.dbsp.sqlCompiler.compiler.visitors.inner.monotone.MonotoneTransferFunctions;
 import org.dbsp.sqlCompiler.compiler.visitors.inner.monotone.PartiallyMonotoneTuple;
 import org.dbsp.sqlCompiler.compiler.visitors.outer.expansion.AggregateExpansion;
+import org.dbsp.sqlCompiler.compiler.visitors.outer.expansion.DistinctExpansion;
 import org.dbsp.sqlCompiler.compiler.visitors.outer.expansion.JoinExpansion;
 import org.dbsp.sqlCompiler.compiler.visitors.outer.expansion.OperatorExpansion;
 import org.dbsp.sqlCompiler.compiler.visitors.outer.expansion.ReplacementExpansion;
@@ -64,7 +68,8 @@ import java.util.Objects;
  * - ControlledFilter operators to throw away tuples that are not "useful"
  * - apply operators that compute the bounds that drive the controlled filters
  * - waterline operators near sources with lateness information
- * - DBSPIntegrateTraceRetainKeysOperator to prune data from integral operators
+ * - DBSPIntegrateTraceRetainKeysOperator to prune data from integral operators,
+ *   including the integrals used by distinct, topK, and lag operators
  * - DBSPPartitionedRollingAggregateWithWaterline operators
  *
  * <P>This visitor is tricky because it operates on a circuit, but takes the information
@@ -247,6 +252,73 @@ public class InsertLimiters extends CircuitCloneVisitor {
         }
     }
 
+    @Override
+    public void postorder(DBSPDistinctOperator distinct) {
+        DBSPOperator source = this.mapped(distinct.input());
+        OperatorExpansion expanded = this.expandedInto.get(distinct);
+        if (expanded == null) {
+            super.postorder(distinct);
+            return;
+        }
+
+        DistinctExpansion de = expanded.to(DistinctExpansion.class);
+        DBSPOperator limiter = this.addBounds(de.integrator, 0);
+        if (limiter == null) {
+            super.postorder(distinct);
+            return;
+        }
+
+        MonotoneExpression monotone = this.expansionMonotoneValues.get(de.integrator);
+        IMaybeMonotoneType projection = Monotonicity.getBodyType(monotone);
+        DBSPIntegrateTraceRetainKeysOperator retain = DBSPIntegrateTraceRetainKeysOperator.create(
+                distinct.getNode(), source, projection, limiter);
+        this.addOperator(retain);
+        // output of 'retain' is not used in the graph, but the DBSP Rust layer will use it
+
+        // The output of the distinct has the same bounds as the input
+        this.addBounds(de.distinct, 0);
+        super.postorder(distinct);
+    }
+
+    /** Garbage-collect the integrals kept by an operator which
+     * groups its input by key, and which produces outputs with the same key.
+     * Keys that are below the lower bound of the operator's output will
+     * never change again, so they can be removed from the input integral.
+     * The runtime applies the same retention to the integral of the encoded
+     * input and to the integral of the output that TopK and LAG keep internally. */
+    void retainKeys(DBSPUnaryOperator operator) {
+        ReplacementExpansion expanded = this.getReplacement(operator);
+        if (expanded == null) {
+            this.replace(operator);
+            return;
+        }
+
+        DBSPOperator limiter = this.addBounds(expanded.replacement, 0);
+        if (limiter == null) {
+            this.replace(operator);
+            return;
+        }
+
+        MonotoneExpression monotone = this.expansionMonotoneValues.get(expanded.replacement);
+        IMaybeMonotoneType projection = Monotonicity.getBodyType(monotone);
+        DBSPOperator source = this.mapped(operator.input());
+        DBSPIntegrateTraceRetainKeysOperator retain = DBSPIntegrateTraceRetainKeysOperator.create(
+                operator.getNode(), source, projection, limiter);
+        this.addOperator(retain);
+        // output of 'retain' is not used in the graph, but the DBSP Rust layer will use it
+        this.replace(operator);
+    }
+
+    @Override
+    public void postorder(DBSPIndexedTopKOperator operator) {
+        this.retainKeys(operator);
+    }
+
+    @Override
+    public void postorder(DBSPLagOperator operator) {
+        this.retainKeys(operator);
+    }
+
     @Override
     public void postorder(DBSPPartitionedRollingAggregateOperator operator) {
         ReplacementExpansion expanded = this.getReplacement(operator);
@@ -440,26 +512,25 @@ public class InsertLimiters extends CircuitCloneVisitor {
             index++;
         }
 
-        // Currently we only support at most 1 watermark column per table.
-        // TODO: support multiple fields.
-        if (minimums.size() > 1) {
-            throw new UnimplementedException("More than 1 watermark per table not yet supported", operator.getNode());
-        }
-
-        if (!minimums.isEmpty()) {
-            assert fields.size() == 1;
+        if (!minimums.isEmpty())
             this.addOperator(replacement);
 
-            DBSPTupleExpression min = new DBSPTupleExpression(minimums, false);
-            DBSPTupleExpression bound = new DBSPTupleExpression(bounds, false);
-            DBSPParameter parameter = t.asParameter();
+        // Each watermark column has its own waterline, since they advance independently:
+        // a single waterline with a tuple value would be compared lexicographically.
+        // The windows are chained, so a row is emitted only when all its
+        // watermark columns are below their waterlines.
+        DBSPParameter parameter = t.asParameter();
+        for (int i = 0; i < minimums.size(); i++) {
+            DBSPExpression field = fields.get(i);
+            DBSPTupleExpression min = new DBSPTupleExpression(minimums.get(i));
+            DBSPTupleExpression bound = new DBSPTupleExpression(bounds.get(i));
             DBSPWaterlineOperator waterline = new DBSPWaterlineOperator(
                     operator.getNode(), min.closure(), bound.closure(parameter), operator);
             this.addOperator(waterline);
 
             DBSPVariablePath var = new DBSPVariablePath("t", bound.getType().ref());
             DBSPExpression makePair = new DBSPRawTupleExpression(
-                    this.wrapTypedBox(minimums.get(0), false),
+                    this.wrapTypedBox(minimums.get(i).deepCopy(), false),
                     this.wrapTypedBox(var.deref().field(0), false));
             DBSPApplyOperator apply = new DBSPApplyOperator(
                     operator.getNode(), makePair.closure(var.asParameter()), makePair.getType(), waterline, null);
@@ -467,13 +538,15 @@ public class InsertLimiters extends CircuitCloneVisitor {
 
             // Window requires data to be indexed
             DBSPOperator ix = new DBSPMapIndexOperator(operator.getNode(),
-                    new DBSPRawTupleExpression(fields.get(0), t.deref()).closure(t.asParameter()),
+                    new DBSPRawTupleExpression(field, t.deref()).closure(parameter),
                     new DBSPTypeIndexedZSet(operator.getNode(),
-                            fields.get(0).getType(), dataType), true, replacement);
+                            field.getType(), dataType), true, replacement);
             this.addOperator(ix);
             DBSPWindowOperator window = new DBSPWindowOperator(operator.getNode(), ix, apply);
             this.addOperator(window);
             replacement = new DBSPDeindexOperator(operator.getNode(), window);
+            if (i < minimums.size() - 1)
+                this.addOperator(replacement);
         }
 
         if (replacement == operator) {
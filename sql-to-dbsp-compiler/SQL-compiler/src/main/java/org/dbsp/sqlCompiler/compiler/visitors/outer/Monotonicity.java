@@ -6,7 +6,9 @@ import org.dbsp.sqlCompiler.circuit.operator.DBSPDifferentiateOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPDistinctOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPFilterOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPHopOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPIndexedTopKOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPIntegrateOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPLagOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPMapIndexOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPMapOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPNoopOperator;
@@ -14,6 +16,7 @@ import org.dbsp.sqlCompiler.circuit.operator.DBSPOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPPrimitiveAggregateOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPSourceMapOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPSourceMultisetOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPStreamDistinctOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPUnaryOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPUpsertFeedbackOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPViewOperator;
@@ -328,6 +331,11 @@ public class Monotonicity extends CircuitVisitor {
         this.identity(node);
     }
 
+    @Override
+    public void postorder(DBSPStreamDistinctOperator node) {
+        this.identity(node);
+    }
+
     @Override
     public void postorder(DBSPNoopOperator node) {
         this.identity(node);
@@ -349,6 +357,8 @@ public class Monotonicity extends CircuitVisitor {
         this.identity(node);
     }
 
+    /** Handles operators which compute a new value for each group, like aggregates.
+     * Only the key of the output is considered, since it is the same as the key of the input. */
     public void aggregate(DBSPOperator node) {
         // Input type is IndexedZSet<key, tuple>
         // Output type is IndexedZSet(key, aggregateType)
@@ -383,4 +393,14 @@ public class Monotonicity extends CircuitVisitor {
     public void postorder(DBSPPrimitiveAggregateOperator node) {
         this.aggregate(node);
     }
+
+    @Override
+    public void postorder(DBSPIndexedTopKOperator node) {
+        this.aggregate(node);
+    }
+
+    @Override
+    public void postorder(DBSPLagOperator node) {
+        this.aggregate(node);
+    }
 }
@@ -112,6 +112,36 @@ public class OptimizeIncrementalVisitor extends CircuitCloneVisitor {
         super.postorder(operator);
     }
 
+    @Override
+    public void postorder(DBSPStreamAntiJoinOperator operator) {
+        List<DBSPOperator> sources = Linq.map(operator.inputs, this::mapped);
+        if (Linq.all(sources, s -> s.is(DBSPIntegrateOperator.class))) {
+            List<DBSPOperator> sourceSource = Linq.map(sources, s -> s.inputs.get(0));
+            DBSPOperator replace = new DBSPAntiJoinOperator(operator.getNode(),
+                    sourceSource.get(0), sourceSource.get(1));
+            this.addOperator(replace);
+            DBSPIntegrateOperator integral = new DBSPIntegrateOperator(operator.getNode(), replace);
+            this.map(operator, integral);
+            return;
+        }
+        super.postorder(operator);
+    }
+
+    @Override
+    public void postorder(DBSPStreamSemiJoinOperator operator) {
+        List<DBSPOperator> sources = Linq.map(operator.inputs, this::mapped);
+        if (Linq.all(sources, s -> s.is(DBSPIntegrateOperator.class))) {
+            List<DBSPOperator> sourceSource = Linq.map(sources, s -> s.inputs.get(0));
+            DBSPOperator replace = new DBSPSemiJoinOperator(operator.getNode(),
+                    sourceSource.get(0), sourceSource.get(1));
+            this.addOperator(replace);
+            DBSPIntegrateOperator integral = new DBSPIntegrateOperator(operator.getNode(), replace);
+            this.map(operator, integral);
+            return;
+        }
+        super.postorder(operator);
+    }
+
     @Override
     public void postorder(DBSPSumOperator operator) {
         List<DBSPOperator> sources = Linq.map(operator.inputs, this::mapped);
@@ -24,6 +24,7 @@
 package org.dbsp.sqlCompiler.compiler.visitors.outer;
 
 import org.dbsp.sqlCompiler.circuit.DBSPCircuit;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPOperator;
 import org.dbsp.sqlCompiler.compiler.IErrorReporter;
 import org.dbsp.sqlCompiler.compiler.backend.ToDotVisitor;
 import org.dbsp.sqlCompiler.compiler.visitors.inner.InnerRewriteVisitor;
@@ -31,7 +32,10 @@ import org.dbsp.util.IWritesLogs;
 import org.dbsp.util.Linq;
 import org.dbsp.util.Logger;
 
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
 
 public class Passes implements IWritesLogs, CircuitTransform {
     final IErrorReporter errorReporter;
@@ -73,7 +77,34 @@ public class Passes implements IWritesLogs, CircuitTransform {
                     .append("Executing ")
                     .append(pass.toString())
                     .newline();
-            circuit = pass.apply(circuit);
+            long start = System.currentTimeMillis();
+            DBSPCircuit result = pass.apply(circuit);
+            long end = System.currentTimeMillis();
+            if (Logger.INSTANCE.getLoggingLevel("Passes") >= 2) {
+                // Operators are immutable, so the operators that are not
+                // part of the input circuit are the ones the pass rewrote.
+                Set<DBSPOperator> before = Collections.newSetFromMap(new IdentityHashMap<>());
+                before.addAll(circuit.circuit.allOperators);
+                long dirty = Linq.where(result.circuit.allOperators, o -> !before.contains(o)).size();
+                Logger.INSTANCE.belowLevel("Passes", 2)
+                        .append(pass.toString())
+                        .append(" rewrote ")
+                        .append(dirty)
+                        .append(" of ")
+                        .append(result.size())
+                        .append(" operators");
+                if (pass instanceof CircuitRewriter rewriter && rewriter.cache)
+                    Logger.INSTANCE.belowLevel("Passes", 2)
+                            .append(", skipped ")
+                            .append(rewriter.skipped)
+                            .append(" unchanged");
+                Logger.INSTANCE.belowLevel("Passes", 2)
+                        .append(" in ")
+                        .append(end - start)
+                        .append("ms")
+                        .newline();
+            }
+            circuit = result;
             if (this.getDebugLevel() >= 3) {
                 String name = String.format("%02d-", dumped++) + pass.toString().replace(" ", "_") + ".png";
                 Logger.INSTANCE.belowLevel(this, 3)
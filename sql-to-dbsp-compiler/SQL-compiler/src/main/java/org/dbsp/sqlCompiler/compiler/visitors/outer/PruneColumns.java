@@ -0,0 +1,417 @@
+package org.dbsp.sqlCompiler.compiler.visitors.outer;
+
+import org.dbsp.sqlCompiler.circuit.operator.DBSPAggregateOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPAggregateOperatorBase;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPDistinctOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPIndexedTopKOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPJoinFlatmapOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPJoinOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPLagOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPMapIndexOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPSourceMapOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPSourceMultisetOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPStreamAggregateOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPStreamJoinOperator;
+import org.dbsp.sqlCompiler.compiler.IErrorReporter;
+import org.dbsp.sqlCompiler.compiler.visitors.VisitDecision;
+import org.dbsp.sqlCompiler.compiler.visitors.inner.InnerRewriteVisitor;
+import org.dbsp.sqlCompiler.compiler.visitors.inner.InnerVisitor;
+import org.dbsp.sqlCompiler.compiler.visitors.inner.ResolveReferences;
+import org.dbsp.sqlCompiler.ir.DBSPAggregate;
+import org.dbsp.sqlCompiler.ir.DBSPParameter;
+import org.dbsp.sqlCompiler.ir.IDBSPInnerNode;
+import org.dbsp.sqlCompiler.ir.expression.DBSPClosureExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPDerefExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPFieldExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPRawTupleExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPTupleExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPVariablePath;
+import org.dbsp.sqlCompiler.ir.type.DBSPType;
+import org.dbsp.sqlCompiler.ir.type.DBSPTypeTupleBase;
+import org.dbsp.sqlCompiler.ir.type.user.DBSPTypeIndexedZSet;
+import org.dbsp.sqlCompiler.ir.type.user.DBSPTypeZSet;
+import org.dbsp.util.IIndentStream;
+import org.dbsp.util.Linq;
+import org.dbsp.util.Logger;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/** Removes the columns which are not used by a join or an aggregate from the values of its inputs.
+ * The inputs of these operators are integrated into traces, so every column which is
+ * indexed but not read is stored for no reason.
+ * A map_index operator which feeds only a join or an aggregate is narrowed to produce only the
+ * value columns that the join function or the aggregate increment and linear functions read;
+ * upstream maps are then narrowed as well when they are fused with the map_index.
+ * The inputs of the other operators that keep traces cannot be narrowed locally:
+ * distinct depends on all columns, TopK and LAG reproduce the whole input row
+ * in their output, and sources must store the rows as they are received.
+ * The number of columns stored by every operator that keeps a trace is reported in the log. */
+public class PruneColumns extends Passes {
+    public PruneColumns(IErrorReporter reporter) {
+        super(reporter);
+        FanoutVisitor fanout = new FanoutVisitor(reporter);
+        this.add(fanout);
+        this.add(new PruneInputs(reporter, op -> fanout.getFanout(op) == 1));
+        this.add(new DeadCode(reporter, true, false));
+        this.add(new TraceWidths(reporter));
+    }
+
+    /** Finds the fields of a parameter that are used by a closure.
+     * 'fields' is null if the parameter is used other than for accessing its fields. */
+    static class UsedFields extends InnerVisitor {
+        final DBSPParameter parameter;
+        final ResolveReferences resolver;
+        @Nullable
+        TreeSet<Integer> fields;
+
+        UsedFields(IErrorReporter reporter, DBSPParameter parameter) {
+            super(reporter);
+            this.parameter = parameter;
+            this.resolver = new ResolveReferences(reporter, true);
+            this.fields = new TreeSet<>();
+        }
+
+        boolean isParameter(DBSPExpression expression) {
+            DBSPVariablePath var = expression.as(DBSPVariablePath.class);
+            return var != null && this.resolver.reference.get(var) == this.parameter;
+        }
+
+        @Override
+        public VisitDecision preorder(DBSPFieldExpression field) {
+            DBSPExpression source = field.expression;
+            if (source.is(DBSPDerefExpression.class))
+                source = source.to(DBSPDerefExpression.class).expression;
+            if (this.isParameter(source)) {
+                if (this.fields != null)
+                    this.fields.add(field.fieldNo);
+                return VisitDecision.STOP;
+            }
+            return VisitDecision.CONTINUE;
+        }
+
+        @Override
+        public VisitDecision preorder(DBSPVariablePath var) {
+            if (this.isParameter(var))
+                this.fields = null;
+            return VisitDecision.STOP;
+        }
+
+        @Override
+        public void startVisit(IDBSPInnerNode node) {
+            this.fields = new TreeSet<>();
+            this.resolver.apply(node);
+            super.startVisit(node);
+        }
+    }
+
+    /** Rewrites the field accesses of a parameter to read the fields of a narrowed
+     * parameter: field 'f' is read from position 'kept.indexOf(f)'.
+     * All uses of the parameter must be field accesses. */
+    static class RemapFields extends InnerRewriteVisitor {
+        final DBSPParameter parameter;
+        final DBSPVariablePath newParameter;
+        final List<Integer> kept;
+        final ResolveReferences resolver;
+
+        RemapFields(IErrorReporter reporter, DBSPParameter parameter,
+                    DBSPVariablePath newParameter, List<Integer> kept) {
+            super(reporter);
+            this.parameter = parameter;
+            this.newParameter = newParameter;
+            this.kept = kept;
+            this.resolver = new ResolveReferences(reporter, true);
+        }
+
+        @Override
+        public VisitDecision preorder(DBSPFieldExpression field) {
+            DBSPExpression source = field.expression;
+            boolean deref = source.is(DBSPDerefExpression.class);
+            if (deref)
+                source = source.to(DBSPDerefExpression.class).expression;
+            DBSPVariablePath var = source.as(DBSPVariablePath.class);
+            if (var != null && this.resolver.reference.get(var) == this.parameter) {
+                int index = this.kept.indexOf(field.fieldNo);
+                DBSPExpression result = deref ?
+                        this.newParameter.deref().field(index) :
+                        this.newParameter.field(index);
+                this.map(field, result);
+                return VisitDecision.STOP;
+            }
+            return super.preorder(field);
+        }
+
+        @Override
+        public void startVisit(IDBSPInnerNode node) {
+            this.resolver.apply(node);
+            super.startVisit(node);
+        }
+    }
+
+    static class PruneInputs extends CircuitCloneVisitor {
+        /** If this function returns 'true' the operator can be narrowed. */
+        final Function<DBSPOperator, Boolean> canPrune;
+
+        public PruneInputs(IErrorReporter reporter, Function<DBSPOperator, Boolean> canPrune) {
+            super(reporter, false);
+            this.canPrune = canPrune;
+        }
+
+        /** If 'input' is a map_index that produces a tuple value return the value expression,
+         * otherwise return null. */
+        @Nullable
+        static DBSPTupleExpression indexedValue(DBSPOperator input) {
+            if (!input.is(DBSPMapIndexOperator.class))
+                return null;
+            DBSPClosureExpression indexFunction = input.getFunction().to(DBSPClosureExpression.class);
+            DBSPRawTupleExpression kv = indexFunction.body.as(DBSPRawTupleExpression.class);
+            if (kv == null || kv.size() != 2)
+                return null;
+            DBSPTupleExpression value = kv.fields[1].as(DBSPTupleExpression.class);
+            if (value == null || value.isNull)
+                return null;
+            return value;
+        }
+
+        /** Create and add to the circuit a version of the map_index 'input'
+         * whose value contains only the 'kept' fields. */
+        DBSPOperator narrow(DBSPOperator input, List<Integer> kept) {
+            DBSPClosureExpression indexFunction = input.getFunction().to(DBSPClosureExpression.class);
+            DBSPRawTupleExpression kv = indexFunction.body.to(DBSPRawTupleExpression.class);
+            DBSPTupleExpression value = kv.fields[1].to(DBSPTupleExpression.class);
+            DBSPTupleExpression newValue = new DBSPTupleExpression(
+                    Linq.map(kept, value::get), false);
+            DBSPClosureExpression newIndexFunction = new DBSPRawTupleExpression(kv.fields[0], newValue)
+                    .closure(indexFunction.parameters);
+            DBSPTypeIndexedZSet newType = new DBSPTypeIndexedZSet(input.getNode(),
+                    input.getOutputIndexedZSetType().keyType, newValue.getType());
+            DBSPOperator newInput = new DBSPMapIndexOperator(input.getNode(), newIndexFunction,
+                    newType, input.isMultiset, input.inputs.get(0));
+            this.addOperator(newInput);
+            Logger.INSTANCE.belowLevel(this, 1)
+                    .append("Narrowed ")
+                    .append(input.toString())
+                    .append(" from ")
+                    .append(value.size())
+                    .append(" to ")
+                    .append(kept.size())
+                    .append(" columns")
+                    .newline();
+            return newInput;
+        }
+
+        void prune(DBSPOperator operator) {
+            DBSPClosureExpression function = operator.getFunction().to(DBSPClosureExpression.class);
+            List<DBSPOperator> inputs = Linq.map(operator.inputs, this::mapped);
+            boolean changed = false;
+            for (int i = 0; i < 2; i++) {
+                // We have to look up the original operator input, not the mapped one
+                if (!this.canPrune.apply(operator.inputs.get(i)))
+                    continue;
+                DBSPOperator input = inputs.get(i);
+                DBSPTupleExpression value = indexedValue(input);
+                if (value == null)
+                    continue;
+
+                DBSPParameter parameter = function.parameters[i + 1];
+                UsedFields used = new UsedFields(this.errorReporter, parameter);
+                used.apply(function);
+                if (used.fields == null || used.fields.size() == value.size())
+                    continue;
+
+                // Narrow the value produced by the map_index
+                List<Integer> kept = new ArrayList<>(used.fields);
+                DBSPOperator newInput = this.narrow(input, kept);
+                inputs.set(i, newInput);
+
+                // Rewrite the join function to read the narrowed value
+                DBSPType newValueType = newInput.getOutputIndexedZSetType().elementType;
+                DBSPVariablePath newParameter = newValueType.ref().var(parameter.asVariable().variable);
+                function = this.remap(function, i + 1, newParameter, kept);
+                changed = true;
+            }
+            if (!changed) {
+                this.replace(operator);
+                return;
+            }
+            DBSPOperator result = operator.withFunction(function, operator.outputType)
+                    .withInputs(inputs, true);
+            this.map(operator, result);
+        }
+
+        /** Rewrite a closure to read the 'kept' fields of its parameter 'index' from 'newParameter'. */
+        DBSPClosureExpression remap(DBSPClosureExpression closure, int index,
+                                    DBSPVariablePath newParameter, List<Integer> kept) {
+            RemapFields remap = new RemapFields(this.errorReporter, closure.parameters[index], newParameter, kept);
+            DBSPClosureExpression remapped = remap.apply(closure).to(DBSPClosureExpression.class);
+            DBSPParameter[] parameters = closure.parameters.clone();
+            parameters[index] = newParameter.asParameter();
+            return remapped.body.closure(parameters);
+        }
+
+        /** Narrow the input of an aggregate to the row fields read by its increment and linear functions.
+         * @param operator  Aggregate operator to narrow.
+         * @param rebuild   Creates a new aggregate operator from an aggregate and an input.
+         * @return          False if nothing can be removed. */
+        boolean pruneAggregate(DBSPAggregateOperatorBase operator,
+                               BiFunction<DBSPAggregate, DBSPOperator, DBSPOperator> rebuild) {
+            if (operator.aggregate == null || !this.canPrune.apply(operator.input()))
+                return false;
+            DBSPOperator input = this.mapped(operator.input());
+            DBSPTupleExpression value = indexedValue(input);
+            if (value == null)
+                return false;
+
+            DBSPAggregate aggregate = operator.aggregate;
+            TreeSet<Integer> fields = new TreeSet<>();
+            for (DBSPAggregate.Implementation component: aggregate.components) {
+                UsedFields used = new UsedFields(this.errorReporter, component.increment.parameters[1]);
+                used.apply(component.increment);
+                if (used.fields == null)
+                    return false;
+                fields.addAll(used.fields);
+                if (component.linearFunction != null) {
+                    used = new UsedFields(this.errorReporter, component.linearFunction.parameters[0]);
+                    used.apply(component.linearFunction);
+                    if (used.fields == null)
+                        return false;
+                    fields.addAll(used.fields);
+                }
+            }
+            if (fields.size() == value.size())
+                return false;
+
+            List<Integer> kept = new ArrayList<>(fields);
+            DBSPOperator newInput = this.narrow(input, kept);
+            DBSPType newValueType = newInput.getOutputIndexedZSetType().elementType;
+            DBSPVariablePath rowVar = newValueType.ref().var(aggregate.rowVar.variable);
+            DBSPAggregate.Implementation[] components = Linq.map(aggregate.components,
+                    c -> new DBSPAggregate.Implementation(c.getNode(), c.zero,
+                            this.remap(c.increment, 1, rowVar, kept), c.postProcess,
+                            c.emptySetResult, c.semigroup,
+                            c.linearFunction != null ? this.remap(c.linearFunction, 0, rowVar, kept) : null),
+                    DBSPAggregate.Implementation.class);
+            DBSPAggregate result = new DBSPAggregate(
+                    aggregate.getNode(), rowVar, components, aggregate.isWindowAggregate);
+            this.map(operator, rebuild.apply(result, newInput));
+            return true;
+        }
+
+        @Override
+        public void postorder(DBSPAggregateOperator operator) {
+            boolean pruned = this.pruneAggregate(operator, (aggregate, input) ->
+                    new DBSPAggregateOperator(operator.getNode(), operator.getOutputIndexedZSetType(),
+                            null, aggregate, input, operator.isLinear));
+            if (!pruned)
+                super.postorder(operator);
+        }
+
+        @Override
+        public void postorder(DBSPStreamAggregateOperator operator) {
+            boolean pruned = this.pruneAggregate(operator, (aggregate, input) ->
+                    new DBSPStreamAggregateOperator(operator.getNode(), operator.getOutputIndexedZSetType(),
+                            null, aggregate, input, operator.isLinear));
+            if (!pruned)
+                super.postorder(operator);
+        }
+
+        @Override
+        public void postorder(DBSPStreamJoinOperator operator) {
+            this.prune(operator);
+        }
+
+        @Override
+        public void postorder(DBSPJoinOperator operator) {
+            this.prune(operator);
+        }
+
+        @Override
+        public void postorder(DBSPJoinFlatmapOperator operator) {
+            this.prune(operator);
+        }
+    }
+
+    /** Reports the number of columns stored by every operator that keeps a trace. */
+    static class TraceWidths extends CircuitVisitor {
+        public TraceWidths(IErrorReporter reporter) {
+            super(reporter);
+        }
+
+        static int width(DBSPType type) {
+            DBSPTypeTupleBase tuple = type.as(DBSPTypeTupleBase.class);
+            if (tuple == null)
+                return 1;
+            return tuple.size();
+        }
+
+        void report(DBSPOperator operator, DBSPOperator traced) {
+            IIndentStream stream = Logger.INSTANCE.belowLevel(this, 1)
+                    .append(operator.toString())
+                    .append(" stores ");
+            if (traced.outputType.is(DBSPTypeIndexedZSet.class)) {
+                DBSPTypeIndexedZSet ix = traced.getOutputIndexedZSetType();
+                stream.append(width(ix.keyType))
+                        .append(" key and ")
+                        .append(width(ix.elementType))
+                        .append(" value columns");
+            } else if (traced.outputType.is(DBSPTypeZSet.class)) {
+                stream.append(width(traced.getOutputZSetElementType()))
+                        .append(" columns");
+            } else {
+                stream.append(traced.outputType.toString());
+            }
+            stream.newline();
+        }
+
+        void reportInputs(DBSPOperator operator) {
+            for (DBSPOperator input: operator.inputs)
+                this.report(operator, input);
+        }
+
+        @Override
+        public void postorder(DBSPJoinOperator operator) {
+            this.reportInputs(operator);
+        }
+
+        @Override
+        public void postorder(DBSPJoinFlatmapOperator operator) {
+            this.reportInputs(operator);
+        }
+
+        @Override
+        public void postorder(DBSPAggregateOperator operator) {
+            this.reportInputs(operator);
+        }
+
+        @Override
+        public void postorder(DBSPDistinctOperator operator) {
+            this.reportInputs(operator);
+        }
+
+        @Override
+        public void postorder(DBSPIndexedTopKOperator operator) {
+            this.reportInputs(operator);
+        }
+
+        @Override
+        public void postorder(DBSPLagOperator operator) {
+            this.reportInputs(operator);
+        }
+
+        @Override
+        public void postorder(DBSPSourceMultisetOperator operator) {
+            this.report(operator, operator);
+        }
+
+        @Override
+        public void postorder(DBSPSourceMapOperator operator) {
+            this.report(operator, operator);
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package org.dbsp.sqlCompiler.compiler.visitors.outer;
+
+import org.dbsp.sqlCompiler.circuit.operator.DBSPFilterOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPIndexedTopKOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPLagOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPMapIndexOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPMapOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPNegateOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPNoopOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPPartitionedRollingAggregateOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPPartitionedRollingAggregateWithWaterlineOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPStreamAggregateOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPStreamDistinctOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPStreamJoinOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPSubtractOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPSumOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPViewOperator;
+import org.dbsp.sqlCompiler.compiler.IErrorReporter;
+import org.dbsp.sqlCompiler.compiler.visitors.inner.BetaReduction;
+import org.dbsp.sqlCompiler.compiler.visitors.inner.Projection;
+import org.dbsp.sqlCompiler.compiler.visitors.inner.ResolveReferences;
+import org.dbsp.sqlCompiler.compiler.visitors.inner.Simplify;
+import org.dbsp.sqlCompiler.ir.DBSPParameter;
+import org.dbsp.sqlCompiler.ir.IDBSPInnerNode;
+import org.dbsp.sqlCompiler.ir.expression.DBSPClosureExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPRawTupleExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPTupleExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPVariablePath;
+import org.dbsp.sqlCompiler.ir.type.DBSPType;
+import org.dbsp.sqlCompiler.ir.type.DBSPTypeRawTuple;
+import org.dbsp.util.Linq;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/** Moves filters towards the inputs of the circuit, so that less data is
+ * indexed and integrated into traces by the operators that follow.
+ * A filter is moved:
+ * - below sums, differences, negations, distinct, and local views, by filtering each input
+ * - below maps and map_index operators, by composing the condition with the map function;
+ *   for maps this is only done when the filter can then move further down
+ * - into the inputs of a join whose fields are used by the condition
+ * - below operators which process each key independently (aggregates,
+ *   rolling aggregates, topK, lag), when the condition only uses the key.
+ * A filter is only moved below operators with no other consumers.
+ * A filter is moved below maps, map_index operators and joins only when the condition
+ * reads output fields that the function copies from its inputs; otherwise both the
+ * moved filter and the function would compute the same expressions.
+ * This runs before incrementalization, on the non-incremental circuit. */
+public class PushFilters extends Repeat {
+    static CircuitTransform createOnePass(IErrorReporter reporter) {
+        Passes result = new Passes(reporter);
+        FanoutVisitor fanout = new FanoutVisitor(reporter);
+        result.add(fanout);
+        result.add(new PushFiltersVisitor(reporter,
+                // Operators with other consumers must produce all their rows
+                op -> fanout.getFanout(op) == 1));
+        result.add(new DeadCode(reporter, true, false));
+        return result;
+    }
+
+    public PushFilters(IErrorReporter reporter) {
+        super(reporter, createOnePass(reporter));
+    }
+
+    static class PushFiltersVisitor extends CircuitCloneVisitor {
+        /** If this function returns 'true' a filter can be moved below the operator. */
+        final Function<DBSPOperator, Boolean> canPush;
+
+        public PushFiltersVisitor(IErrorReporter reporter, Function<DBSPOperator, Boolean> canPush) {
+            super(reporter, false);
+            this.canPush = canPush;
+        }
+
+        /** Build a closure with the specified body and parameters, and simplify it. */
+        DBSPClosureExpression reduce(DBSPExpression body, DBSPParameter... parameters) {
+            IDBSPInnerNode reduced = new BetaReduction(this.errorReporter).apply(body.closure(parameters));
+            return new Simplify(this.errorReporter).apply(reduced).to(DBSPClosureExpression.class);
+        }
+
+        /** True if the body of the closure refers to the parameter. */
+        boolean uses(DBSPClosureExpression closure, DBSPParameter parameter) {
+            ResolveReferences resolver = new ResolveReferences(this.errorReporter, true);
+            resolver.apply(closure);
+            return resolver.reference.isReferenced(parameter);
+        }
+
+        /** True if 'condition' only reads fields of 'output' (the body of a function with the
+         * specified parameters) that are plain copies of fields of the function parameters.
+         * @param parameter  Parameter of 'condition' which stands for 'output'. */
+        boolean readsPlainFields(DBSPClosureExpression condition, DBSPParameter parameter,
+                                 DBSPExpression output, DBSPParameter[] functionParameters) {
+            PruneColumns.UsedFields used = new PruneColumns.UsedFields(this.errorReporter, parameter);
+            used.apply(condition);
+            DBSPTupleExpression tuple = output.as(DBSPTupleExpression.class);
+            if (used.fields == null || tuple == null || tuple.isNull)
+                return this.isPlain(output, functionParameters);
+            for (int field: used.fields) {
+                if (!this.isPlain(tuple.get(field), functionParameters))
+                    return false;
+            }
+            return true;
+        }
+
+        boolean isPlain(DBSPExpression expression, DBSPParameter[] parameters) {
+            Projection projection = new Projection(this.errorReporter);
+            projection.apply(expression.closure(parameters));
+            return projection.isProjection;
+        }
+
+        /** A condition on the (key, value) pairs of 'input' which is equivalent to
+         * 'condition' on the (key, value) pairs of the output of an operator which
+         * preserves keys.  Null if 'condition' depends on the values. */
+        @Nullable
+        DBSPClosureExpression onKey(DBSPClosureExpression condition, DBSPOperator input) {
+            DBSPVariablePath row = input.getOutputIndexedZSetType().getKVRefType().var("t");
+            DBSPType valueType = condition.parameters[0].getType().to(DBSPTypeRawTuple.class).getFieldType(1);
+            DBSPVariablePath value = valueType.var("v");
+            DBSPClosureExpression result = this.reduce(
+                    condition.call(new DBSPRawTupleExpression(row.field(0), value)),
+                    row.asParameter(), value.asParameter());
+            if (this.uses(result, result.parameters[1]))
+                return null;
+            return result.body.closure(result.parameters[0]);
+        }
+
+        /** The conditions that have to be applied to each input of 'source'
+         * to obtain the same result as applying 'condition' to its output.
+         * An element of the list is null if the corresponding input should not be filtered.
+         * Returns null if the condition cannot be moved below 'source'. */
+        @Nullable
+        List<DBSPClosureExpression> pushedConditions(DBSPClosureExpression condition, DBSPOperator source) {
+            if (source.is(DBSPSumOperator.class) ||
+                    source.is(DBSPSubtractOperator.class) ||
+                    source.is(DBSPNegateOperator.class) ||
+                    source.is(DBSPNoopOperator.class) ||
+                    source.is(DBSPStreamDistinctOperator.class) ||
+                    source.is(DBSPViewOperator.class)) {
+                return Linq.map(source.inputs, i -> condition);
+            } else if (source.is(DBSPMapOperator.class)) {
+                DBSPClosureExpression function = source.getFunction().to(DBSPClosureExpression.class);
+                if (!this.readsPlainFields(condition, condition.parameters[0], function.body, function.parameters))
+                    return null;
+                DBSPClosureExpression composed = this.reduce(
+                        condition.call(function.body.borrow()), function.parameters);
+                // Only worth it if the filter can then be moved further down
+                if (this.pushedConditions(composed, source.inputs.get(0)) == null)
+                    return null;
+                return Linq.list(composed);
+            } else if (source.is(DBSPMapIndexOperator.class)) {
+                DBSPClosureExpression function = source.getFunction().to(DBSPClosureExpression.class);
+                DBSPRawTupleExpression kv = function.body.as(DBSPRawTupleExpression.class);
+                if (kv == null || kv.size() != 2)
+                    return null;
+                // The condition as a function of separate key and value parameters
+                DBSPTypeRawTuple kvType = condition.parameters[0].getType().to(DBSPTypeRawTuple.class);
+                DBSPVariablePath key = kvType.getFieldType(0).var("k");
+                DBSPVariablePath value = kvType.getFieldType(1).var("v");
+                DBSPClosureExpression split = this.reduce(
+                        condition.call(new DBSPRawTupleExpression(key, value)),
+                        key.asParameter(), value.asParameter());
+                for (int i = 0; i < 2; i++) {
+                    if (!this.readsPlainFields(split, split.parameters[i], kv.fields[i], function.parameters))
+                        return null;
+                }
+                DBSPExpression argument = new DBSPRawTupleExpression(kv.fields[0].borrow(), kv.fields[1].borrow());
+                return Linq.list(this.reduce(condition.call(argument), function.parameters));
+            } else if (source.is(DBSPStreamJoinOperator.class)) {
+                DBSPClosureExpression function = source.getFunction().to(DBSPClosureExpression.class);
+                if (!this.readsPlainFields(condition, condition.parameters[0], function.body, function.parameters))
+                    return null;
+                DBSPClosureExpression composed = this.reduce(
+                        condition.call(function.body.borrow()), function.parameters);
+                boolean usesLeft = this.uses(composed, composed.parameters[1]);
+                boolean usesRight = this.uses(composed, composed.parameters[2]);
+                if (usesLeft && usesRight)
+                    return null;
+                List<DBSPClosureExpression> result = new ArrayList<>();
+                for (int i = 0; i < 2; i++) {
+                    if (i == 0 ? usesRight : usesLeft) {
+                        result.add(null);
+                        continue;
+                    }
+                    // The value of the other input is not used
+                    DBSPVariablePath row = source.inputs.get(i).getOutputIndexedZSetType().getKVRefType().var("t");
+                    DBSPExpression[] arguments = new DBSPExpression[] {
+                            row.field(0),
+                            composed.parameters[1].asVariable(),
+                            composed.parameters[2].asVariable() };
+                    arguments[i + 1] = row.field(1);
+                    result.add(this.reduce(composed.call(arguments), row.asParameter()));
+                }
+                return result;
+            } else if (source.is(DBSPStreamAggregateOperator.class) ||
+                    source.is(DBSPPartitionedRollingAggregateOperator.class) ||
+                    source.is(DBSPPartitionedRollingAggregateWithWaterlineOperator.class) ||
+                    source.is(DBSPIndexedTopKOperator.class) ||
+                    source.is(DBSPLagOperator.class)) {
+                // Each key of the first input produces the same key of the output;
+                // the other inputs (waterlines) are not filtered.
+                DBSPClosureExpression onKey = this.onKey(condition, source.inputs.get(0));
+                if (onKey == null)
+                    return null;
+                List<DBSPClosureExpression> result = new ArrayList<>();
+                result.add(onKey);
+                for (int i = 1; i < source.inputs.size(); i++)
+                    result.add(null);
+                return result;
+            }
+            return null;
+        }
+
+        @Override
+        public void postorder(DBSPFilterOperator operator) {
+            DBSPOperator source = this.mapped(operator.input());
+            // We have to look up the original operator input, not source
+            if (!this.canPush.apply(operator.input())) {
+                super.postorder(operator);
+                return;
+            }
+            DBSPClosureExpression condition = operator.getFunction().to(DBSPClosureExpression.class);
+            List<DBSPClosureExpression> conditions = this.pushedConditions(condition, source);
+            if (conditions == null) {
+                super.postorder(operator);
+                return;
+            }
+            List<DBSPOperator> inputs = new ArrayList<>();
+            for (int i = 0; i < source.inputs.size(); i++) {
+                DBSPOperator input = source.inputs.get(i);
+                DBSPClosureExpression inputCondition = conditions.get(i);
+                if (inputCondition != null) {
+                    input = new DBSPFilterOperator(operator.getNode(), inputCondition, input);
+                    this.addOperator(input);
+                }
+                inputs.add(input);
+            }
+            DBSPOperator result = source.withInputs(inputs, true);
+            this.map(operator, result);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package org.dbsp.sqlCompiler.compiler.visitors.outer;
+
+import org.dbsp.sqlCompiler.circuit.operator.DBSPOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPStreamDistinctOperator;
+import org.dbsp.sqlCompiler.compiler.IErrorReporter;
+
+/** Removes the distinct operators applied to collections which are already sets,
+ * as found by the {@link UniqueKeys} analysis.
+ * This runs before incrementalization, on the non-incremental circuit. */
+public class RemoveRedundantDistinct extends Passes {
+    public RemoveRedundantDistinct(IErrorReporter reporter) {
+        super(reporter);
+        UniqueKeys keys = new UniqueKeys(reporter);
+        this.add(keys);
+        this.add(new RemoveDistinct(reporter, keys));
+    }
+
+    static class RemoveDistinct extends CircuitCloneVisitor {
+        final UniqueKeys keys;
+
+        public RemoveDistinct(IErrorReporter reporter, UniqueKeys keys) {
+            super(reporter, false);
+            this.keys = keys;
+        }
+
+        @Override
+        public void postorder(DBSPStreamDistinctOperator operator) {
+            // We have to look up the original operator input, not the mapped one
+            if (!this.keys.isSet(operator.input())) {
+                super.postorder(operator);
+                return;
+            }
+            DBSPOperator input = this.mapped(operator.input());
+            this.map(operator, input, false);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package org.dbsp.sqlCompiler.compiler.visitors.outer;
+
+import org.dbsp.sqlCompiler.circuit.operator.DBSPDeindexOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPMapIndexOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPSourceMapOperator;
+import org.dbsp.sqlCompiler.compiler.IErrorReporter;
+import org.dbsp.sqlCompiler.ir.DBSPParameter;
+import org.dbsp.sqlCompiler.ir.expression.DBSPClosureExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPCloneExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPDerefExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPFieldExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPRawTupleExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPTupleExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPVariablePath;
+import org.dbsp.sqlCompiler.ir.type.DBSPTypeTuple;
+
+import java.util.List;
+
+/** Tables with a primary key are read by a source operator which indexes
+ * the rows by the key, followed by a deindex operator (see {@link IndexedInputs}).
+ * A map_index which indexes the rows of such a table by exactly the primary key
+ * columns produces the same collection as the source; it is replaced with the source,
+ * so that joins and aggregates on the key share the indexed input stream instead
+ * of building a copy of the table. */
+public class ReuseSourceIndex extends CircuitCloneVisitor {
+    public ReuseSourceIndex(IErrorReporter reporter) {
+        super(reporter, false);
+    }
+
+    /** If the expression is a (possibly cloned) field of the row
+     * referred by the parameter returns the field number, otherwise -1. */
+    static int rowField(DBSPExpression expression, DBSPParameter row) {
+        if (expression.is(DBSPCloneExpression.class))
+            expression = expression.to(DBSPCloneExpression.class).expression;
+        DBSPFieldExpression field = expression.as(DBSPFieldExpression.class);
+        if (field == null)
+            return -1;
+        DBSPExpression source = field.expression;
+        if (source.is(DBSPDerefExpression.class))
+            source = source.to(DBSPDerefExpression.class).expression;
+        DBSPVariablePath var = source.as(DBSPVariablePath.class);
+        if (var == null || !var.variable.equals(row.name))
+            return -1;
+        return field.fieldNo;
+    }
+
+    /** True if the expression is a tuple with the specified fields of the row. */
+    static boolean isRowFields(DBSPExpression expression, DBSPParameter row, List<Integer> fields) {
+        DBSPTupleExpression tuple = expression.as(DBSPTupleExpression.class);
+        if (tuple == null || tuple.isNull || tuple.size() != fields.size())
+            return false;
+        for (int i = 0; i < tuple.size(); i++) {
+            if (rowField(tuple.get(i), row) != fields.get(i))
+                return false;
+        }
+        return true;
+    }
+
+    /** True if the expression is the entire row referred by the parameter. */
+    static boolean isRow(DBSPExpression expression, DBSPParameter row) {
+        if (expression.is(DBSPCloneExpression.class))
+            expression = expression.to(DBSPCloneExpression.class).expression;
+        if (expression.is(DBSPDerefExpression.class)) {
+            DBSPVariablePath var = expression.to(DBSPDerefExpression.class).expression.as(DBSPVariablePath.class);
+            if (var != null && var.variable.equals(row.name))
+                return true;
+        }
+        int size = row.getType().deref().to(DBSPTypeTuple.class).size();
+        DBSPTupleExpression tuple = expression.as(DBSPTupleExpression.class);
+        if (tuple == null || tuple.isNull || tuple.size() != size)
+            return false;
+        for (int i = 0; i < size; i++) {
+            if (rowField(tuple.get(i), row) != i)
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void postorder(DBSPMapIndexOperator operator) {
+        DBSPOperator input = this.mapped(operator.input());
+        DBSPSourceMapOperator source = null;
+        if (input.is(DBSPDeindexOperator.class))
+            source = input.inputs.get(0).as(DBSPSourceMapOperator.class);
+        if (source == null || !source.outputType.sameType(operator.outputType)) {
+            super.postorder(operator);
+            return;
+        }
+        DBSPClosureExpression function = operator.getFunction().to(DBSPClosureExpression.class);
+        DBSPRawTupleExpression kv = function.body.as(DBSPRawTupleExpression.class);
+        if (function.parameters.length != 1 || kv == null || kv.size() != 2) {
+            super.postorder(operator);
+            return;
+        }
+        DBSPParameter row = function.parameters[0];
+        if (!isRowFields(kv.fields[0], row, source.keyFields) || !isRow(kv.fields[1], row)) {
+            super.postorder(operator);
+            return;
+        }
+        this.map(operator, source, false);
+    }
+}
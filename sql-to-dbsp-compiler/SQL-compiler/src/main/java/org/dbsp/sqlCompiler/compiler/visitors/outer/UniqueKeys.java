@@ -0,0 +1,386 @@
+package org.dbsp.sqlCompiler.compiler.visitors.outer;
+
+import org.dbsp.sqlCompiler.circuit.operator.DBSPDeindexOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPDifferentiateOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPFilterOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPFlatMapIndexOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPMapIndexOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPMapOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPNegateOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPNoopOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPSourceMapOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPStreamAggregateOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPStreamDistinctOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPStreamJoinOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPSubtractOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPViewOperator;
+import org.dbsp.sqlCompiler.compiler.IErrorReporter;
+import org.dbsp.sqlCompiler.ir.expression.DBSPBaseTupleExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPCloneExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPClosureExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPDerefExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPFieldExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPRawTupleExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPTupleExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPVariablePath;
+import org.dbsp.sqlCompiler.ir.type.DBSPType;
+import org.dbsp.sqlCompiler.ir.type.DBSPTypeRef;
+import org.dbsp.sqlCompiler.ir.type.DBSPTypeTupleBase;
+import org.dbsp.sqlCompiler.ir.type.user.DBSPTypeIndexedZSet;
+import org.dbsp.sqlCompiler.ir.type.user.DBSPTypeZSet;
+import org.dbsp.util.Linq;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/** An analysis which finds the operators whose output is a set, and the
+ * fields which uniquely identify each element of their output.
+ * The fields of an element are numbered consecutively; for an indexed collection
+ * the fields of the key come before the fields of the value.
+ * Sets are produced by tables with a primary key, distinct, and aggregates;
+ * filters preserve sets, and maps and joins preserve sets if their output
+ * contains a unique key of their inputs.  The other operators which are not
+ * multisets produce sets whose only known key is the whole element.
+ * Sums are not sets, even if all their inputs are, since the inputs may
+ * have common elements; so the distinct of a UNION and the distinct
+ * operators used to compute outer joins are never removed.
+ * The analysis is only correct for non-incremental circuits. */
+public class UniqueKeys extends CircuitVisitor {
+    /** For each operator which produces a set the known unique keys. */
+    final Map<DBSPOperator, List<Set<Integer>>> keys = new HashMap<>();
+
+    public UniqueKeys(IErrorReporter errorReporter) {
+        super(errorReporter);
+    }
+
+    /** True if the operator is known to produce a set. */
+    public boolean isSet(DBSPOperator operator) {
+        return this.keys.containsKey(operator);
+    }
+
+    /** The unique keys of the output of the operator, null if the output may not be a set. */
+    @Nullable
+    public List<Set<Integer>> getKeys(DBSPOperator operator) {
+        return this.keys.get(operator);
+    }
+
+    void setKeys(DBSPOperator operator, @Nullable List<Set<Integer>> keys) {
+        if (keys != null)
+            this.keys.put(operator, keys);
+    }
+
+    /** Number of fields of a tuple type, -1 if the type is not a tuple. */
+    static int width(DBSPType type) {
+        if (type.is(DBSPTypeRef.class))
+            type = type.to(DBSPTypeRef.class).type;
+        DBSPTypeTupleBase tuple = type.as(DBSPTypeTupleBase.class);
+        return tuple == null ? -1 : tuple.size();
+    }
+
+    /** A single key with all the fields of the output of the operator, or null
+     * if the operator may produce a multiset. */
+    @Nullable
+    static List<Set<Integer>> wholeElement(DBSPOperator operator) {
+        if (operator.isMultiset)
+            return null;
+        int width;
+        if (operator.outputType.is(DBSPTypeZSet.class)) {
+            width = width(operator.getOutputZSetElementType());
+        } else if (operator.outputType.is(DBSPTypeIndexedZSet.class)) {
+            int keyWidth = keyWidth(operator);
+            int valueWidth = width(operator.getOutputIndexedZSetType().elementType);
+            width = keyWidth < 0 || valueWidth < 0 ? -1 : keyWidth + valueWidth;
+        } else {
+            return null;
+        }
+        if (width < 0)
+            return null;
+        List<Set<Integer>> keys = new ArrayList<>();
+        keys.add(range(0, width));
+        return keys;
+    }
+
+    /** Number of fields in the key of an indexed collection, -1 if the key is not a tuple. */
+    static int keyWidth(DBSPOperator operator) {
+        return width(operator.getOutputIndexedZSetType().keyType);
+    }
+
+    static Set<Integer> range(int start, int end) {
+        Set<Integer> result = new TreeSet<>();
+        for (int i = start; i < end; i++)
+            result.add(i);
+        return result;
+    }
+
+    /** Numbering of the fields of the inputs of a closure. */
+    static final class InputFields {
+        /** Number of the first field of the tuple referred by each variable. */
+        final Map<String, Integer> variables = new HashMap<>();
+        /** Numbers of the first fields of the tuples referred by the fields of a variable. */
+        final Map<String, int[]> components = new HashMap<>();
+
+        /** Number of the first field of the tuple referred by the expression, or null. */
+        @Nullable
+        Integer offset(DBSPExpression expression) {
+            if (expression.is(DBSPDerefExpression.class))
+                expression = expression.to(DBSPDerefExpression.class).expression;
+            DBSPVariablePath var = expression.as(DBSPVariablePath.class);
+            if (var != null)
+                return this.variables.get(var.variable);
+            DBSPFieldExpression field = expression.as(DBSPFieldExpression.class);
+            if (field == null)
+                return null;
+            var = field.expression.as(DBSPVariablePath.class);
+            if (var == null)
+                return null;
+            int[] offsets = this.components.get(var.variable);
+            if (offsets == null || field.fieldNo >= offsets.length)
+                return null;
+            return offsets[field.fieldNo];
+        }
+
+        /** The input fields produced by the expression; each element is -1 if
+         * the corresponding field is not an input field.  Null if the expression
+         * is not a tuple. */
+        @Nullable
+        List<Integer> fields(DBSPExpression expression) {
+            if (expression.is(DBSPCloneExpression.class))
+                expression = expression.to(DBSPCloneExpression.class).expression;
+            if (expression.is(DBSPBaseTupleExpression.class)) {
+                DBSPBaseTupleExpression tuple = expression.to(DBSPBaseTupleExpression.class);
+                if (tuple.is(DBSPTupleExpression.class) && tuple.to(DBSPTupleExpression.class).isNull)
+                    return null;
+                return Linq.map(Linq.list(tuple.fields), this::field);
+            }
+            // An entire input tuple
+            Integer offset = this.offset(expression);
+            int width = width(expression.getType());
+            if (offset == null || width < 0)
+                return null;
+            List<Integer> result = new ArrayList<>();
+            for (int i = 0; i < width; i++)
+                result.add(offset + i);
+            return result;
+        }
+
+        /** The input field produced by the expression, or -1. */
+        int field(DBSPExpression expression) {
+            if (expression.is(DBSPCloneExpression.class))
+                expression = expression.to(DBSPCloneExpression.class).expression;
+            DBSPFieldExpression field = expression.as(DBSPFieldExpression.class);
+            if (field == null)
+                return -1;
+            Integer offset = this.offset(field.expression);
+            return offset == null ? -1 : offset + field.fieldNo;
+        }
+    }
+
+    /** The numbering of the fields of the single input of a closure. */
+    @Nullable
+    static InputFields inputFields(DBSPClosureExpression function, DBSPOperator input) {
+        if (function.parameters.length != 1)
+            return null;
+        String name = function.parameters[0].name;
+        InputFields result = new InputFields();
+        if (input.outputType.is(DBSPTypeZSet.class)) {
+            result.variables.put(name, 0);
+        } else if (input.outputType.is(DBSPTypeIndexedZSet.class)) {
+            int keyWidth = keyWidth(input);
+            if (keyWidth < 0)
+                return null;
+            result.components.put(name, new int[] { 0, keyWidth });
+        } else {
+            return null;
+        }
+        return result;
+    }
+
+    /** The keys of the output of a function which produces the specified input fields,
+     * given the keys of its input.  Null if no key is preserved. */
+    @Nullable
+    static List<Set<Integer>> project(List<Set<Integer>> keys, @Nullable List<Integer> output) {
+        if (output == null)
+            return null;
+        List<Set<Integer>> result = new ArrayList<>();
+        for (Set<Integer> key: keys) {
+            Set<Integer> projected = new TreeSet<>();
+            for (int field: key) {
+                int index = output.indexOf(field);
+                if (index < 0) {
+                    projected = null;
+                    break;
+                }
+                projected.add(index);
+            }
+            if (projected != null)
+                result.add(projected);
+        }
+        return result.isEmpty() ? null : result;
+    }
+
+    /** The fields produced by a map_index function: the key fields followed by the value fields. */
+    @Nullable
+    static List<Integer> indexFields(InputFields fields, DBSPExpression body) {
+        DBSPRawTupleExpression kv = body.as(DBSPRawTupleExpression.class);
+        if (kv == null || kv.size() != 2)
+            return null;
+        List<Integer> key = fields.fields(kv.fields[0]);
+        List<Integer> value = fields.fields(kv.fields[1]);
+        if (key == null || value == null)
+            return null;
+        List<Integer> result = new ArrayList<>(key);
+        result.addAll(value);
+        return result;
+    }
+
+    @Override
+    public void postorder(DBSPOperator operator) {
+        // Operators without a more precise rule
+        this.setKeys(operator, wholeElement(operator));
+    }
+
+    @Override
+    public void postorder(DBSPNegateOperator operator) {
+        // The weights are negative
+    }
+
+    @Override
+    public void postorder(DBSPSubtractOperator operator) {
+        // The weights may be negative
+    }
+
+    @Override
+    public void postorder(DBSPDifferentiateOperator operator) {
+        // The weights may be negative
+    }
+
+    @Override
+    public void postorder(DBSPFlatMapIndexOperator operator) {
+        // The flag is copied from a map_index, and does not account for the dropped fields
+    }
+
+    @Override
+    public void postorder(DBSPSourceMapOperator operator) {
+        int keyWidth = operator.keyFields.size();
+        List<Set<Integer>> keys = new ArrayList<>();
+        keys.add(range(0, keyWidth));
+        // The values are the rows, which contain the key columns
+        keys.add(new TreeSet<>(Linq.map(operator.keyFields, f -> f + keyWidth)));
+        this.setKeys(operator, keys);
+    }
+
+    @Override
+    public void postorder(DBSPStreamDistinctOperator operator) {
+        List<Set<Integer>> keys = this.getKeys(operator.input());
+        if (keys == null) {
+            keys = new ArrayList<>();
+            int width = width(operator.getOutputZSetElementType());
+            if (width >= 0)
+                keys.add(range(0, width));
+        }
+        this.setKeys(operator, keys);
+    }
+
+    @Override
+    public void postorder(DBSPStreamAggregateOperator operator) {
+        // Each key appears once in the output
+        List<Set<Integer>> keys = new ArrayList<>();
+        int keyWidth = keyWidth(operator);
+        if (keyWidth >= 0)
+            keys.add(range(0, keyWidth));
+        this.setKeys(operator, keys);
+    }
+
+    @Override
+    public void postorder(DBSPFilterOperator operator) {
+        this.setKeys(operator, this.getKeys(operator.input()));
+    }
+
+    @Override
+    public void postorder(DBSPNoopOperator operator) {
+        this.setKeys(operator, this.getKeys(operator.input()));
+    }
+
+    @Override
+    public void postorder(DBSPViewOperator operator) {
+        this.setKeys(operator, this.getKeys(operator.input()));
+    }
+
+    @Override
+    public void postorder(DBSPDeindexOperator operator) {
+        List<Set<Integer>> keys = this.getKeys(operator.input());
+        int keyWidth = keyWidth(operator.input());
+        if (keys == null || keyWidth < 0)
+            return;
+        // Only the keys which consist of value fields are preserved
+        List<Set<Integer>> result = new ArrayList<>();
+        for (Set<Integer> key: keys) {
+            if (Linq.all(key, f -> f >= keyWidth))
+                result.add(new TreeSet<>(Linq.map(new ArrayList<>(key), f -> f - keyWidth)));
+        }
+        if (!result.isEmpty())
+            this.setKeys(operator, result);
+    }
+
+    @Override
+    public void postorder(DBSPMapOperator operator) {
+        List<Set<Integer>> keys = this.getKeys(operator.input());
+        DBSPClosureExpression function = operator.getFunction().as(DBSPClosureExpression.class);
+        if (keys == null || function == null)
+            return;
+        InputFields fields = inputFields(function, operator.input());
+        if (fields == null)
+            return;
+        this.setKeys(operator, project(keys, fields.fields(function.body)));
+    }
+
+    @Override
+    public void postorder(DBSPMapIndexOperator operator) {
+        List<Set<Integer>> keys = this.getKeys(operator.input());
+        DBSPClosureExpression function = operator.getFunction().as(DBSPClosureExpression.class);
+        if (keys == null || function == null)
+            return;
+        InputFields fields = inputFields(function, operator.input());
+        if (fields == null)
+            return;
+        this.setKeys(operator, project(keys, indexFields(fields, function.body)));
+    }
+
+    @Override
+    public void postorder(DBSPStreamJoinOperator operator) {
+        DBSPOperator left = operator.inputs.get(0);
+        DBSPOperator right = operator.inputs.get(1);
+        List<Set<Integer>> leftKeys = this.getKeys(left);
+        List<Set<Integer>> rightKeys = this.getKeys(right);
+        DBSPClosureExpression function = operator.getFunction().as(DBSPClosureExpression.class);
+        if (leftKeys == null || rightKeys == null || function == null || function.parameters.length != 3)
+            return;
+        int keyWidth = keyWidth(left);
+        int leftWidth = width(left.getOutputIndexedZSetType().elementType);
+        if (keyWidth < 0 || leftWidth < 0)
+            return;
+        // The fields of the join are the key, the left value, and the right value
+        InputFields fields = new InputFields();
+        fields.variables.put(function.parameters[0].name, 0);
+        fields.variables.put(function.parameters[1].name, keyWidth);
+        fields.variables.put(function.parameters[2].name, keyWidth + leftWidth);
+        // Each output is produced by a single pair of left and right elements
+        List<Set<Integer>> keys = new ArrayList<>();
+        for (Set<Integer> leftKey: leftKeys) {
+            for (Set<Integer> rightKey: rightKeys) {
+                Set<Integer> key = new TreeSet<>(leftKey);
+                for (int f: rightKey)
+                    key.add(f < keyWidth ? f : f + leftWidth);
+                keys.add(key);
+            }
+        }
+        this.setKeys(operator, project(keys, fields.fields(function.body)));
+    }
+}
@@ -9,8 +9,10 @@ import org.dbsp.sqlCompiler.circuit.operator.DBSPDifferentiateOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPDistinctOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPFilterOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPHopOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPIndexedTopKOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPIntegrateOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPJoinOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPLagOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPMapIndexOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPMapOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPNoopOperator;
@@ -228,6 +230,16 @@ public class ExpandOperators extends CircuitCloneVisitor {
         this.identity(operator);
     }
 
+    @Override
+    public void postorder(DBSPIndexedTopKOperator operator) {
+        this.identity(operator);
+    }
+
+    @Override
+    public void postorder(DBSPLagOperator operator) {
+        this.identity(operator);
+    }
+
     /*
     @Override
     public void postorder(DBSPPartitionedTreeAggregateOperator operator) {
@@ -0,0 +1,83 @@
+package org.dbsp.sqlCompiler.ir.expression;
+
+import org.dbsp.sqlCompiler.compiler.errors.InternalCompilerError;
+import org.dbsp.sqlCompiler.compiler.frontend.calciteObject.CalciteObject;
+import org.dbsp.sqlCompiler.compiler.visitors.VisitDecision;
+import org.dbsp.sqlCompiler.compiler.visitors.inner.EquivalenceContext;
+import org.dbsp.sqlCompiler.compiler.visitors.inner.InnerVisitor;
+import org.dbsp.sqlCompiler.ir.IDBSPNode;
+import org.dbsp.sqlCompiler.ir.type.DBSPType;
+import org.dbsp.sqlCompiler.ir.type.primitive.DBSPTypeBool;
+import org.dbsp.util.IIndentStream;
+import org.dbsp.util.Linq;
+
+/** Tests whether the value of an expression is one of a set of constants,
+ * as in 'expression IN (value0, value1, ...)'.
+ * The constants are stored in a sorted array which is built only once,
+ * so a test costs O(log n) instead of n comparisons.
+ * If the expression is nullable the result is NULL when the expression is NULL. */
+public final class DBSPSetContainsExpression extends DBSPExpression {
+    public final DBSPExpression expression;
+    /** Constants, all with the non-nullable type of the expression. */
+    public final DBSPExpression[] values;
+
+    public DBSPSetContainsExpression(CalciteObject node, DBSPExpression expression, DBSPExpression... values) {
+        super(node, new DBSPTypeBool(CalciteObject.EMPTY, expression.getType().mayBeNull));
+        this.expression = expression;
+        this.values = values;
+        DBSPType elementType = this.getElementType();
+        for (DBSPExpression value: values)
+            if (!value.getType().sameType(elementType))
+                throw new InternalCompilerError("Set element " + value + " does not have type " + elementType, value);
+    }
+
+    /** Type of the elements of the set. */
+    public DBSPType getElementType() {
+        return this.expression.getType().setMayBeNull(false);
+    }
+
+    @Override
+    public void accept(InnerVisitor visitor) {
+        VisitDecision decision = visitor.preorder(this);
+        if (decision.stop()) return;
+        visitor.push(this);
+        this.expression.accept(visitor);
+        for (DBSPExpression value: this.values)
+            value.accept(visitor);
+        visitor.pop(this);
+        visitor.postorder(this);
+    }
+
+    @Override
+    public boolean sameFields(IDBSPNode other) {
+        DBSPSetContainsExpression o = other.as(DBSPSetContainsExpression.class);
+        if (o == null)
+            return false;
+        return this.expression == o.expression &&
+                Linq.same(this.values, o.values);
+    }
+
+    @Override
+    public IIndentStream toString(IIndentStream builder) {
+        return builder.append("[")
+                .join(", ", this.values)
+                .append("].contains(")
+                .append(this.expression)
+                .append(")");
+    }
+
+    @Override
+    public DBSPExpression deepCopy() {
+        return new DBSPSetContainsExpression(this.getNode(), this.expression.deepCopy(),
+                Linq.map(this.values, DBSPExpression::deepCopy, DBSPExpression.class));
+    }
+
+    @Override
+    public boolean equivalent(EquivalenceContext context, DBSPExpression other) {
+        DBSPSetContainsExpression otherExpression = other.as(DBSPSetContainsExpression.class);
+        if (otherExpression == null)
+            return false;
+        return context.equivalent(this.expression, otherExpression.expression) &&
+                context.equivalent(this.values, otherExpression.values);
+    }
+}
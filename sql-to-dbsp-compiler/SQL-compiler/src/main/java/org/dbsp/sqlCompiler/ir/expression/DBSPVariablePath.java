@@ -73,13 +73,12 @@ public final class DBSPVariablePath extends DBSPExpression {
         if (otherExpression == null)
             return false;
         IDBSPDeclaration leftDeclaration = context.leftDeclaration.get(this.variable);
-        assert leftDeclaration != null
-                : "Declaration for variable " + Utilities.singleQuote(this.variable) + " not found";
         IDBSPDeclaration rightDeclaration = context.rightDeclaration.get(otherExpression.variable);
-        assert rightDeclaration != null
-                : "Declaration for variable " + Utilities.singleQuote(otherExpression.variable) + " not found";
+        if (leftDeclaration == null || rightDeclaration == null)
+            // Free variables refer to global declarations
+            return leftDeclaration == rightDeclaration && this.variable.equals(otherExpression.variable);
         IDBSPDeclaration subst = context.leftToRight.get(leftDeclaration);
-        return subst.equals(rightDeclaration);
+        return rightDeclaration.equals(subst);
     }
 
     @Override
@@ -0,0 +1,84 @@
+package org.dbsp.sqlCompiler.ir.statement;
+
+import org.dbsp.sqlCompiler.compiler.visitors.VisitDecision;
+import org.dbsp.sqlCompiler.compiler.visitors.inner.EquivalenceContext;
+import org.dbsp.sqlCompiler.compiler.visitors.inner.InnerVisitor;
+import org.dbsp.sqlCompiler.ir.IDBSPNode;
+import org.dbsp.sqlCompiler.ir.expression.DBSPExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPVariablePath;
+import org.dbsp.sqlCompiler.ir.type.DBSPType;
+import org.dbsp.sqlCompiler.ir.type.IHasType;
+import org.dbsp.util.IIndentStream;
+
+/** A static item whose value is computed lazily, on first access.
+ * In Rust this is a 'static NAME: StaticLazy<T> = StaticLazy::new(|| expression)'.
+ * The expression must not refer to any variables. */
+public final class DBSPStaticItem extends DBSPItem implements IHasType {
+    public final String name;
+    public final DBSPExpression expression;
+
+    public DBSPStaticItem(String name, DBSPExpression expression) {
+        this.name = name;
+        this.expression = expression;
+    }
+
+    @Override
+    public DBSPStatement deepCopy() {
+        return new DBSPStaticItem(this.name, this.expression.deepCopy());
+    }
+
+    @Override
+    public void accept(InnerVisitor visitor) {
+        VisitDecision decision = visitor.preorder(this);
+        if (decision.stop()) return;
+        visitor.push(this);
+        this.expression.accept(visitor);
+        visitor.pop(this);
+        visitor.postorder(this);
+    }
+
+    /** The type of the value; the static itself has a different type. */
+    @Override
+    public DBSPType getType() {
+        return this.expression.getType();
+    }
+
+    /** A variable referring to the static.  Since the static
+     * dereferences to its value it is treated as a reference. */
+    public DBSPVariablePath getVariable() {
+        return new DBSPVariablePath(this.name, this.getType().ref());
+    }
+
+    /** An expression which produces the value of the static. */
+    public DBSPExpression getValue() {
+        return this.getVariable().deref().applyCloneIfNeeded();
+    }
+
+    @Override
+    public boolean sameFields(IDBSPNode other) {
+        DBSPStaticItem o = other.as(DBSPStaticItem.class);
+        if (o == null)
+            return false;
+        return this.name.equals(o.name) &&
+                this.expression == o.expression;
+    }
+
+    @Override
+    public IIndentStream toString(IIndentStream builder) {
+        return builder.append("static ")
+                .append(this.name)
+                .append(": ")
+                .append(this.getType())
+                .append(" = ")
+                .append(this.expression);
+    }
+
+    @Override
+    public EquivalenceResult equivalent(EquivalenceContext context, DBSPStatement other) {
+        DBSPStaticItem o = other.as(DBSPStaticItem.class);
+        if (o == null)
+            return new EquivalenceResult(false, context);
+        return new EquivalenceResult(this.name.equals(o.name) &&
+                context.equivalent(this.expression, o.expression), context);
+    }
+}
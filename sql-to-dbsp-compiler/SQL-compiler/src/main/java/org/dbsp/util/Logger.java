@@ -93,6 +93,13 @@ public class Logger {
         this.setLoggingLevel(clazz.getSimpleName(), level);
     }
 
+    /**
+     * Restore the default logging level for all modules.
+     */
+    public void clearLoggingLevels() {
+        this.loggingLevel.clear();
+    }
+
     /**
      * Where logging should be redirected.
      * Notice that the indentation is *not* reset when the stream is changed.
@@ -1,7 +1,9 @@
 package org.dbsp.sqlCompiler.compiler.ir;
 
 import org.dbsp.sqlCompiler.compiler.frontend.calciteObject.CalciteObject;
+import org.dbsp.sqlCompiler.compiler.StderrErrorReporter;
 import org.dbsp.sqlCompiler.compiler.visitors.inner.EquivalenceContext;
+import org.dbsp.sqlCompiler.compiler.visitors.inner.StructuralHash;
 import org.dbsp.sqlCompiler.ir.expression.DBSPBinaryExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPBlockExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPExpression;
@@ -76,4 +78,28 @@ public class EquivalenceTests {
         DBSPExpression blockLambda1 = block1.closure(var1.asParameter(), var0.asParameter());
         Assert.assertTrue(EquivalenceContext.equiv(blockLambda0, blockLambda1));
     }
+
+    @Test
+    public void testHash() {
+        StderrErrorReporter reporter = new StderrErrorReporter();
+        DBSPLiteral zero = new DBSPI32Literal(0);
+        DBSPLiteral one = new DBSPI32Literal(1);
+        DBSPType i32 = zero.getType();
+        DBSPVariablePath var0 = new DBSPVariablePath("x", i32);
+        DBSPVariablePath var1 = new DBSPVariablePath("y", i32);
+        DBSPExpression plus0 = new DBSPBinaryExpression(
+                CalciteObject.EMPTY, i32, DBSPOpcode.ADD, var0, one);
+        DBSPExpression plus1 = new DBSPBinaryExpression(
+                CalciteObject.EMPTY, i32, DBSPOpcode.ADD, var1, one);
+        DBSPExpression plus2 = new DBSPBinaryExpression(
+                CalciteObject.EMPTY, i32, DBSPOpcode.ADD, var1, zero);
+        DBSPExpression lambda0 = plus0.closure(var0.asParameter());
+        DBSPExpression lambda1 = plus1.closure(var1.asParameter());
+        DBSPExpression lambda2 = plus2.closure(var1.asParameter());
+        // Equivalent expressions must have the same hash
+        Assert.assertTrue(EquivalenceContext.equiv(lambda0, lambda1));
+        Assert.assertEquals(StructuralHash.hash(reporter, lambda0), StructuralHash.hash(reporter, lambda1));
+        // Expressions with different constants should be in different buckets
+        Assert.assertNotEquals(StructuralHash.hash(reporter, lambda1), StructuralHash.hash(reporter, lambda2));
+    }
 }
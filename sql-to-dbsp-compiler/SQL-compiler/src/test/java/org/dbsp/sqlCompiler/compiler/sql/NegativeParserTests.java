@@ -70,6 +70,19 @@ public class NegativeParserTests extends BaseSQLTests {
         TestUtil.assertMessagesContain(compiler.messages, "Error parsing SQL: Encountered \")\" at");
     }
 
+    @Test
+    public void testTableStatistics() {
+        String ddl = "CREATE TABLE T(T INT) WITH ( 'row_count' = 'many' )";
+        DBSPCompiler compiler = this.testCompiler();
+        compiler.compileStatement(ddl);
+        TestUtil.assertMessagesContain(compiler.messages, "must be a non-negative number");
+
+        ddl = "CREATE TABLE T(T INT) WITH ( 'ndv.X' = '10' )";
+        compiler = this.testCompiler();
+        compiler.compileStatement(ddl);
+        TestUtil.assertMessagesContain(compiler.messages, "refers to unknown column 'X'");
+    }
+
     @Test
     public void duplicatedKey() {
         String ddl = """
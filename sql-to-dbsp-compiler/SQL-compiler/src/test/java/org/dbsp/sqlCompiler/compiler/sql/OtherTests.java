@@ -31,11 +31,22 @@ import org.apache.calcite.adapter.jdbc.JdbcSchema;
 import org.apache.calcite.jdbc.CalciteConnection;
 import org.apache.calcite.schema.SchemaPlus;
 import org.dbsp.sqlCompiler.CompilerMain;
+import org.dbsp.sqlCompiler.CompilerServer;
 import org.dbsp.sqlCompiler.circuit.DBSPCircuit;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPAggregateOperatorBase;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPAntiJoinOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPControlledFilterOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPDistinctOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPFilterOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPFlatMapIndexOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPFlatMapOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPJoinOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPMapOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPSourceBaseOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPSourceMapOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPStreamDistinctOperator;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPStreamJoinOperator;
 import org.dbsp.sqlCompiler.compiler.CompilerOptions;
 import org.dbsp.sqlCompiler.compiler.DBSPCompiler;
 import org.dbsp.sqlCompiler.compiler.StderrErrorReporter;
@@ -44,11 +55,19 @@ import org.dbsp.sqlCompiler.compiler.backend.ToCsvVisitor;
 import org.dbsp.sqlCompiler.compiler.backend.rust.RustFileWriter;
 import org.dbsp.sqlCompiler.compiler.errors.CompilerMessages;
 import org.dbsp.sqlCompiler.compiler.frontend.calciteCompiler.CalciteCompiler;
+import org.dbsp.sqlCompiler.compiler.frontend.calciteCompiler.CalciteOptimizer;
 import org.dbsp.sqlCompiler.compiler.frontend.calciteObject.CalciteObject;
 import org.dbsp.sqlCompiler.compiler.sql.simple.Change;
 import org.dbsp.sqlCompiler.compiler.sql.simple.EndToEndTests;
 import org.dbsp.sqlCompiler.compiler.visitors.VisitDecision;
+import org.dbsp.sqlCompiler.compiler.visitors.inner.BetaReduction;
+import org.dbsp.sqlCompiler.compiler.visitors.inner.MinimizeClones;
+import org.dbsp.sqlCompiler.compiler.visitors.inner.Simplify;
+import org.dbsp.sqlCompiler.compiler.visitors.outer.CSE;
+import org.dbsp.sqlCompiler.compiler.visitors.outer.CircuitRewriter;
+import org.dbsp.sqlCompiler.compiler.visitors.outer.CircuitTransform;
 import org.dbsp.sqlCompiler.compiler.visitors.outer.CircuitVisitor;
+import org.dbsp.sqlCompiler.compiler.visitors.outer.Graph;
 import org.dbsp.sqlCompiler.compiler.visitors.outer.Passes;
 import org.dbsp.sqlCompiler.ir.DBSPFunction;
 import org.dbsp.sqlCompiler.ir.DBSPNode;
@@ -67,6 +86,7 @@ import org.dbsp.sqlCompiler.ir.expression.literal.DBSPZSetLiteral;
 import org.dbsp.sqlCompiler.ir.statement.DBSPLetStatement;
 import org.dbsp.sqlCompiler.ir.statement.DBSPStatement;
 import org.dbsp.sqlCompiler.ir.type.DBSPTypeTuple;
+import org.dbsp.sqlCompiler.ir.type.DBSPTypeTupleBase;
 import org.dbsp.sqlCompiler.ir.type.user.DBSPTypeUser;
 import org.dbsp.sqlCompiler.ir.type.user.DBSPTypeZSet;
 import org.dbsp.sqlCompiler.ir.type.primitive.DBSPTypeInteger;
@@ -91,7 +111,10 @@ import java.io.FileWriter;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.io.StringReader;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
@@ -100,8 +123,11 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
+import java.util.Set;
 
 import static org.dbsp.sqlCompiler.ir.type.DBSPTypeCode.USER;
 
@@ -241,6 +267,66 @@ public class OtherTests extends BaseSQLTests implements IWritesLogs {
         Logger.INSTANCE.setLoggingLevel(this.getClassName(), 0);
     }
 
+    @Test
+    public void testCompilerServer() throws IOException {
+        File file = createInputScript(
+                "CREATE TABLE T (COL1 INT NOT NULL)",
+                "CREATE VIEW V AS SELECT COL1 FROM T");
+        File other = createInputScript(
+                "CREATE TABLE S (COL2 VARCHAR)",
+                "CREATE VIEW W AS SELECT COL2 FROM S");
+        File output = File.createTempFile("out", ".rs", new File(BaseSQLTests.rustDirectory));
+        output.deleteOnExit();
+        File otherOutput = File.createTempFile("other out", ".rs", new File(BaseSQLTests.rustDirectory));
+        otherOutput.deleteOnExit();
+        String request = "-q -o " + output.getPath() + " " + file.getPath() + "\n";
+        // -v output goes to the error stream; the output file name contains a space
+        String otherRequest = "-v 1 -o \"" + otherOutput.getPath() + "\" " + other.getPath() + "\n";
+
+        ByteArrayOutputStream outBytes = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(outBytes, true, StandardCharsets.UTF_8);
+        ByteArrayOutputStream errBytes = new ByteArrayOutputStream();
+        PrintStream err = new PrintStream(errBytes, true, StandardCharsets.UTF_8);
+        CompilerServer server = new CompilerServer(out, err);
+        server.serve(new StringReader(request + otherRequest));
+        Assert.assertEquals(2, server.requests);
+        Assert.assertEquals("done 0\ndone 0\n", outBytes.toString(StandardCharsets.UTF_8));
+        Assert.assertFalse(errBytes.toString(StandardCharsets.UTF_8).isEmpty());
+        String rust = Files.readString(output.toPath());
+        String otherRust = Files.readString(otherOutput.toPath());
+        Assert.assertNotEquals(rust, otherRust);
+        File diff = new File(output.getPath() + ".diff");
+        diff.deleteOnExit();
+        new File(otherOutput.getPath() + ".diff").deleteOnExit();
+        // The output file was empty, so the diff adds the whole program
+        Assert.assertTrue(Files.readString(diff.toPath()).contains("+pub fn circuit"));
+
+        // The same request again is answered without compiling
+        Assert.assertTrue(output.setLastModified(0));
+        server.serve(new StringReader(request + "-q " + file.getPath() + "\n"));
+        Assert.assertEquals(0, output.lastModified());
+        Assert.assertEquals(1, server.cached);
+        Assert.assertEquals("", Files.readString(diff.toPath()));
+        Assert.assertEquals(4, server.requests);
+        Assert.assertEquals("done 0\ndone 0\ndone 0\ndone 1\n", outBytes.toString(StandardCharsets.UTF_8));
+        Assert.assertTrue(errBytes.toString(StandardCharsets.UTF_8)
+                .endsWith("Requests must specify an output file with -o\n"));
+
+        // A changed program is compiled, and the diff only contains the changes;
+        // logging levels set by a request do not outlive it.
+        File changed = createInputScript(
+                "CREATE TABLE T (COL1 INT NOT NULL)",
+                "CREATE VIEW V AS SELECT COL1 + 1 FROM T");
+        Appendable save = Logger.INSTANCE.setDebugStream(new StringBuilder());
+        server.serve(new StringReader("-q -TCompilerServer=1 -o " + output.getPath() + " " + changed.getPath() + "\n"));
+        Logger.INSTANCE.setDebugStream(save);
+        Assert.assertEquals(0, Logger.INSTANCE.getLoggingLevel("CompilerServer"));
+        Assert.assertEquals(1, server.cached);
+        String changes = Files.readString(diff.toPath());
+        Assert.assertTrue(changes.contains("@@ -"));
+        Assert.assertFalse(changes.contains("+pub fn circuit"));
+    }
+
     // Test the -T command-line parameter
     @Test
     public void loggingParameter() throws IOException, InterruptedException, SQLException {
@@ -601,6 +687,39 @@ public class OtherTests extends BaseSQLTests implements IWritesLogs {
         noMap.apply(circuit);
     }
 
+    /** The operators of a circuit and their functions, ignoring the operator ids. */
+    static List<String> functions(DBSPCircuit circuit) {
+        return Linq.map(circuit.circuit.allOperators,
+                o -> o.getClass().getSimpleName() + " " + o.function + " " + o.outputType);
+    }
+
+    @Test
+    public void testCachedRewriter() {
+        String sql = """
+                CREATE TABLE T(a INT, b INT, s VARCHAR);
+                CREATE VIEW V AS SELECT a + 0, COALESCE(b, 1) * 1, SUBSTRING(s, 1, 2)
+                FROM T WHERE a > 0 AND NOT (b IS NULL);""";
+        DBSPCompiler compiler = this.testCompiler();
+        compiler.options.languageOptions.optimizationLevel = 1;
+        compiler.compileStatements(sql);
+        DBSPCircuit circuit = getCircuit(compiler);
+
+        CircuitRewriter cached = new Simplify(compiler).cachedCircuitRewriter();
+        CircuitTransform betaReduction = new BetaReduction(compiler).circuitRewriter();
+        // The cached rewriter is applied twice, with a different pass in between
+        DBSPCircuit first = cached.apply(circuit);
+        Assert.assertEquals(functions(new Simplify(compiler).circuitRewriter().apply(circuit)), functions(first));
+        DBSPCircuit reduced = betaReduction.apply(first);
+        DBSPCircuit second = cached.apply(reduced);
+        DBSPCircuit uncached = new Simplify(compiler).circuitRewriter().apply(reduced);
+        Assert.assertEquals(functions(uncached), functions(second));
+        // Applying the cached rewriter to its own result changes nothing
+        Assert.assertSame(second, cached.apply(second));
+        // ... and now all operators are known to be unchanged, so none is visited
+        Assert.assertSame(second, cached.apply(second));
+        Assert.assertEquals(second.size(), cached.skipped);
+    }
+
     @Test
     public void testIOT() throws IOException {
         // Iot code from different repository checked out in a specific place
@@ -711,6 +830,586 @@ public class OtherTests extends BaseSQLTests implements IWritesLogs {
         Assert.assertTrue(op.is(DBSPStreamDistinctOperator.class));
     }
 
+    @Test
+    public void testRollupReusesFinerGroupings() {
+        DBSPCompiler compiler = this.testCompiler();
+        compiler.compileStatements("""
+                CREATE TABLE T(a INT, b INT, v INT);
+                CREATE VIEW V AS SELECT a, b, SUM(v), COUNT(*), MAX(v)
+                FROM T GROUP BY ROLLUP(a, b);""");
+        compiler.optimize();
+        DBSPCircuit circuit = compiler.getFinalCircuit("circuit");
+        // Only the finest grouping is computed from the table;
+        // the coarser ones are computed from the previous aggregate.
+        int fromInput = 0;
+        for (DBSPOperator op: circuit.circuit.allOperators) {
+            if (!op.is(DBSPAggregateOperatorBase.class))
+                continue;
+            DBSPOperator source = op.inputs.get(0);
+            while (!source.inputs.isEmpty() && !source.is(DBSPAggregateOperatorBase.class))
+                source = source.inputs.get(0);
+            if (!source.is(DBSPAggregateOperatorBase.class))
+                fromInput++;
+        }
+        Assert.assertEquals(1, fromInput);
+    }
+
+    @Test
+    public void testWindowsShareInputJoin() {
+        DBSPCompiler compiler = this.testCompiler();
+        compiler.compileStatements("""
+                CREATE TABLE T(p INT, ts INT, v INT);
+                CREATE VIEW V AS SELECT p, ts,
+                SUM(v) OVER (PARTITION BY p ORDER BY ts RANGE BETWEEN 10 PRECEDING AND CURRENT ROW),
+                SUM(v) OVER (PARTITION BY p ORDER BY ts RANGE BETWEEN 100 PRECEDING AND CURRENT ROW),
+                MAX(v) OVER (PARTITION BY p ORDER BY ts RANGE UNBOUNDED PRECEDING)
+                FROM T;""");
+        CompilerCircuitStream ccs = new CompilerCircuitStream(compiler);
+        // The aggregates for the three windows are combined with each other,
+        // and only the combined result is joined with the input rows.
+        int rowJoins = 0;
+        for (DBSPOperator op: ccs.circuit.circuit.allOperators) {
+            if (!op.is(DBSPStreamJoinOperator.class) && !op.is(DBSPJoinOperator.class))
+                continue;
+            if (op.getOutputZSetElementType().to(DBSPTypeTupleBase.class).size() > 2)
+                rowJoins++;
+        }
+        Assert.assertEquals(1, rowJoins);
+        // Rows with the same order value are peers in all frames
+        ccs.step("INSERT INTO T VALUES(1, 1, 5), (1, 5, 3), (1, 5, 4), (1, 50, 2), (1, 200, 1), " +
+                        "(2, 1, 7), (2, 5, NULL);",
+                """
+                 p | ts  | s10 | s100 | m | weight
+                -----------------------------------
+                 1 | 1   | 5   | 5    | 5 | 1
+                 1 | 5   | 12  | 12   | 5 | 2
+                 1 | 50  | 2   | 14   | 5 | 1
+                 1 | 200 | 1   | 1    | 5 | 1
+                 2 | 1   | 7   | 7    | 7 | 1
+                 2 | 5   | 7   | 7    | 7 | 1""");
+        this.addRustTestCase("testWindowsShareInputJoin", ccs);
+    }
+
+    @Test
+    public void testFuseLinearOperators() {
+        DBSPCompiler compiler = this.testCompiler();
+        compiler.compileStatements("""
+                CREATE TABLE T(a INT, b INT);
+                CREATE VIEW V AS SELECT a, SUM(b) FROM T WHERE b > 0 GROUP BY a;""");
+        CompilerCircuitStream ccs = new CompilerCircuitStream(compiler);
+        // The filter and the indexing for the aggregate are fused into a single flat_map_index
+        Assert.assertFalse(Linq.any(ccs.circuit.circuit.allOperators, o -> o.is(DBSPFilterOperator.class)));
+        Assert.assertTrue(Linq.any(ccs.circuit.circuit.allOperators, o -> o.is(DBSPFlatMapIndexOperator.class)));
+        // Group 2 has no rows left after filtering, and NULL comparisons are false
+        ccs.step("INSERT INTO T VALUES(1, 2), (1, -1), (1, 3), (2, -5), (NULL, 4), (3, NULL);",
+                """
+                 a | sum | weight
+                ------------------
+                 1 | 5   | 1
+                   | 4   | 1""");
+        this.addRustTestCase("testFuseLinearOperators", ccs);
+
+        // A chain of maps and filters without an aggregate
+        compiler = this.testCompiler();
+        compiler.compileStatements("""
+                CREATE TABLE T(a INT, b INT);
+                CREATE VIEW V AS SELECT a * 2, b FROM (SELECT a, b FROM T WHERE b > 0) WHERE a < 2;""");
+        ccs = new CompilerCircuitStream(compiler);
+        ccs.step("INSERT INTO T VALUES(1, 2), (1, -1), (1, 2), (2, 3), (NULL, 4), (0, NULL);",
+                """
+                 a | b | weight
+                ----------------
+                 2 | 2 | 2""");
+        this.addRustTestCase("testFuseLinearOperatorsChain", ccs);
+    }
+
+    @Test
+    public void testPushFilterBelowAggregate() {
+        DBSPCompiler compiler = this.testCompiler();
+        compiler.compileStatements("""
+                CREATE TABLE T(a INT, b INT);
+                CREATE LOCAL VIEW S AS SELECT a, SUM(b) AS s FROM T GROUP BY a;
+                CREATE VIEW V AS SELECT * FROM S WHERE a > 10;""");
+        CompilerCircuitStream ccs = new CompilerCircuitStream(compiler);
+        // The filter on the grouping key is applied before the aggregate,
+        // where it is fused with the indexing of the input
+        Assert.assertFalse(Linq.any(ccs.circuit.circuit.allOperators, o -> o.is(DBSPFilterOperator.class)));
+        Assert.assertFalse(Linq.any(ccs.circuit.circuit.allOperators, o -> o.is(DBSPFlatMapOperator.class)));
+        Assert.assertTrue(Linq.any(ccs.circuit.circuit.allOperators, o -> o.is(DBSPFlatMapIndexOperator.class)));
+        String data = "INSERT INTO T VALUES(1, 5), (11, 2), (11, 2), (12, 95), (20, NULL), (NULL, 3), (15, 1);";
+        ccs.step(data, """
+                 a  | s  | weight
+                -----------------
+                 11 | 4  | 1
+                 12 | 95 | 1
+                 15 | 1  | 1
+                 20 |    | 1""");
+        this.addRustTestCase("testPushFilterBelowAggregate", ccs);
+
+        // The filter moves below the aggregate and the indexing of its input,
+        // but not below the map which computes c.
+        compiler = this.testCompiler();
+        compiler.compileStatements("""
+                CREATE TABLE T(a INT, b INT);
+                CREATE LOCAL VIEW M AS SELECT a, b, a + b AS c FROM T;
+                CREATE LOCAL VIEW S AS SELECT a, c, COUNT(*) AS n FROM M GROUP BY a, c;
+                CREATE VIEW V AS SELECT * FROM S WHERE a > 10 AND c < 100;""");
+        ccs = new CompilerCircuitStream(compiler);
+        ccs.step(data, """
+                 a  | c  | n | weight
+                ----------------------
+                 11 | 13 | 2 | 1
+                 15 | 16 | 1 | 1""");
+        this.addRustTestCase("testPushFilterBelowMap", ccs);
+    }
+
+    @Test
+    public void testPruneJoinColumns() {
+        DBSPCompiler compiler = this.testCompiler();
+        compiler.compileStatements("""
+                CREATE TABLE L(id INT, a INT, b INT, c INT, d INT);
+                CREATE TABLE R(id INT, x INT, y INT, z INT);
+                CREATE VIEW V AS SELECT L.a, R.x FROM L JOIN R ON L.id = R.id;""");
+        CompilerCircuitStream ccs = new CompilerCircuitStream(compiler);
+        // Only the columns used by the join are indexed
+        this.checkJoinValueWidth(ccs.circuit, 1);
+        String data = """
+                INSERT INTO L VALUES(1, 10, 0, 100, 0), (1, 11, 0, 101, 0), (2, 20, 0, 200, 0), (NULL, 30, 0, 300, 0);
+                INSERT INTO R VALUES(1, 5, 0, 50), (2, 6, 0, 60), (2, 7, 0, 70), (3, 8, 0, 80), (NULL, 9, 0, 90);""";
+        ccs.step(data, """
+                 a  | x | weight
+                -----------------
+                 10 | 5 | 1
+                 11 | 5 | 1
+                 20 | 6 | 1
+                 20 | 7 | 1""");
+        this.addRustTestCase("testPruneJoinColumns", ccs);
+
+        // The join reads columns which are not adjacent, in a different order
+        compiler = this.testCompiler();
+        compiler.compileStatements("""
+                CREATE TABLE L(id INT, a INT, b INT, c INT, d INT);
+                CREATE TABLE R(id INT, x INT, y INT, z INT);
+                CREATE VIEW V AS SELECT L.c, L.a, R.z FROM L JOIN R ON L.id = R.id;""");
+        ccs = new CompilerCircuitStream(compiler);
+        this.checkJoinValueWidth(ccs.circuit, 2);
+        ccs.step(data, """
+                 c   | a  | z  | weight
+                ------------------------
+                 100 | 10 | 50 | 1
+                 101 | 11 | 50 | 1
+                 200 | 20 | 60 | 1
+                 200 | 20 | 70 | 1""");
+        this.addRustTestCase("testPruneJoinColumnsReorder", ccs);
+    }
+
+    @Test
+    public void testPruneAggregateColumns() {
+        DBSPCompiler compiler = this.testCompiler();
+        compiler.compileStatements("""
+                CREATE TABLE L(id INT, a INT, b INT, c INT, d INT);
+                CREATE VIEW V AS SELECT id, SUM(a) AS s, COUNT(*) AS n FROM L GROUP BY id;""");
+        CompilerCircuitStream ccs = new CompilerCircuitStream(compiler);
+        // The grouping column is not stored in the value of the aggregate input
+        int aggregates = 0;
+        for (DBSPOperator op: ccs.circuit.circuit.allOperators) {
+            if (!op.is(DBSPAggregateOperatorBase.class))
+                continue;
+            aggregates++;
+            DBSPTypeTupleBase value = op.inputs.get(0).getOutputIndexedZSetType()
+                    .elementType.to(DBSPTypeTupleBase.class);
+            Assert.assertEquals(1, value.size());
+        }
+        Assert.assertEquals(1, aggregates);
+        ccs.step("INSERT INTO L VALUES(1, 10, 0, 100, 0), (1, 11, 0, 101, 0), (2, 20, 0, 200, 0);", """
+                 id | s  | n | weight
+                ---------------------
+                 1  | 21 | 2 | 1
+                 2  | 20 | 1 | 1""");
+        this.addRustTestCase("testPruneAggregateColumns", ccs);
+    }
+
+    /** Check that the circuit has one join, and the values of its inputs have at most 'width' columns. */
+    void checkJoinValueWidth(DBSPCircuit circuit, int width) {
+        int joins = 0;
+        for (DBSPOperator op: circuit.circuit.allOperators) {
+            if (!op.is(DBSPStreamJoinOperator.class) && !op.is(DBSPJoinOperator.class))
+                continue;
+            joins++;
+            for (DBSPOperator input: op.inputs) {
+                DBSPTypeTupleBase value = input.getOutputIndexedZSetType().elementType.to(DBSPTypeTupleBase.class);
+                Assert.assertTrue(value.size() <= width);
+            }
+        }
+        Assert.assertEquals(1, joins);
+    }
+
+    /** Names of the tables read by the operator. */
+    static Set<String> inputTables(DBSPOperator operator) {
+        Set<String> result = new HashSet<>();
+        if (operator.is(DBSPSourceBaseOperator.class))
+            result.add(operator.to(DBSPSourceBaseOperator.class).tableName.toLowerCase());
+        for (DBSPOperator input: operator.inputs)
+            result.addAll(inputTables(input));
+        return result;
+    }
+
+    /** Names of the tables read by the first join of the circuit, which
+     * has no other join in its inputs. */
+    static Set<String> firstJoinTables(DBSPCircuit circuit) {
+        for (DBSPOperator operator: circuit.circuit.allOperators) {
+            if (operator.is(DBSPStreamJoinOperator.class) || operator.is(DBSPJoinOperator.class))
+                return inputTables(operator);
+        }
+        return new HashSet<>();
+    }
+
+    @Test
+    public void testJoinOrderStatistics() {
+        String query = """
+                CREATE VIEW V AS SELECT A.id FROM A
+                JOIN B ON A.id = B.id
+                JOIN C ON A.x = C.x AND B.y = C.y;""";
+        String noStatistics = """
+                CREATE TABLE A(id INT NOT NULL, x INT NOT NULL);
+                CREATE TABLE B(id INT NOT NULL, y INT NOT NULL);
+                CREATE TABLE C(x INT NOT NULL, y INT NOT NULL);
+                """;
+        String statistics = """
+                CREATE TABLE A(id INT NOT NULL, x INT NOT NULL)
+                WITH ('row_count' = '1000000', 'ndv.id' = '1000000', 'ndv.x' = '10');
+                CREATE TABLE B(id INT NOT NULL, y INT NOT NULL)
+                WITH ('row_count' = '1000000', 'ndv.id' = '1000000', 'ndv.y' = '10');
+                CREATE TABLE C(x INT NOT NULL, y INT NOT NULL)
+                WITH ('row_count' = '10', 'ndv.x' = '10', 'ndv.y' = '10');
+                """;
+
+        StringBuilder builder = new StringBuilder();
+        Appendable save = Logger.INSTANCE.setDebugStream(builder);
+        Logger.INSTANCE.setLoggingLevel(CalciteOptimizer.class, 2);
+        DBSPCompiler compiler = this.testCompiler();
+        compiler.compileStatements(noStatistics + query);
+        DBSPCircuit circuit = getCircuit(compiler);
+        // Without statistics queries with 2 joins are not reordered
+        Assert.assertFalse(builder.toString().contains("MultiJoinOptimizeBushyRule"));
+        Assert.assertEquals(Set.of("a", "b"), firstJoinTables(circuit));
+
+        builder.setLength(0);
+        compiler = this.testCompiler();
+        compiler.compileStatements(statistics + query);
+        circuit = getCircuit(compiler);
+        Logger.INSTANCE.setDebugStream(save);
+        Logger.INSTANCE.setLoggingLevel(CalciteOptimizer.class, 0);
+        Assert.assertTrue(builder.toString().contains("MultiJoinOptimizeBushyRule"));
+        // The small table C is joined first
+        Assert.assertTrue(firstJoinTables(circuit).contains("c"));
+    }
+
+    @Test
+    public void testOuterJoinUsesAntiJoin() {
+        // Anti-join operators are only used by incremental circuits
+        DBSPCompiler compiler = new DBSPCompiler(this.testOptions(true, true));
+        compiler.compileStatements("""
+                CREATE TABLE L(id INT, a INT);
+                CREATE TABLE R(id INT, x INT);
+                CREATE VIEW V AS SELECT L.a, R.x FROM L FULL OUTER JOIN R ON L.id = R.id;""");
+        compiler.optimize();
+        DBSPCircuit circuit = compiler.getFinalCircuit("circuit");
+        // Unmatched rows are found by key, without computing distinct rows
+        Assert.assertEquals(2, Linq.where(circuit.circuit.allOperators,
+                o -> o.is(DBSPAntiJoinOperator.class)).size());
+        Assert.assertFalse(Linq.any(circuit.circuit.allOperators,
+                o -> o.is(DBSPStreamDistinctOperator.class) || o.is(DBSPDistinctOperator.class)));
+    }
+
+    @Test
+    public void testOuterJoinResults() {
+        String tables = """
+                CREATE TABLE L(id INT, k INT, a INT);
+                CREATE TABLE R(id INT, k INT, x INT);
+                """;
+        // Unmatched rows are duplicated, and rows with NULL keys never match
+        String data = """
+                INSERT INTO L VALUES(1, 1, 10), (1, 1, 10), (2, 1, 20), (4, 1, 40), (4, 1, 40), (NULL, 1, 30), (3, NULL, 50);
+                INSERT INTO R VALUES(1, 1, 100), (2, 2, 200), (NULL, 1, 300), (5, 5, 500), (5, 5, 500);""";
+        String oneKey = " ON L.id = R.id";
+        String twoKeys = " ON L.id = R.id AND L.k = R.k";
+        String[] queriesAndOutputs = new String[] {
+                "SELECT L.a, R.x FROM L LEFT JOIN R" + oneKey, """
+                 a  | x   | weight
+                -------------------
+                 10 | 100 | 2
+                 20 | 200 | 1
+                 30 |     | 1
+                 40 |     | 2
+                 50 |     | 1""",
+                "SELECT L.a, R.x FROM L RIGHT JOIN R" + oneKey, """
+                 a  | x   | weight
+                -------------------
+                 10 | 100 | 2
+                 20 | 200 | 1
+                    | 300 | 1
+                    | 500 | 2""",
+                "SELECT L.a, R.x FROM L FULL OUTER JOIN R" + oneKey, """
+                 a  | x   | weight
+                -------------------
+                 10 | 100 | 2
+                 20 | 200 | 1
+                 30 |     | 1
+                 40 |     | 2
+                 50 |     | 1
+                    | 300 | 1
+                    | 500 | 2""",
+                "SELECT L.a, R.x FROM L LEFT JOIN R" + twoKeys, """
+                 a  | x   | weight
+                -------------------
+                 10 | 100 | 2
+                 20 |     | 1
+                 30 |     | 1
+                 40 |     | 2
+                 50 |     | 1""",
+                "SELECT L.a, R.x FROM L RIGHT JOIN R" + twoKeys, """
+                 a  | x   | weight
+                -------------------
+                 10 | 100 | 2
+                    | 200 | 1
+                    | 300 | 1
+                    | 500 | 2""",
+                "SELECT L.a, R.x FROM L FULL OUTER JOIN R" + twoKeys, """
+                 a  | x   | weight
+                -------------------
+                 10 | 100 | 2
+                 20 |     | 1
+                 30 |     | 1
+                 40 |     | 2
+                 50 |     | 1
+                    | 200 | 1
+                    | 300 | 1
+                    | 500 | 2""",
+        };
+        for (int i = 0; i < queriesAndOutputs.length; i += 2) {
+            DBSPCompiler compiler = this.testCompiler();
+            compiler.compileStatements(tables + "CREATE VIEW V AS " + queriesAndOutputs[i] + ";");
+            CompilerCircuitStream ccs = new CompilerCircuitStream(compiler);
+            ccs.step(data, queriesAndOutputs[i + 1]);
+            this.addRustTestCase("testOuterJoinResults" + i, ccs);
+        }
+    }
+
+    @Test
+    public void testCommonSubexpressions() {
+        DBSPCompiler compiler = this.testCompiler();
+        compiler.compileStatements("""
+                CREATE TABLE T(s VARCHAR, x INT);
+                CREATE VIEW V AS SELECT SUBSTRING(s, 1, 3) AS a, UPPER(SUBSTRING(s, 1, 3)) AS b,
+                   CAST(x AS VARCHAR) AS c, CAST(x AS VARCHAR) || 'x' AS d FROM T;""");
+        CompilerCircuitStream ccs = new CompilerCircuitStream(compiler);
+        List<DBSPOperator> substring = Linq.where(ccs.circuit.circuit.allOperators,
+                o -> o.function != null && o.function.toString().contains("substring"));
+        Assert.assertEquals(1, substring.size());
+        // Each expression is computed only once
+        String function = Objects.requireNonNull(substring.get(0).function).toString();
+        Assert.assertEquals(1, function.split("substring", -1).length - 1);
+        Assert.assertTrue(function.contains("let cse"));
+        // The shared values are also NULL when the input is NULL
+        ccs.step("INSERT INTO T VALUES('hello', 5), (NULL, NULL), ('ab', 12);",
+                """
+                 a  | b  | c  | d  | weight
+                ----------------------------
+                 hel| HEL| 5| 5x| 1
+                NULL|NULL|NULL|NULL| 1
+                 ab| AB| 12| 12x| 1""");
+        this.addRustTestCase("testCommonSubexpressions", ccs);
+    }
+
+    @Test
+    public void testMinimizeClones() {
+        DBSPCompiler compiler = this.testCompiler();
+        DBSPTypeString str = DBSPTypeString.varchar(false);
+        DBSPVariablePath p = new DBSPTypeTuple(str, str).ref().var("p");
+        // The argument of f must be cloned, since p is a reference
+        DBSPLetStatement let = new DBSPLetStatement("v",
+                new DBSPApplyExpression("f", str, p.deref().field(0).applyClone()));
+        DBSPExpression body = new DBSPTupleExpression(
+                // v is used only once, so it can be moved
+                let.getVarReference().applyClone(),
+                // The result of g is a new value; g only reads its argument
+                new DBSPApplyExpression("g", str, p.deref().field(1).applyClone().borrow()).applyClone());
+        DBSPClosureExpression closure = new DBSPBlockExpression(Linq.list(let), body).closure(p.asParameter());
+        String result = new MinimizeClones(compiler).apply(closure).toString();
+        Assert.assertEquals(1, result.split("clone", -1).length - 1);
+    }
+
+    @Test
+    public void testReuseSourceIndex() throws IOException, InterruptedException, SQLException {
+        String sql = """
+                CREATE TABLE T(id INT NOT NULL PRIMARY KEY, a INT);
+                CREATE TABLE S(id INT NOT NULL, b INT);
+                CREATE VIEW V AS SELECT T.a, S.b FROM T JOIN S ON T.id = S.id;""";
+        DBSPCompiler compiler = this.testCompiler();
+        // Tables with a primary key are indexed only when not using handles
+        compiler.options.ioOptions.emitHandles = false;
+        compiler.compileStatements(sql);
+        compiler.optimize();
+        DBSPCircuit circuit = compiler.getFinalCircuit("circuit");
+        // The join reads the input indexed by the primary key directly
+        Assert.assertTrue(Linq.any(circuit.circuit.allOperators,
+                o -> (o.is(DBSPStreamJoinOperator.class) || o.is(DBSPJoinOperator.class)) &&
+                        Linq.any(o.inputs, i -> i.is(DBSPSourceMapOperator.class))));
+
+        // W computes the same join, but its keys have a different type than
+        // the primary key, so it builds its own index.
+        sql += """
+
+                CREATE VIEW W AS SELECT T.a, S.b FROM T JOIN S ON CAST(T.id AS BIGINT) = CAST(S.id AS BIGINT);""";
+        String rustCatalogTest = """
+                #[test]
+                pub fn test() {
+                    use dbsp_adapters::{CircuitCatalog, RecordFormat};
+
+                    let (mut circuit, catalog) = circuit(CircuitConfig::with_workers(2))
+                        .expect("Failed to build circuit");
+                    let mut t = catalog.input_collection_handle("T").unwrap()
+                        .handle.configure_deserializer(RecordFormat::Csv).unwrap();
+                    let mut s = catalog.input_collection_handle("S").unwrap()
+                        .handle.configure_deserializer(RecordFormat::Csv).unwrap();
+                    let v = &catalog.output_handles("V").unwrap().delta_handle;
+                    let w = &catalog.output_handles("W").unwrap().delta_handle;
+
+                    for data in [&b"1,10"[..], b"2,20", b"3,30"] {
+                        t.insert(data).unwrap();
+                    }
+                    for data in [&b"1,100"[..], b"1,101", b"2,200", b"4,400"] {
+                        s.insert(data).unwrap();
+                    }
+                    t.flush();
+                    s.flush();
+                    circuit.step().unwrap();
+                    let out = format!("{:?}", v.consolidate());
+                    // One entry per output row
+                    assert_eq!(3, out.matches("}, ").count());
+                    assert_eq!(out, format!("{:?}", w.consolidate()));
+
+                    // Replace the row with key 1
+                    t.insert(b"1,11").unwrap();
+                    t.flush();
+                    circuit.step().unwrap();
+                    let out = format!("{:?}", v.consolidate());
+                    assert_eq!(4, out.matches("}, ").count());
+                    assert_eq!(out, format!("{:?}", w.consolidate()));
+                }
+                """;
+        File file = createInputScript(sql);
+        CompilerMessages message = CompilerMain.execute(
+                "-i", "-o", BaseSQLTests.testFilePath, file.getPath());
+        Assert.assertEquals(0, message.exitCode);
+        File rust = new File(BaseSQLTests.testFilePath);
+        try (FileWriter fr = new FileWriter(rust, true)) { // append
+            fr.write(rustCatalogTest);
+        }
+        Utilities.compileAndTestRust(BaseSQLTests.rustDirectory, false);
+    }
+
+    @Test
+    public void testRemoveRedundantDistinct() {
+        DBSPCompiler compiler = this.testCompiler();
+        // Tables with a primary key are indexed only when not using handles
+        compiler.options.ioOptions.emitHandles = false;
+        compiler.compileStatements("""
+                CREATE TABLE T(id INT NOT NULL PRIMARY KEY, a INT);
+                CREATE VIEW V AS SELECT DISTINCT id, a + 1 FROM T;""");
+        compiler.optimize();
+        DBSPCircuit circuit = compiler.getFinalCircuit("circuit");
+        // The projection contains the primary key, so it is already a set
+        Assert.assertFalse(Linq.any(circuit.circuit.allOperators,
+                o -> o.is(DBSPStreamDistinctOperator.class) || o.is(DBSPDistinctOperator.class)));
+
+        // Aggregates, and joins of aggregates on their keys, produce sets
+        String tables = """
+                CREATE TABLE T(x INT, y INT);
+                CREATE TABLE S(x INT, z INT);
+                """;
+        String data = """
+                INSERT INTO T VALUES(1, 10), (1, 11), (2, 20), (NULL, 30);
+                INSERT INTO S VALUES(1, 5), (2, 6), (2, 7), (3, 8);""";
+        String[] queriesAndOutputs = new String[] {
+                "SELECT DISTINCT x, c FROM (SELECT x, COUNT(*) AS c FROM T GROUP BY x)", """
+                 x | c | weight
+                ----------------
+                 1 | 2 | 1
+                 2 | 1 | 1
+                   | 1 | 1""",
+                "SELECT DISTINCT A.x, A.c, B.x AS y, B.s FROM " +
+                        "(SELECT x, COUNT(*) AS c FROM T GROUP BY x) A JOIN " +
+                        "(SELECT x, SUM(z) AS s FROM S GROUP BY x) B ON A.x = B.x", """
+                 x | c | y | s  | weight
+                -------------------------
+                 1 | 2 | 1 | 5  | 1
+                 2 | 1 | 2 | 13 | 1""",
+        };
+        for (int i = 0; i < queriesAndOutputs.length; i += 2) {
+            compiler = this.testCompiler();
+            compiler.compileStatements(tables + "CREATE VIEW V AS " + queriesAndOutputs[i] + ";");
+            CompilerCircuitStream ccs = new CompilerCircuitStream(compiler);
+            Assert.assertFalse(Linq.any(ccs.circuit.circuit.allOperators,
+                    o -> o.is(DBSPStreamDistinctOperator.class) || o.is(DBSPDistinctOperator.class)));
+            ccs.step(data, queriesAndOutputs[i + 1]);
+            this.addRustTestCase("testRemoveRedundantDistinct" + i, ccs);
+        }
+
+        // The inputs of a UNION may have common elements, so the distinct is kept
+        compiler = this.testCompiler();
+        compiler.compileStatements(tables + "CREATE VIEW V AS " +
+                "SELECT x FROM T GROUP BY x UNION SELECT x FROM S GROUP BY x;");
+        CompilerCircuitStream ccs = new CompilerCircuitStream(compiler);
+        Assert.assertTrue(Linq.any(ccs.circuit.circuit.allOperators,
+                o -> o.is(DBSPStreamDistinctOperator.class) || o.is(DBSPDistinctOperator.class)));
+        ccs.step(data, """
+                 x | weight
+                ------------
+                 1 | 1
+                 2 | 1
+                 3 | 1
+                   | 1""");
+        this.addRustTestCase("testRemoveRedundantDistinctUnion", ccs);
+    }
+
+    @Test
+    public void testSemiJoin() {
+        String tables = """
+                CREATE TABLE S(x INT, y INT);
+                CREATE TABLE R(x INT, z INT);
+                """;
+        String data = """
+                INSERT INTO S VALUES(1, 10), (1, 10), (2, 20), (NULL, 30), (4, 40);
+                INSERT INTO R VALUES(1, 100), (1, 101), (NULL, 200), (3, 300);""";
+        String matched = """
+                 x | y  | weight
+                -----------------
+                 1 | 10 | 2""";
+        String unmatched = """
+                 x | y  | weight
+                -----------------
+                 2 | 20 | 1
+                   | 30 | 1
+                 4 | 40 | 1""";
+        String[] queriesAndOutputs = new String[] {
+                "SELECT * FROM S WHERE x IN (SELECT x FROM R)", matched,
+                "SELECT * FROM S WHERE EXISTS (SELECT 1 FROM R WHERE R.x = S.x)", matched,
+                "SELECT * FROM S WHERE NOT EXISTS (SELECT 1 FROM R WHERE R.x = S.x)", unmatched,
+                // Join conditions which are not equalities
+                "SELECT * FROM S WHERE EXISTS (SELECT 1 FROM R WHERE R.x = S.x AND R.z > S.y * 10)", matched,
+                "SELECT * FROM S WHERE NOT EXISTS (SELECT 1 FROM R WHERE R.x = S.x AND R.z > S.y * 10)", unmatched,
+        };
+        for (int i = 0; i < queriesAndOutputs.length; i += 2) {
+            DBSPCompiler compiler = this.testCompiler();
+            compiler.compileStatements(tables + "CREATE VIEW V AS " + queriesAndOutputs[i] + ";");
+            CompilerCircuitStream ccs = new CompilerCircuitStream(compiler);
+            ccs.step(data, queriesAndOutputs[i + 1]);
+            this.addRustTestCase("testSemiJoin" + i, ccs);
+        }
+    }
+
     @Test
     public void testNoOutput() throws IOException, SQLException {
         String[] statements = new String[]{
@@ -748,6 +1447,50 @@ public class OtherTests extends BaseSQLTests implements IWritesLogs {
         Utilities.compileAndTestRust(BaseSQLTests.rustDirectory, false);
     }
 
+    @Test
+    public void testHoistConstants() throws IOException, InterruptedException, SQLException {
+        String[] statements = new String[]{
+                "CREATE TABLE T (COL1 VARCHAR NOT NULL, COL2 DECIMAL(10, 2))",
+                "CREATE VIEW V AS SELECT COL1 FROM T WHERE RLIKE(COL1, '^a+b*$') AND COL2 > 3.14",
+                "CREATE VIEW W AS SELECT COL2 FROM T WHERE RLIKE(COL1, '^a+b*$')"
+        };
+        File file = createInputScript(statements);
+        CompilerMessages messages = CompilerMain.execute("-o", BaseSQLTests.testFilePath, file.getPath());
+        Assert.assertEquals(0, messages.exitCode);
+        String rust = Utilities.readFile(Path.of(BaseSQLTests.testFilePath));
+        // The regular expression and the decimal constant are evaluated only once
+        Assert.assertTrue(rust.contains("static STATIC0: StaticLazy<"));
+        Assert.assertTrue(rust.contains("rlike_regex__("));
+        Assert.assertFalse(rust.contains("rlike__("));
+        // Both views share the same compiled regular expression
+        Assert.assertEquals(1, rust.split("compile_regex\\(", -1).length - 1);
+        Utilities.compileAndTestRust(BaseSQLTests.rustDirectory, false);
+    }
+
+    @Test
+    public void testSplitCircuit() throws IOException, InterruptedException, SQLException {
+        String[] statements = new String[]{
+                "CREATE TABLE T (COL1 INT NOT NULL, COL2 DOUBLE NOT NULL)",
+                "CREATE TABLE S (COL1 INT NOT NULL)",
+                "CREATE VIEW V AS SELECT COL1 FROM T",
+                "CREATE VIEW W AS SELECT COL1 + 1 FROM S",
+                "CREATE VIEW U AS SELECT COL2 FROM T"
+        };
+        File file = createInputScript(statements);
+        CompilerMessages messages = CompilerMain.execute(
+                "--split", "-o", BaseSQLTests.testFilePath, file.getPath());
+        Assert.assertEquals(0, messages.exitCode);
+        String rust = Utilities.readFile(Path.of(BaseSQLTests.testFilePath));
+        // T and S are not connected, so they are in separate modules
+        Assert.assertTrue(rust.contains("mod circuit_v {"));
+        Assert.assertTrue(rust.contains("mod circuit_w {"));
+        // U and V only share the table T, which is passed to both modules
+        Assert.assertTrue(rust.contains("mod circuit_u {"));
+        Assert.assertTrue(rust.contains("circuit_v::build(circuit, &mut catalog, "));
+        Assert.assertTrue(rust.contains("circuit_u::build(circuit, &mut catalog, "));
+        Utilities.compileAndTestRust(BaseSQLTests.rustDirectory, false);
+    }
+
     @Test
     public void testDefaultColumnValueCompiler() throws IOException, InterruptedException, SQLException {
         String[] statements = new String[]{
@@ -1055,6 +1798,49 @@ public class OtherTests extends BaseSQLTests implements IWritesLogs {
         Assert.assertEquals(1, circuit.getOutputCount());
     }
 
+    /** Build a program where a single table feeds 'views' different views,
+     * and return the number of operator comparisons performed by CSE on the compiled circuit. */
+    int cseComparisons(int views) {
+        StringBuilder builder = new StringBuilder();
+        builder.append("CREATE TABLE T(x INT NOT NULL, y INT NOT NULL);\n");
+        for (int i = 0; i < views; i++)
+            builder.append("CREATE VIEW V")
+                    .append(i)
+                    .append(" AS SELECT x + ")
+                    .append(i)
+                    .append(" FROM T WHERE y > ")
+                    .append(i)
+                    .append(";\n");
+        DBSPCompiler compiler = this.testCompiler();
+        compiler.compileStatements(builder.toString());
+        DBSPCircuit circuit = getCircuit(compiler);
+        Graph graph = new Graph(compiler);
+        graph.apply(circuit);
+        CSE.FindCSE find = new CSE.FindCSE(compiler, graph.graph, new HashMap<>());
+        long start = System.nanoTime();
+        find.apply(circuit);
+        long end = System.nanoTime();
+        Logger.INSTANCE.belowLevel(this, 1)
+                .append("CSE on ")
+                .append(views)
+                .append(" views: ")
+                .append(find.comparisons)
+                .append(" comparisons, ")
+                .append((end - start) / 1000)
+                .append(" microseconds")
+                .newline();
+        return find.comparisons;
+    }
+
+    @Test
+    public void testCSEScaling() {
+        // With hashing the number of comparisons is not quadratic in the fanout
+        for (int views: new int[] { 100, 200, 400, 800 }) {
+            int comparisons = this.cseComparisons(views);
+            Assert.assertTrue(comparisons <= views);
+        }
+    }
+
     @Test
     public void testRemove() {
         DBSPCompiler compiler = this.testCompiler();
@@ -869,6 +869,25 @@ public class EndToEndTests extends BaseSQLTests {
         );
     }
 
+    @Test
+    public void inListTest() {
+        // Large IN lists are compiled into set membership tests
+        String query = """
+                SELECT COL1 IN (1, 2, 3, 4, 5, 6, 7, 8, 9, 10),
+                       COL5 IN (1, 2, 3, 4, 5, 6, 7, 8, 9, 10),
+                       COL4 NOT IN ('a', 'b', 'c', 'd', 'e', 'f', 'g', 'h', 'i', 'Hi')
+                FROM T""";
+        this.testQuery(query, new DBSPZSetLiteral(
+                new DBSPTupleExpression(
+                        new DBSPBoolLiteral(true),
+                        DBSPLiteral.none(new DBSPTypeBool(CalciteObject.EMPTY, true)),
+                        new DBSPBoolLiteral(false)),
+                new DBSPTupleExpression(
+                        new DBSPBoolLiteral(true),
+                        new DBSPBoolLiteral(true, true),
+                        new DBSPBoolLiteral(false))));
+    }
+
     @Test
     public void constAggregateExpression2() {
         String query = "SELECT 34 / AVG (1) FROM T GROUP BY COL1";
@@ -1007,4 +1026,22 @@ public class EndToEndTests extends BaseSQLTests {
                 new DBSPVecLiteral(e1, e0)
         ));
     }
+
+    @Test
+    public void orderbyNullsDuplicatesTest() {
+        // The leading sort column contains NULLs and duplicate values,
+        // and one row appears twice.
+        DBSPTupleExpression e2 = new DBSPTupleExpression(
+                new DBSPI32Literal(20),
+                new DBSPDoubleLiteral(5.0),
+                new DBSPBoolLiteral(true),
+                new DBSPStringLiteral("There"),
+                new DBSPI32Literal(1, true),
+                new DBSPDoubleLiteral(1.0, true)
+        );
+        String query = "SELECT * FROM T ORDER BY T.COL5, T.COL2";
+        Change input = new Change(new DBSPZSetLiteral(e2, e0, e1, e0));
+        this.testQueryBase(query, new InputOutputChange(input, new Change(new DBSPZSetLiteral(
+                new DBSPVecLiteral(e0, e0, e1, e2)))).toStream());
+    }
 }
@@ -1,6 +1,7 @@
 package org.dbsp.sqlCompiler.compiler.sql.simple;
 
 import org.dbsp.sqlCompiler.circuit.DBSPCircuit;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPFlatMapIndexOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPMapIndexOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPPartitionedRollingAggregateWithWaterlineOperator;
 import org.dbsp.sqlCompiler.compiler.DBSPCompiler;
@@ -121,6 +122,12 @@ public class RegresssionTests extends SqlIoTest {
                 this.mapIndex++;
             }
 
+            @Override
+            public void postorder(DBSPFlatMapIndexOperator operator) {
+                // Filters followed by indexing are fused
+                this.mapIndex++;
+            }
+
             @Override
             public void endVisit() {
                 // We expect 9 MapIndex operators instead of 11 if CSE works
@@ -318,6 +318,45 @@ public class StreamingTests extends StreamingTest {
         this.addRustTestCase("latenessTest", ccs);
     }
 
+    @Test
+    public void twoWatermarksTest() {
+        String ddl = """
+                CREATE TABLE series (
+                        x INT,
+                        a TIMESTAMP NOT NULL WATERMARK INTERVAL '1' HOUR,
+                        b TIMESTAMP NOT NULL WATERMARK INTERVAL '1' HOUR
+                )""";
+        String query = "CREATE VIEW V AS SELECT x FROM series";
+        DBSPCompiler compiler = testCompiler();
+        compiler.compileStatement(ddl);
+        compiler.compileStatement(query);
+        CompilerCircuitStream ccs = new CompilerCircuitStream(compiler);
+        // Waterlines are (09:00, 09:00)
+        ccs.step("INSERT INTO series VALUES(1, '2024-01-01 10:00:00', '2024-01-01 10:00:00');",
+                """
+                         x | weight
+                        ------------""");
+        // Waterlines are (09:00, 11:00); row 2 is below only the first one
+        ccs.step("INSERT INTO series VALUES(2, '2024-01-01 08:00:00', '2024-01-01 12:00:00');",
+                """
+                         x | weight
+                        ------------""");
+        // Waterlines are (12:00, 11:00); the second one does not move back
+        ccs.step("INSERT INTO series VALUES(3, '2024-01-01 13:00:00', '2024-01-01 08:00:00');",
+                """
+                         x | weight
+                        ------------
+                         1 | 1""");
+        // Waterlines are (13:30, 13:30)
+        ccs.step("INSERT INTO series VALUES(4, '2024-01-01 14:30:00', '2024-01-01 14:30:00');",
+                """
+                         x | weight
+                        ------------
+                         2 | 1
+                         3 | 1""");
+        this.addRustTestCase("twoWatermarksTest", ccs);
+    }
+
     @Test
     public void latenessTest() {
         String ddl = """
@@ -648,6 +687,168 @@ public class StreamingTests extends StreamingTest {
         visitor.apply(ccs.circuit);
     }
 
+    /** Check that the circuit has the expected number of DBSPIntegrateTraceRetainKeysOperators */
+    void checkRetainKeys(CompilerCircuitStream ccs, int expected) {
+        CircuitVisitor visitor = new CircuitVisitor(new StderrErrorReporter()) {
+            int count = 0;
+
+            @Override
+            public void postorder(DBSPIntegrateTraceRetainKeysOperator operator) {
+                this.count++;
+            }
+
+            @Override
+            public void endVisit() {
+                Assert.assertEquals(expected, this.count);
+            }
+        };
+        visitor.apply(ccs.circuit);
+    }
+
+    @Test
+    public void testDistinctGC() {
+        String script = """
+            CREATE TABLE series (
+                    metadata VARCHAR NOT NULL,
+                    event_time TIMESTAMP NOT NULL LATENESS INTERVAL '1:00' HOURS TO MINUTES
+            );
+
+            CREATE VIEW V AS
+            SELECT DISTINCT metadata, CAST(event_time AS DATE) FROM series;
+            """;
+        DBSPCompiler compiler = testCompiler();
+        compiler.compileStatements(script);
+        CompilerCircuitStream ccs = new CompilerCircuitStream(compiler);
+        ccs.step("INSERT INTO series VALUES('a', '2024-01-01 10:00:00'), ('a', '2024-01-01 11:00:00')",
+                """
+                 metadata | date       | weight
+                ---------------------------------
+                 a|         2024-01-01 | 1""");
+        // Advances the waterline to 2024-01-02 09:00:00
+        ccs.step("INSERT INTO series VALUES('b', '2024-01-02 10:00:00')",
+                """
+                 metadata | date       | weight
+                ---------------------------------
+                 b|         2024-01-02 | 1""");
+        // Before the waterline, dropped
+        ccs.step("INSERT INTO series VALUES('c', '2024-01-01 12:00:00')",
+                """
+                 metadata | date       | weight
+                ---------------------------------""");
+        // After the waterline; the first row is a duplicate
+        ccs.step("INSERT INTO series VALUES('b', '2024-01-02 09:30:00'), ('d', '2024-01-02 09:30:00')",
+                """
+                 metadata | date       | weight
+                ---------------------------------
+                 d|         2024-01-02 | 1""");
+        this.addRustTestCase("testDistinctGC", ccs);
+        this.checkRetainKeys(ccs, 1);
+    }
+
+    @Test
+    public void testTopKGC() {
+        String script = """
+            CREATE TABLE series (
+                    metadata VARCHAR NOT NULL,
+                    event_time TIMESTAMP NOT NULL LATENESS INTERVAL '1:00' HOURS TO MINUTES
+            );
+
+            CREATE VIEW V AS
+            SELECT * FROM (
+                SELECT metadata, event_time, ROW_NUMBER() OVER (
+                    PARTITION BY event_time ORDER BY metadata) AS rn
+                FROM series)
+            WHERE rn <= 2;
+            """;
+        DBSPCompiler compiler = testCompiler();
+        compiler.compileStatements(script);
+        CompilerCircuitStream ccs = new CompilerCircuitStream(compiler);
+        ccs.step("INSERT INTO series VALUES('c', '2024-01-01 10:00:00'), ('b', '2024-01-01 10:00:00')",
+                """
+                 metadata | event_time          | rn | weight
+                ------------------------------------------------
+                 b|         2024-01-01 10:00:00 | 1  | 1
+                 c|         2024-01-01 10:00:00 | 2  | 1""");
+        ccs.step("INSERT INTO series VALUES('a', '2024-01-01 10:00:00')",
+                """
+                 metadata | event_time          | rn | weight
+                ------------------------------------------------
+                 a|         2024-01-01 10:00:00 | 1  | 1
+                 b|         2024-01-01 10:00:00 | 1  | -1
+                 b|         2024-01-01 10:00:00 | 2  | 1
+                 c|         2024-01-01 10:00:00 | 2  | -1""");
+        // Advances the waterline to 2024-01-01 11:00:00
+        ccs.step("INSERT INTO series VALUES('d', '2024-01-01 12:00:00')",
+                """
+                 metadata | event_time          | rn | weight
+                ------------------------------------------------
+                 d|         2024-01-01 12:00:00 | 1  | 1""");
+        // Before the waterline, dropped
+        ccs.step("INSERT INTO series VALUES('a', '2024-01-01 10:30:00')",
+                """
+                 metadata | event_time          | rn | weight
+                ------------------------------------------------""");
+        ccs.step("INSERT INTO series VALUES('c', '2024-01-01 12:00:00'), ('e', '2024-01-01 12:00:00')",
+                """
+                 metadata | event_time          | rn | weight
+                ------------------------------------------------
+                 c|         2024-01-01 12:00:00 | 1  | 1
+                 d|         2024-01-01 12:00:00 | 1  | -1
+                 d|         2024-01-01 12:00:00 | 2  | 1""");
+        this.addRustTestCase("testTopKGC", ccs);
+        this.checkRetainKeys(ccs, 1);
+    }
+
+    @Test
+    public void testLagGC() {
+        String script = """
+            CREATE TABLE series (
+                    metadata INT NOT NULL,
+                    event_time TIMESTAMP NOT NULL LATENESS INTERVAL '1:00' HOURS TO MINUTES
+            );
+
+            CREATE VIEW V AS
+            SELECT metadata, LAG(metadata) OVER (
+                PARTITION BY event_time ORDER BY metadata) FROM series;
+            """;
+        DBSPCompiler compiler = testCompiler();
+        compiler.compileStatements(script);
+        CompilerCircuitStream ccs = new CompilerCircuitStream(compiler);
+        ccs.step("INSERT INTO series VALUES(1, '2024-01-01 10:00:00'), (3, '2024-01-01 10:00:00')",
+                """
+                 metadata | lag | weight
+                -------------------------
+                 1        |     | 1
+                 3        | 1   | 1""");
+        ccs.step("INSERT INTO series VALUES(2, '2024-01-01 10:00:00')",
+                """
+                 metadata | lag | weight
+                -------------------------
+                 2        | 1   | 1
+                 3        | 1   | -1
+                 3        | 2   | 1""");
+        // Advances the waterline to 2024-01-01 11:00:00
+        ccs.step("INSERT INTO series VALUES(5, '2024-01-01 12:00:00')",
+                """
+                 metadata | lag | weight
+                -------------------------
+                 5        |     | 1""");
+        // Before the waterline, dropped
+        ccs.step("INSERT INTO series VALUES(0, '2024-01-01 10:00:00')",
+                """
+                 metadata | lag | weight
+                -------------------------""");
+        ccs.step("INSERT INTO series VALUES(4, '2024-01-01 12:00:00')",
+                """
+                 metadata | lag | weight
+                -------------------------
+                 4        |     | 1
+                 5        |     | -1
+                 5        | 4   | 1""");
+        this.addRustTestCase("testLagGC", ccs);
+        this.checkRetainKeys(ccs, 1);
+    }
+
     @Test
     public void testAggregate() {
         String sql = """
@@ -725,4 +926,110 @@ public class StreamingTests extends StreamingTest {
         CompilerCircuitStream ccs = new CompilerCircuitStream(compiler);
         this.addRustTestCase("testHopWindows", ccs);
     }
+
+    @Test
+    public void testSemiJoinSteps() {
+        String tables = """
+                CREATE TABLE S(x INT, y INT);
+                CREATE TABLE R(x INT, z INT);
+                """;
+        String[] queries = new String[] {
+                "SELECT * FROM S WHERE x IN (SELECT x FROM R)",
+                "SELECT * FROM S WHERE NOT EXISTS (SELECT 1 FROM R WHERE R.x = S.x)"
+        };
+        for (int i = 0; i < queries.length; i++) {
+            boolean semi = i == 0;
+            DBSPCompiler compiler = this.testCompiler();
+            compiler.compileStatements(tables + "CREATE VIEW V AS " + queries[i] + ";");
+            CompilerCircuitStream ccs = new CompilerCircuitStream(compiler);
+            ccs.step("""
+                    INSERT INTO S VALUES(1, 10), (1, 10), (2, 20), (NULL, 30);
+                    INSERT INTO R VALUES(2, 200), (NULL, 300);""",
+                    semi ? """
+                     x | y  | weight
+                    -----------------
+                     2 | 20 | 1""" : """
+                     x | y  | weight
+                    -----------------
+                     1 | 10 | 2
+                       | 30 | 1""");
+            ccs.step("INSERT INTO R VALUES(1, 100), (1, 101);",
+                    semi ? """
+                     x | y  | weight
+                    -----------------
+                     1 | 10 | 2""" : """
+                     x | y  | weight
+                    -----------------
+                     1 | 10 | -2""");
+            // Key 1 still has a match
+            ccs.step("REMOVE FROM R VALUES(1, 100);",
+                    """
+                     x | y  | weight
+                    -----------------""");
+            ccs.step("""
+                    REMOVE FROM R VALUES(1, 101);
+                    REMOVE FROM S VALUES(2, 20);""",
+                    semi ? """
+                     x | y  | weight
+                    -----------------
+                     1 | 10 | -2
+                     2 | 20 | -1""" : """
+                     x | y  | weight
+                    -----------------
+                     1 | 10 | 2""");
+            this.addRustTestCase("testSemiJoinSteps" + i, ccs);
+        }
+    }
+
+    @Test
+    public void testOuterJoinSteps() {
+        DBSPCompiler compiler = this.testCompiler();
+        compiler.compileStatements("""
+                CREATE TABLE L(id INT, a INT);
+                CREATE TABLE R(id INT, x INT);
+                CREATE VIEW V AS SELECT L.a, R.x FROM L FULL OUTER JOIN R ON L.id = R.id;""");
+        CompilerCircuitStream ccs = new CompilerCircuitStream(compiler);
+        ccs.step("""
+                INSERT INTO L VALUES(1, 10), (1, 10), (2, 20), (NULL, 30);
+                INSERT INTO R VALUES(3, 300), (NULL, 400);""",
+                """
+                 a  | x   | weight
+                -------------------
+                 10 |     | 2
+                 20 |     | 1
+                 30 |     | 1
+                    | 300 | 1
+                    | 400 | 1""");
+        ccs.step("INSERT INTO R VALUES(1, 100);",
+                """
+                 a  | x   | weight
+                -------------------
+                 10 | 100 | 2
+                 10 |     | -2""");
+        // Key 1 already has a match
+        ccs.step("""
+                INSERT INTO R VALUES(1, 101);
+                INSERT INTO L VALUES(3, 50);""",
+                """
+                 a  | x   | weight
+                -------------------
+                 10 | 101 | 2
+                 50 | 300 | 1
+                    | 300 | -1""");
+        ccs.step("REMOVE FROM R VALUES(1, 100), (1, 101);",
+                """
+                 a  | x   | weight
+                -------------------
+                 10 | 100 | -2
+                 10 | 101 | -2
+                 10 |     | 2""");
+        ccs.step("REMOVE FROM L VALUES(3, 50), (2, 20);",
+                """
+                 a  | x   | weight
+                -------------------
+                 50 | 300 | -1
+                    | 300 | 1
+                 20 |     | -1""");
+        this.addRustTestCase("testOuterJoinSteps", ccs);
+    }
 }
@@ -0,0 +1,44 @@
+//! Compares filtering rows with RLIKE when the regular expression is compiled
+//! for every row (`rlike__`) and when it is compiled once (`rlike_regex__`),
+//! which is the code generated when the pattern is a constant.
+
+use criterion::{black_box, criterion_group, criterion_main, BenchmarkId, Criterion};
+use sqllib::string::{compile_regex, rlike__, rlike_regex__};
+
+const PATTERN: &str = "^a+b*[0-9]{2,}$";
+
+fn rows(count: usize) -> Vec<String> {
+    (0..count)
+        .map(|i| match i % 3 {
+            0 => format!("aab{}", i),
+            1 => format!("b{}", i),
+            _ => format!("a{}", i % 10),
+        })
+        .collect()
+}
+
+fn regex_filter(c: &mut Criterion) {
+    let mut group = c.benchmark_group("rlike_filter");
+    for count in [1_000, 10_000] {
+        let data = rows(count);
+        group.bench_with_input(BenchmarkId::new("compile_per_row", count), &data, |b, data| {
+            b.iter(|| {
+                data.iter()
+                    .filter(|row| rlike__((*row).clone(), PATTERN.to_string()))
+                    .count()
+            })
+        });
+        group.bench_with_input(BenchmarkId::new("compiled_once", count), &data, |b, data| {
+            let re = compile_regex(PATTERN.to_string());
+            b.iter(|| {
+                data.iter()
+                    .filter(|row| rlike_regex__((*row).clone(), black_box(&re)))
+                    .count()
+            })
+        });
+    }
+    group.finish();
+}
+
+criterion_group!(benches, regex_filter);
+criterion_main!(benches);
@@ -40,6 +40,7 @@ use std::fmt::Debug;
 use std::marker::PhantomData;
 use std::ops::{Add, Deref, Neg};
 use std::str::FromStr;
+use std::sync::OnceLock;
 
 /// Convert a value of a SQL data type to an integer
 /// that preserves ordering.  Used for partitioned_rolling_aggregates
@@ -87,6 +88,32 @@ where
     fn to_bound(&self) -> T;
 }
 
+/// A static value which is computed on first access.
+/// The compiler moves constant expressions out of the closures
+/// into statics of this type, so they are not evaluated for every row.
+/// Equivalent to `std::sync::LazyLock`, which is not yet stable.
+pub struct StaticLazy<T> {
+    cell: OnceLock<T>,
+    init: fn() -> T,
+}
+
+impl<T> StaticLazy<T> {
+    pub const fn new(init: fn() -> T) -> Self {
+        Self {
+            cell: OnceLock::new(),
+            init,
+        }
+    }
+}
+
+impl<T> Deref for StaticLazy<T> {
+    type Target = T;
+
+    fn deref(&self) -> &T {
+        self.cell.get_or_init(self.init)
+    }
+}
+
 pub type Weight = i64; // Default weight type
 pub type WSet<D> = OrdZSet<D>;
 pub type IndexedWSet<K, D> = OrdIndexedZSet<K, D>;
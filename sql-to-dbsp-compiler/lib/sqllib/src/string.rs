@@ -77,6 +77,23 @@ pub fn rlike__(value: String, pattern: String) -> bool {
 
 some_function2!(rlike, String, String, bool);
 
+/// A regular expression compiled once, used for RLIKE
+/// with a constant pattern; None if the pattern is illegal.
+pub type CompiledRegex = Option<Regex>;
+
+pub fn compile_regex(pattern: String) -> CompiledRegex {
+    Regex::new(&pattern).ok()
+}
+
+pub fn rlike_regex__(value: String, re: &CompiledRegex) -> bool {
+    re.as_ref().map_or(false, |re| re.is_match(&value))
+}
+
+pub fn rlike_regexN_(value: Option<String>, re: &CompiledRegex) -> Option<bool> {
+    let value = value?;
+    Some(rlike_regex__(value, re))
+}
+
 pub fn like3___(value: String, pattern: String, escape: String) -> bool {
     let escaped = pattern.as_str().escape(escape.as_str()).unwrap();
     Like::<true>::like(value.as_str(), escaped.as_str()).unwrap()
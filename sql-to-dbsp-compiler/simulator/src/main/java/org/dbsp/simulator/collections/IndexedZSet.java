@@ -5,8 +5,11 @@ import org.dbsp.simulator.types.WeightType;
 import org.dbsp.simulator.util.IIndentStream;
 import org.dbsp.simulator.util.ToIndentableString;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.function.BiFunction;
 
 public class IndexedZSet<Key, Value, Weight> extends BaseCollection<Weight> implements ToIndentableString {
@@ -30,21 +33,73 @@ public class IndexedZSet<Key, Value, Weight> extends BaseCollection<Weight> impl
             this.index.remove(key);
     }
 
+    /** Add all the data of the other indexed Z-set to this one, in place. */
+    public IndexedZSet<Key, Value, Weight> append(IndexedZSet<Key, Value, Weight> other) {
+        for (Map.Entry<Key, ZSet<Value, Weight>> entry: other.index.entrySet())
+            this.append(entry.getKey(), entry.getValue());
+        return this;
+    }
+
+    /** Add a Z-set to the group with the specified key, in place. */
+    void append(Key key, ZSet<Value, Weight> data) {
+        ZSet<Value, Weight> zset = this.index.get(key);
+        if (zset == null) {
+            zset = new ZSet<>(this.weightType);
+            this.index.put(key, zset);
+        }
+        zset.append(data);
+        if (zset.isEmpty())
+            this.index.remove(key);
+    }
+
+    /** Append the join of this indexed Z-set with the other one to the result.
+     * Only the keys of the smaller collection are enumerated, so joining a small
+     * delta with a large trace is proportional to the size of the delta. */
+    public <Result, OtherValue> IndexedZSet<Key, Result, Weight> joinInto(
+            IndexedZSet<Key, OtherValue, Weight> other,
+            BiFunction<Value, OtherValue, Result> combiner,
+            IndexedZSet<Key, Result, Weight> result) {
+        boolean thisSmaller = this.index.size() <= other.index.size();
+        Set<Key> keys = thisSmaller ? this.index.keySet() : other.index.keySet();
+        for (Key key: keys) {
+            ZSet<Value, Weight> left = this.index.get(key);
+            ZSet<OtherValue, Weight> right = other.index.get(key);
+            if (left == null || right == null)
+                continue;
+            ZSet<Result, Weight> product = left.multiply(right, combiner);
+            result.append(key, product);
+        }
+        return result;
+    }
+
     public <Result, OtherValue> IndexedZSet<Key, Result, Weight> join(
             IndexedZSet<Key, OtherValue, Weight> other,
             BiFunction<Value, OtherValue, Result> combiner) {
-        IndexedZSet<Key, Result, Weight> result = new IndexedZSet<>(this.weightType);
-        for (Key key: this.index.keySet()) {
-            if (other.index.containsKey(key)) {
-                ZSet<Value, Weight> left = this.index.get(key);
-                ZSet<OtherValue, Weight> right = other.index.get(key);
-                ZSet<Result, Weight> product = left.multiply(right, combiner);
-                result.index.put(key, product);
-            }
+        return this.joinInto(other, combiner, new IndexedZSet<>(this.weightType));
+    }
+
+    /** Hash-partition the groups by key into the specified number of indexed Z-sets.
+     * All data with the same key ends up in the same partition. */
+    public List<IndexedZSet<Key, Value, Weight>> partition(int count) {
+        List<IndexedZSet<Key, Value, Weight>> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+            result.add(new IndexedZSet<>(this.weightType));
+        for (Map.Entry<Key, ZSet<Value, Weight>> entry: this.index.entrySet()) {
+            int shard = Math.floorMod(entry.getKey().hashCode(), count);
+            result.get(shard).index.put(entry.getKey(), new ZSet<>(entry.getValue().data, this.weightType));
         }
         return result;
     }
 
+    /** Sum of a list of indexed Z-sets.  The first one is modified in place. */
+    public static <Key, Value, Weight> IndexedZSet<Key, Value, Weight> merge(
+            List<IndexedZSet<Key, Value, Weight>> sets) {
+        IndexedZSet<Key, Value, Weight> result = sets.get(0);
+        for (int i = 1; i < sets.size(); i++)
+            result.append(sets.get(i));
+        return result;
+    }
+
     public <Result, IntermediateResult> IndexedZSet<Key, Result, Weight>
     aggregate(AggregateDescription<Result, IntermediateResult, Value, Weight> aggregate) {
         IndexedZSet<Key, Result, Weight> result = new IndexedZSet<>(this.weightType);
@@ -74,6 +129,10 @@ public class IndexedZSet<Key, Value, Weight> extends BaseCollection<Weight> impl
         return this.index.size();
     }
 
+    public boolean isEmpty() {
+        return this.index.isEmpty();
+    }
+
     public IIndentStream toString(IIndentStream stream) {
         stream.append("{").increase();
         boolean first = true;
@@ -0,0 +1,329 @@
+package org.dbsp.simulator.collections;
+
+import org.dbsp.simulator.types.LongWeight;
+import org.dbsp.simulator.util.IIndentStream;
+import org.dbsp.simulator.util.ToIndentableString;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.ObjLongConsumer;
+import java.util.function.Predicate;
+
+/** A Z-set with weights represented as primitive longs.
+ * Data is stored in an open-addressing hash table with linear probing,
+ * using parallel arrays for keys and weights, so appending does not allocate.
+ * Unlike {@link ZSet}, operators can append their results into an
+ * existing Z-set using the "Into" methods instead of copying.
+ * The filter, select and index operators accept a LongZSet input
+ * and then produce collections with long weights.
+ * Throws on weight overflow. */
+public class LongZSet<Data> extends BaseCollection<Long> implements ToIndentableString {
+    static final int MIN_CAPACITY = 16;
+
+    /** Keys; null marks an empty slot. */
+    Object[] keys;
+    /** Weights; invariant: non-zero for every occupied slot. */
+    long[] weights;
+    /** Number of occupied slots. */
+    int size;
+
+    /** Create an empty Z-set which can hold the specified number of entries without resizing. */
+    public LongZSet(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity / 2 < expectedSize)
+            capacity *= 2;
+        this.keys = new Object[capacity];
+        this.weights = new long[capacity];
+        this.size = 0;
+    }
+
+    /** Create an empty Z-set */
+    public LongZSet() {
+        this(0);
+    }
+
+    /** Create a Z-set with the same contents as the specified Z-set. */
+    public LongZSet(LongZSet<Data> other) {
+        this.keys = Arrays.copyOf(other.keys, other.keys.length);
+        this.weights = Arrays.copyOf(other.weights, other.weights.length);
+        this.size = other.size;
+    }
+
+    public static <Data> LongZSet<Data> zero() {
+        return new LongZSet<>();
+    }
+
+    int mask() {
+        return this.keys.length - 1;
+    }
+
+    int slot(Object key) {
+        int hash = key.hashCode();
+        // Spread the high bits, since the table size is a power of 2
+        return (hash ^ (hash >>> 16)) & this.mask();
+    }
+
+    /** Index of the slot containing the key, or of the empty slot where it should be inserted. */
+    int find(Object key) {
+        int index = this.slot(key);
+        while (true) {
+            Object existing = this.keys[index];
+            if (existing == null || existing.equals(key))
+                return index;
+            index = (index + 1) & this.mask();
+        }
+    }
+
+    void resize(int capacity) {
+        Object[] oldKeys = this.keys;
+        long[] oldWeights = this.weights;
+        this.keys = new Object[capacity];
+        this.weights = new long[capacity];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                int index = this.find(oldKeys[i]);
+                this.keys[index] = oldKeys[i];
+                this.weights[index] = oldWeights[i];
+            }
+        }
+    }
+
+    /** Remove the key in the specified slot, shifting back the following
+     * entries of the same probe sequence, so no tombstones are needed. */
+    void removeSlot(int index) {
+        int mask = this.mask();
+        int hole = index;
+        int next = (hole + 1) & mask;
+        while (this.keys[next] != null) {
+            int home = this.slot(this.keys[next]);
+            // Move the entry to the hole if the hole is between its home slot and its current position
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                this.keys[hole] = this.keys[next];
+                this.weights[hole] = this.weights[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        this.keys[hole] = null;
+        this.weights[hole] = 0;
+        this.size--;
+    }
+
+    public long getWeight(Data data) {
+        int index = this.find(Objects.requireNonNull(data));
+        if (this.keys[index] == null)
+            return 0;
+        return this.weights[index];
+    }
+
+    public int entryCount() {
+        return this.size;
+    }
+
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    /** Add the specified weight to the data, in place. */
+    public LongZSet<Data> append(Data data, long weight) {
+        if (weight == 0)
+            return this;
+        int index = this.find(Objects.requireNonNull(data));
+        if (this.keys[index] == null) {
+            this.keys[index] = data;
+            this.weights[index] = weight;
+            this.size++;
+            // Keep the load factor at most 1/2
+            if (this.size * 2 > this.keys.length)
+                this.resize(this.keys.length * 2);
+        } else {
+            long w = Math.addExact(this.weights[index], weight);
+            if (w == 0)
+                this.removeSlot(index);
+            else
+                this.weights[index] = w;
+        }
+        return this;
+    }
+
+    public LongZSet<Data> append(Data data) {
+        return this.append(data, 1);
+    }
+
+    /** Add the other Z-set multiplied by scale to this one, in place. */
+    public LongZSet<Data> append(LongZSet<Data> other, long scale) {
+        if (other == this)
+            other = new LongZSet<>(this);
+        for (int i = 0; i < other.keys.length; i++) {
+            if (other.keys[i] != null) {
+                @SuppressWarnings("unchecked")
+                Data key = (Data) other.keys[i];
+                this.append(key, Math.multiplyExact(other.weights[i], scale));
+            }
+        }
+        return this;
+    }
+
+    public LongZSet<Data> append(LongZSet<Data> other) {
+        return this.append(other, 1);
+    }
+
+    /** Invoke the consumer for each entry of the Z-set. */
+    public void forEach(ObjLongConsumer<Data> consumer) {
+        for (int i = 0; i < this.keys.length; i++) {
+            if (this.keys[i] != null) {
+                @SuppressWarnings("unchecked")
+                Data key = (Data) this.keys[i];
+                consumer.accept(key, this.weights[i]);
+            }
+        }
+    }
+
+    public LongZSet<Data> add(LongZSet<Data> other) {
+        return new LongZSet<>(this).append(other);
+    }
+
+    public LongZSet<Data> subtract(LongZSet<Data> other) {
+        return new LongZSet<>(this).append(other, -1);
+    }
+
+    public LongZSet<Data> negate() {
+        LongZSet<Data> result = new LongZSet<>(this);
+        for (int i = 0; i < result.weights.length; i++)
+            result.weights[i] = Math.negateExact(result.weights[i]);
+        return result;
+    }
+
+    /** Append the transformed entries of this Z-set to the destination. */
+    public <OData> LongZSet<OData> mapInto(Function<Data, OData> tupleTransform, LongZSet<OData> destination) {
+        this.forEach((d, w) -> destination.append(tupleTransform.apply(d), w));
+        return destination;
+    }
+
+    public <OData> LongZSet<OData> map(Function<Data, OData> tupleTransform) {
+        return this.mapInto(tupleTransform, new LongZSet<>(this.size));
+    }
+
+    /** Append the entries of this Z-set that satisfy the predicate to the destination. */
+    public LongZSet<Data> filterInto(Predicate<Data> keep, LongZSet<Data> destination) {
+        this.forEach((d, w) -> {
+            if (keep.test(d))
+                destination.append(d, w);
+        });
+        return destination;
+    }
+
+    public LongZSet<Data> filter(Predicate<Data> keep) {
+        return this.filterInto(keep, new LongZSet<>());
+    }
+
+    public LongZSet<Data> positive(boolean set) {
+        LongZSet<Data> result = new LongZSet<>(this.size);
+        this.forEach((d, w) -> {
+            if (w > 0)
+                result.append(d, set ? 1 : w);
+        });
+        return result;
+    }
+
+    public LongZSet<Data> distinct() {
+        return this.positive(true);
+    }
+
+    /** Append the Cartesian product of the two Z-sets to the destination. */
+    public <OtherData, Result> LongZSet<Result> multiplyInto(
+            LongZSet<OtherData> other,
+            BiFunction<Data, OtherData, Result> combiner,
+            LongZSet<Result> destination) {
+        this.forEach((d, w) -> other.forEach(
+                (od, ow) -> destination.append(combiner.apply(d, od), Math.multiplyExact(w, ow))));
+        return destination;
+    }
+
+    public <OtherData, Result> LongZSet<Result> multiply(
+            LongZSet<OtherData> other,
+            BiFunction<Data, OtherData, Result> combiner) {
+        return this.multiplyInto(other, combiner, new LongZSet<>());
+    }
+
+    public <Key> IndexedZSet<Key, Data, Long> index(Function<Data, Key> key) {
+        IndexedZSet<Key, Data, Long> result = new IndexedZSet<>(LongWeight.INSTANCE);
+        this.forEach((d, w) -> result.append(key.apply(d), d, w));
+        return result;
+    }
+
+    /** Hash-partition the data into the specified number of Z-sets. */
+    public List<LongZSet<Data>> partition(int count) {
+        List<LongZSet<Data>> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+            result.add(new LongZSet<>(this.size / count));
+        this.forEach((d, w) -> result.get(Math.floorMod(d.hashCode(), count)).append(d, w));
+        return result;
+    }
+
+    /** Sum of a list of Z-sets.  The first Z-set is modified in place. */
+    public static <Data> LongZSet<Data> merge(List<LongZSet<Data>> sets) {
+        LongZSet<Data> result = sets.get(0);
+        for (int i = 1; i < sets.size(); i++)
+            result.append(sets.get(i));
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof LongZSet<?> other))
+            return false;
+        if (this.size != other.size)
+            return false;
+        for (int i = 0; i < this.keys.length; i++) {
+            if (this.keys[i] != null) {
+                int index = other.find(this.keys[i]);
+                if (other.keys[index] == null || other.weights[index] != this.weights[i])
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /** Does not depend on the order of the entries in the table. */
+    @Override
+    public int hashCode() {
+        int result = 0;
+        for (int i = 0; i < this.keys.length; i++) {
+            if (this.keys[i] != null)
+                result += this.keys[i].hashCode() ^ Long.hashCode(this.weights[i]);
+        }
+        return result;
+    }
+
+    /** Convert to a {@link ZSet} with boxed weights. */
+    public ZSet<Data, Long> toZSet() {
+        ZSet<Data, Long> result = new ZSet<>(LongWeight.INSTANCE);
+        this.forEach(result::append);
+        return result;
+    }
+
+    public IIndentStream toString(IIndentStream stream) {
+        stream.append("{").increase();
+        boolean first = true;
+        for (int i = 0; i < this.keys.length; i++) {
+            if (this.keys[i] == null)
+                continue;
+            if (!first)
+                stream.append(",").newline();
+            first = false;
+            stream.append(this.keys[i].toString())
+                    .append(" => ")
+                    .append(this.weights[i]);
+        }
+        return stream.decrease()
+                .newline()
+                .append("}");
+    }
+}
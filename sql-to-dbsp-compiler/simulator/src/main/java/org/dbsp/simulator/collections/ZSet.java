@@ -168,6 +168,26 @@ public class ZSet<Data, Weight> extends BaseCollection<Weight> implements ToInde
         return result;
     }
 
+    /** Hash-partition the data into the specified number of Z-sets. */
+    public List<ZSet<Data, Weight>> partition(int count) {
+        List<ZSet<Data, Weight>> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+            result.add(new ZSet<>(this.weightType));
+        for (Map.Entry<Data, Weight> entry: this.data.entrySet()) {
+            int shard = Math.floorMod(entry.getKey().hashCode(), count);
+            result.get(shard).data.put(entry.getKey(), entry.getValue());
+        }
+        return result;
+    }
+
+    /** Sum of a list of Z-sets.  The first Z-set is modified in place. */
+    public static <Data, Weight> ZSet<Data, Weight> merge(List<ZSet<Data, Weight>> sets) {
+        ZSet<Data, Weight> result = sets.get(0);
+        for (int i = 1; i < sets.size(); i++)
+            result.append(sets.get(i));
+        return result;
+    }
+
     /** Returns a collection of all data items.
      * If an item has a negative weight, this throws an exception.
      * If an item has a larger weight, multiple copies are emitted. */
@@ -12,18 +12,33 @@ public abstract class BaseOperator<Weight> {
     final BaseOperator<Weight>[] inputs;
     @Nullable
     BaseCollection<Weight> nextOutput;
+    /** Workers used to execute the step. */
+    Workers workers;
 
     @SafeVarargs
     protected BaseOperator(WeightType<Weight> weightType, BaseOperator<Weight>... inputs) {
         this.weightType = weightType;
         this.inputs = inputs;
         this.nextOutput = null;
+        this.workers = Workers.SINGLE;
+    }
+
+    /** Execute the steps of this operator using the specified workers. */
+    public void setWorkers(Workers workers) {
+        this.workers = workers;
     }
 
     /** Execute one computation step: gather data from the inputs,
      * and compute the current output. */
     public abstract void step();
 
+    /** Set the output to a collection with long weights, such as a {@link LongZSet}.
+     * Only valid for operators whose weight type is {@link Long}. */
+    @SuppressWarnings("unchecked")
+    protected void setLongOutput(BaseCollection<Long> output) {
+        this.nextOutput = (BaseCollection<Weight>) (BaseCollection<?>) output;
+    }
+
     public BaseCollection<Weight> getOutput() {
         return Objects.requireNonNull(this.nextOutput);
     }
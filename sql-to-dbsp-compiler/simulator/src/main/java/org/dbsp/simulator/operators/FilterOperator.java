@@ -1,10 +1,12 @@
 package org.dbsp.simulator.operators;
 
 import org.dbsp.simulator.collections.BaseCollection;
+import org.dbsp.simulator.collections.LongZSet;
 import org.dbsp.simulator.collections.ZSet;
 import org.dbsp.simulator.types.WeightType;
 import org.dbsp.simulator.values.SqlTuple;
 
+import java.util.List;
 import java.util.function.Predicate;
 
 public class FilterOperator<Weight> extends UnaryOperator<Weight> {
@@ -18,8 +20,25 @@ public class FilterOperator<Weight> extends UnaryOperator<Weight> {
 
     @Override
     public void step() {
+        LongZSet<SqlTuple> longZSet = this.getLongZSetInput();
+        if (longZSet != null) {
+            if (this.workers.isParallel()) {
+                List<LongZSet<SqlTuple>> results = this.workers.map(
+                        longZSet.partition(this.workers.count), z -> z.filter(this.keep));
+                this.setLongOutput(LongZSet.merge(results));
+            } else {
+                this.setLongOutput(longZSet.filter(this.keep));
+            }
+            return;
+        }
         BaseCollection<Weight> input = this.getInputValue();
         ZSet<SqlTuple, Weight> inputZset = (ZSet<SqlTuple, Weight>) input;
-        this.nextOutput = inputZset.filter(this.keep);
+        if (this.workers.isParallel()) {
+            List<ZSet<SqlTuple, Weight>> results = this.workers.map(
+                    inputZset.partition(this.workers.count), z -> z.filter(this.keep));
+            this.nextOutput = ZSet.merge(results);
+        } else {
+            this.nextOutput = inputZset.filter(this.keep);
+        }
     }
 }
@@ -0,0 +1,47 @@
+package org.dbsp.simulator.operators;
+
+import org.dbsp.simulator.collections.IndexedZSet;
+import org.dbsp.simulator.types.WeightType;
+import org.dbsp.simulator.values.SqlTuple;
+
+import java.util.function.BiFunction;
+
+/** Incremental version of the {@link JoinOperator}.
+ * The inputs are changes to indexed Z-sets; the output is the change of their join.
+ * The operator keeps the integrals (traces) of both inputs across steps and
+ * computes ΔL ⋈ R + L ⋈ ΔR + ΔL ⋈ ΔR, where L and R are the traces before the step.
+ * The work done in each step is proportional to the size of the changes. */
+public class IncrementalJoinOperator<Weight> extends BaseOperator<Weight> {
+    final BiFunction<SqlTuple, SqlTuple, SqlTuple> combiner;
+    /** Integral of the left input over all previous steps. */
+    final IndexedZSet<SqlTuple, SqlTuple, Weight> leftTrace;
+    /** Integral of the right input over all previous steps. */
+    final IndexedZSet<SqlTuple, SqlTuple, Weight> rightTrace;
+
+    public IncrementalJoinOperator(BiFunction<SqlTuple, SqlTuple, SqlTuple> combiner,
+                                   WeightType<Weight> weightType,
+                                   BaseOperator<Weight> left, BaseOperator<Weight> right) {
+        super(weightType, left, right);
+        this.combiner = combiner;
+        this.leftTrace = new IndexedZSet<>(weightType);
+        this.rightTrace = new IndexedZSet<>(weightType);
+    }
+
+    @Override
+    public void step() {
+        @SuppressWarnings("unchecked")
+        IndexedZSet<SqlTuple, SqlTuple, Weight> leftDelta =
+                (IndexedZSet<SqlTuple, SqlTuple, Weight>) this.inputs[0].getOutput();
+        @SuppressWarnings("unchecked")
+        IndexedZSet<SqlTuple, SqlTuple, Weight> rightDelta =
+                (IndexedZSet<SqlTuple, SqlTuple, Weight>) this.inputs[1].getOutput();
+        IndexedZSet<SqlTuple, SqlTuple, Weight> result = new IndexedZSet<>(this.weightType);
+        // L ⋈ ΔR
+        this.leftTrace.joinInto(rightDelta, this.combiner, result);
+        // ΔL ⋈ (R + ΔR) = ΔL ⋈ R + ΔL ⋈ ΔR
+        this.rightTrace.append(rightDelta);
+        leftDelta.joinInto(this.rightTrace, this.combiner, result);
+        this.leftTrace.append(leftDelta);
+        this.nextOutput = result;
+    }
+}
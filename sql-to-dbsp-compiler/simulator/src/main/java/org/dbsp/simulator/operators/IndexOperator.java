@@ -1,10 +1,13 @@
 package org.dbsp.simulator.operators;
 
 import org.dbsp.simulator.collections.BaseCollection;
+import org.dbsp.simulator.collections.IndexedZSet;
+import org.dbsp.simulator.collections.LongZSet;
 import org.dbsp.simulator.collections.ZSet;
 import org.dbsp.simulator.types.WeightType;
 import org.dbsp.simulator.values.SqlTuple;
 
+import java.util.List;
 import java.util.function.Function;
 
 public class IndexOperator<Weight> extends UnaryOperator<Weight> {
@@ -18,8 +21,25 @@ public class IndexOperator<Weight> extends UnaryOperator<Weight> {
 
     @Override
     public void step() {
+        LongZSet<SqlTuple> longZSet = this.getLongZSetInput();
+        if (longZSet != null) {
+            if (this.workers.isParallel()) {
+                List<IndexedZSet<SqlTuple, SqlTuple, Long>> results = this.workers.map(
+                        longZSet.partition(this.workers.count), z -> z.index(this.keyFunction));
+                this.setLongOutput(IndexedZSet.merge(results));
+            } else {
+                this.setLongOutput(longZSet.index(this.keyFunction));
+            }
+            return;
+        }
         BaseCollection<Weight> input = this.getInputValue();
         ZSet<SqlTuple, Weight> zset = (ZSet<SqlTuple, Weight>) input;
-        this.nextOutput = zset.index(this.keyFunction);
+        if (this.workers.isParallel()) {
+            List<IndexedZSet<SqlTuple, SqlTuple, Weight>> results = this.workers.map(
+                    zset.partition(this.workers.count), z -> z.index(this.keyFunction));
+            this.nextOutput = IndexedZSet.merge(results);
+        } else {
+            this.nextOutput = zset.index(this.keyFunction);
+        }
     }
 }
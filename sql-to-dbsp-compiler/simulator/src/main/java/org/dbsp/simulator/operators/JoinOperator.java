@@ -5,15 +5,17 @@ import org.dbsp.simulator.collections.IndexedZSet;
 import org.dbsp.simulator.types.WeightType;
 import org.dbsp.simulator.values.SqlTuple;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.function.BiFunction;
 
 public class JoinOperator<Weight> extends BaseOperator<Weight> {
     final BiFunction<SqlTuple, SqlTuple, SqlTuple> combiner;
 
-    protected JoinOperator(BiFunction<SqlTuple, SqlTuple, SqlTuple> combiner,
-                           WeightType<Weight> weightType, BaseOperator<Weight>[] inputs) {
-        super(weightType, inputs);
-        assert inputs.length == 2;
+    public JoinOperator(BiFunction<SqlTuple, SqlTuple, SqlTuple> combiner,
+                        WeightType<Weight> weightType,
+                        BaseOperator<Weight> left, BaseOperator<Weight> right) {
+        super(weightType, left, right);
         this.combiner = combiner;
     }
 
@@ -23,6 +25,18 @@ public class JoinOperator<Weight> extends BaseOperator<Weight> {
         IndexedZSet<SqlTuple, SqlTuple, Weight> leftIndex = (IndexedZSet<SqlTuple, SqlTuple, Weight> ) left;
         BaseCollection<Weight> right = this.inputs[1].getOutput();
         IndexedZSet<SqlTuple, SqlTuple, Weight> rightIndex = (IndexedZSet<SqlTuple, SqlTuple, Weight>) right;
-        this.nextOutput = leftIndex.join(rightIndex, this.combiner);
+        if (this.workers.isParallel()) {
+            // Exchange: partition both inputs by key, so matching keys end up in the same shard
+            List<IndexedZSet<SqlTuple, SqlTuple, Weight>> leftShards = leftIndex.partition(this.workers.count);
+            List<IndexedZSet<SqlTuple, SqlTuple, Weight>> rightShards = rightIndex.partition(this.workers.count);
+            List<Integer> shards = new ArrayList<>();
+            for (int i = 0; i < this.workers.count; i++)
+                shards.add(i);
+            List<IndexedZSet<SqlTuple, SqlTuple, Weight>> results = this.workers.map(
+                    shards, i -> leftShards.get(i).join(rightShards.get(i), this.combiner));
+            this.nextOutput = IndexedZSet.merge(results);
+        } else {
+            this.nextOutput = leftIndex.join(rightIndex, this.combiner);
+        }
     }
 }
@@ -1,7 +1,11 @@
 package org.dbsp.simulator.operators;
 
 import org.dbsp.simulator.collections.BaseCollection;
+import org.dbsp.simulator.collections.LongZSet;
 import org.dbsp.simulator.types.WeightType;
+import org.dbsp.simulator.values.SqlTuple;
+
+import javax.annotation.Nullable;
 
 public abstract class UnaryOperator<Weight> extends BaseOperator<Weight> {
     UnaryOperator(WeightType<Weight> weightType, BaseOperator<Weight> input) {
@@ -15,4 +19,14 @@ public abstract class UnaryOperator<Weight> extends BaseOperator<Weight> {
     public BaseCollection<Weight> getInputValue() {
         return this.input().getOutput();
     }
+
+    /** The input value if it is a {@link LongZSet}, null otherwise. */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public LongZSet<SqlTuple> getLongZSetInput() {
+        BaseCollection<Weight> input = this.getInputValue();
+        if (!input.is(LongZSet.class))
+            return null;
+        return (LongZSet<SqlTuple>) (BaseCollection<?>) input;
+    }
 }
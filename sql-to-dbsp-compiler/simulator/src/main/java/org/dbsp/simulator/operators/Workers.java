@@ -0,0 +1,55 @@
+package org.dbsp.simulator.operators;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Function;
+
+/** A set of worker threads used to execute operator steps in parallel.
+ * Collections are hash-partitioned into one shard per worker; each
+ * worker processes one shard, and the results are merged. */
+public class Workers implements AutoCloseable {
+    /** Sequential execution in the calling thread. */
+    public static final Workers SINGLE = new Workers(1);
+
+    /** Number of shards that collections are partitioned into. */
+    public final int count;
+    /** Null when count is 1. */
+    @Nullable
+    final ForkJoinPool pool;
+
+    public Workers(int count) {
+        if (count < 1)
+            throw new IllegalArgumentException("Worker count must be positive: " + count);
+        this.count = count;
+        this.pool = count == 1 ? null : new ForkJoinPool(count);
+    }
+
+    public boolean isParallel() {
+        return this.count > 1;
+    }
+
+    /** Apply the function to each input, in parallel, and return the results in the same order. */
+    public <T, R> List<R> map(List<T> inputs, Function<T, R> function) {
+        List<R> result = new ArrayList<>(inputs.size());
+        if (this.pool == null) {
+            for (T input: inputs)
+                result.add(function.apply(input));
+            return result;
+        }
+        List<ForkJoinTask<R>> tasks = new ArrayList<>(inputs.size());
+        for (T input: inputs)
+            tasks.add(this.pool.submit(() -> function.apply(input)));
+        for (ForkJoinTask<R> task: tasks)
+            result.add(task.join());
+        return result;
+    }
+
+    @Override
+    public void close() {
+        if (this.pool != null)
+            this.pool.shutdown();
+    }
+}
@@ -16,6 +16,14 @@ public class SqlTuple {
         return this;
     }
 
+    /** A new tuple containing the values of this tuple followed by the values of the other one. */
+    public SqlTuple concat(SqlTuple other) {
+        SqlTuple result = new SqlTuple();
+        result.values.addAll(this.values);
+        result.values.addAll(other.values);
+        return result;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -0,0 +1,84 @@
+package org.dbsp.simulator;
+
+import org.dbsp.simulator.collections.ZSet;
+import org.dbsp.simulator.operators.BaseOperator;
+import org.dbsp.simulator.operators.FilterOperator;
+import org.dbsp.simulator.operators.IndexOperator;
+import org.dbsp.simulator.operators.SelectOperator;
+import org.dbsp.simulator.operators.Workers;
+import org.dbsp.simulator.types.IntegerWeight;
+import org.dbsp.simulator.values.IntegerSqlValue;
+import org.dbsp.simulator.values.SqlTuple;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/** Measures how the simulator operators scale with the number of workers.
+ * Not run by the unit tests; run the main method from the test classpath. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParallelBenchmark {
+    @Param({"1", "2", "4", "8", "16"})
+    public int workerCount;
+
+    Workers workers;
+    List<BaseOperator<Integer>> operators;
+
+    @Setup
+    public void setup() {
+        ZSet<SqlTuple, Integer> data = new ZSet<>(IntegerWeight.INSTANCE);
+        for (int i = 0; i < 1_000_000; i++)
+            data.append(new SqlTuple().add(new IntegerSqlValue(i)).add(new IntegerSqlValue(i % 1000)));
+        SimulatorTests.InputOperator input = new SimulatorTests.InputOperator();
+        input.value = data;
+        FilterOperator<Integer> filter = new FilterOperator<>(IntegerWeight.INSTANCE,
+                t -> t.hashCode() % 3 != 0, input);
+        SelectOperator<Integer> select = new SelectOperator<>(IntegerWeight.INSTANCE,
+                t -> t.concat(t), filter);
+        IndexOperator<Integer> index = new IndexOperator<>(IntegerWeight.INSTANCE,
+                t -> t, select);
+        this.operators = List.of(filter, select, index);
+        this.workers = new Workers(this.workerCount);
+        for (BaseOperator<Integer> op: this.operators)
+            op.setWorkers(this.workers);
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.workers.close();
+    }
+
+    @Benchmark
+    public Object step() {
+        for (BaseOperator<Integer> op: this.operators)
+            op.step();
+        return this.operators.get(this.operators.size() - 1).getOutput();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(ParallelBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -5,9 +5,19 @@ import com.fasterxml.jackson.databind.MappingIterator;
 import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.dataformat.csv.CsvMapper;
 import com.fasterxml.jackson.dataformat.csv.CsvSchema;
+import org.dbsp.simulator.collections.BaseCollection;
 import org.dbsp.simulator.collections.IndexedZSet;
+import org.dbsp.simulator.collections.LongZSet;
 import org.dbsp.simulator.collections.ZSet;
+import org.dbsp.simulator.operators.BaseOperator;
+import org.dbsp.simulator.operators.FilterOperator;
+import org.dbsp.simulator.operators.IncrementalJoinOperator;
+import org.dbsp.simulator.operators.IndexOperator;
+import org.dbsp.simulator.operators.JoinOperator;
+import org.dbsp.simulator.operators.SelectOperator;
+import org.dbsp.simulator.operators.Workers;
 import org.dbsp.simulator.types.IntegerWeight;
+import org.dbsp.simulator.types.LongWeight;
 import org.dbsp.simulator.types.StringSqlType;
 import org.dbsp.simulator.values.IntegerSqlValue;
 import org.dbsp.simulator.values.SqlTuple;
@@ -49,6 +59,233 @@ public class SimulatorTests {
         Assert.assertTrue(none.isEmpty());
     }
 
+    @Test
+    public void longZSetTests() {
+        LongZSet<SqlTuple> zero = LongZSet.zero();
+        Assert.assertEquals(0, zero.entryCount());
+        LongZSet<SqlTuple> some = new LongZSet<>();
+        SqlTuple tuple = new SqlTuple()
+                .add(new IntegerSqlValue(10))
+                .add(new StringSqlValue("string", new StringSqlType()));
+
+        some.append(tuple, 2);
+        Assert.assertEquals("{\n    [10, 'string'] => 2\n}", some.toString());
+        Assert.assertEquals(some.toString(), some.toZSet().toString());
+        LongZSet<SqlTuple> dbl = some.add(some);
+        Assert.assertEquals("{\n    [10, 'string'] => 4\n}", dbl.toString());
+        LongZSet<SqlTuple> neg = dbl.negate();
+        Assert.assertEquals("{\n    [10, 'string'] => -4\n}", neg.toString());
+        LongZSet<SqlTuple> z = dbl.add(neg);
+        Assert.assertTrue(z.isEmpty());
+        LongZSet<SqlTuple> one = dbl.distinct();
+        Assert.assertEquals("{\n    [10, 'string'] => 1\n}", one.toString());
+        LongZSet<SqlTuple> four = dbl.positive(false);
+        Assert.assertEquals("{\n    [10, 'string'] => 4\n}", four.toString());
+        LongZSet<SqlTuple> none = neg.positive(false);
+        Assert.assertTrue(none.isEmpty());
+
+        // Enough entries to resize the table, then remove every other one
+        LongZSet<Integer> ints = new LongZSet<>();
+        for (int i = 0; i < 1000; i++)
+            ints.append(i, i + 1);
+        Assert.assertEquals(1000, ints.entryCount());
+        for (int i = 0; i < 1000; i += 2)
+            ints.append(i, -(i + 1));
+        Assert.assertEquals(500, ints.entryCount());
+        for (int i = 0; i < 1000; i++)
+            Assert.assertEquals(i % 2 == 0 ? 0 : i + 1, ints.getWeight(i));
+        LongZSet<Integer> odd = ints.filter(i -> i % 2 == 1);
+        Assert.assertTrue(odd.equals(ints));
+        LongZSet<Integer> buckets = ints.map(i -> i / 100);
+        Assert.assertEquals(10, buckets.entryCount());
+        ints.append(ints);
+        Assert.assertEquals(4, ints.getWeight(1));
+        Assert.assertTrue(ints.subtract(ints).isEmpty());
+    }
+
+    /** An operator whose output is set by the test. */
+    static class InputOperator extends BaseOperator<Integer> {
+        BaseCollection<Integer> value;
+
+        InputOperator() {
+            super(IntegerWeight.INSTANCE);
+            this.value = new IndexedZSet<SqlTuple, SqlTuple, Integer>(IntegerWeight.INSTANCE);
+        }
+
+        @Override
+        public void step() {}
+
+        @Override
+        public BaseCollection<Integer> getOutput() {
+            return this.value;
+        }
+    }
+
+    static SqlTuple tuple(int... values) {
+        SqlTuple result = new SqlTuple();
+        for (int v: values)
+            result.add(new IntegerSqlValue(v));
+        return result;
+    }
+
+    @Test
+    public void incrementalJoinTest() {
+        InputOperator left = new InputOperator();
+        InputOperator right = new InputOperator();
+        IncrementalJoinOperator<Integer> join = new IncrementalJoinOperator<>(
+                SqlTuple::concat, IntegerWeight.INSTANCE, left, right);
+        IndexedZSet<SqlTuple, SqlTuple, Integer> leftTotal = new IndexedZSet<>(IntegerWeight.INSTANCE);
+        IndexedZSet<SqlTuple, SqlTuple, Integer> rightTotal = new IndexedZSet<>(IntegerWeight.INSTANCE);
+        IndexedZSet<SqlTuple, SqlTuple, Integer> outputTotal = new IndexedZSet<>(IntegerWeight.INSTANCE);
+        for (int step = 0; step < 10; step++) {
+            IndexedZSet<SqlTuple, SqlTuple, Integer> leftDelta = new IndexedZSet<>(IntegerWeight.INSTANCE);
+            IndexedZSet<SqlTuple, SqlTuple, Integer> rightDelta = new IndexedZSet<>(IntegerWeight.INSTANCE);
+            leftDelta.append(tuple(step % 3), tuple(step), 1);
+            rightDelta.append(tuple(step % 2), tuple(step * 10), 1);
+            if (step > 2)
+                // Delete some data inserted earlier
+                leftDelta.append(tuple((step - 3) % 3), tuple(step - 3), -1);
+            left.value = leftDelta;
+            right.value = rightDelta;
+            join.step();
+            @SuppressWarnings("unchecked")
+            IndexedZSet<SqlTuple, SqlTuple, Integer> output =
+                    (IndexedZSet<SqlTuple, SqlTuple, Integer>) join.getOutput();
+            outputTotal.append(output);
+            leftTotal.append(leftDelta);
+            rightTotal.append(rightDelta);
+            IndexedZSet<SqlTuple, SqlTuple, Integer> expected = leftTotal.join(rightTotal, SqlTuple::concat);
+            Assert.assertTrue(expected.deindex().equals(outputTotal.deindex()));
+        }
+    }
+
+    @Test
+    public void parallelStepTest() {
+        ZSet<SqlTuple, Integer> data = new ZSet<>(IntegerWeight.INSTANCE);
+        for (int i = 0; i < 1000; i++)
+            data.append(tuple(i, i % 7), 1 + i % 3);
+        InputOperator input = new InputOperator();
+        input.value = data;
+        FilterOperator<Integer> filter = new FilterOperator<>(IntegerWeight.INSTANCE,
+                t -> t.hashCode() % 2 == 0, input);
+        SelectOperator<Integer> select = new SelectOperator<>(IntegerWeight.INSTANCE,
+                t -> t.concat(t), filter);
+        IndexOperator<Integer> index = new IndexOperator<>(IntegerWeight.INSTANCE,
+                t -> t, select);
+        List<BaseOperator<Integer>> operators = List.of(filter, select, index);
+        for (BaseOperator<Integer> op: operators)
+            op.step();
+        @SuppressWarnings("unchecked")
+        ZSet<SqlTuple, Integer> sequential =
+                ((IndexedZSet<SqlTuple, SqlTuple, Integer>) index.getOutput()).deindex();
+        try (Workers workers = new Workers(4)) {
+            for (BaseOperator<Integer> op: operators) {
+                op.setWorkers(workers);
+                op.step();
+            }
+        }
+        @SuppressWarnings("unchecked")
+        ZSet<SqlTuple, Integer> parallel =
+                ((IndexedZSet<SqlTuple, SqlTuple, Integer>) index.getOutput()).deindex();
+        Assert.assertFalse(sequential.isEmpty());
+        Assert.assertTrue(sequential.equals(parallel));
+    }
+
+    /** An operator with long weights whose output is set by the test. */
+    static class LongInputOperator extends BaseOperator<Long> {
+        BaseCollection<Long> value;
+
+        LongInputOperator(BaseCollection<Long> value) {
+            super(LongWeight.INSTANCE);
+            this.value = value;
+        }
+
+        @Override
+        public void step() {}
+
+        @Override
+        public BaseCollection<Long> getOutput() {
+            return this.value;
+        }
+    }
+
+    @Test
+    public void longZSetOperatorTest() {
+        // The values do not define equality, so both Z-sets must contain the same tuples
+        SqlTuple[] tuples = new SqlTuple[1000];
+        for (int i = 0; i < tuples.length; i++)
+            tuples[i] = tuple(i, i % 7);
+        LongZSet<SqlTuple> data = new LongZSet<>();
+        LongZSet<SqlTuple> reversed = new LongZSet<>();
+        for (int i = 0; i < tuples.length; i++) {
+            data.append(tuples[i], 1 + i % 3);
+            int j = tuples.length - 1 - i;
+            reversed.append(tuples[j], 1 + j % 3);
+        }
+        Assert.assertEquals(data, reversed);
+        Assert.assertEquals(data.hashCode(), reversed.hashCode());
+        Assert.assertNotEquals(data, reversed.negate());
+
+        LongInputOperator input = new LongInputOperator(data);
+        FilterOperator<Long> filter = new FilterOperator<>(LongWeight.INSTANCE,
+                t -> t.hashCode() % 2 == 0, input);
+        SelectOperator<Long> select = new SelectOperator<>(LongWeight.INSTANCE,
+                t -> t.concat(t), filter);
+        IndexOperator<Long> index = new IndexOperator<>(LongWeight.INSTANCE,
+                t -> t, select);
+        List<BaseOperator<Long>> operators = List.of(filter, select, index);
+        for (BaseOperator<Long> op: operators)
+            op.step();
+        Assert.assertTrue(select.getOutput().is(LongZSet.class));
+        @SuppressWarnings("unchecked")
+        ZSet<SqlTuple, Long> sequential =
+                ((IndexedZSet<SqlTuple, SqlTuple, Long>) index.getOutput()).deindex();
+        ZSet<SqlTuple, Long> expected = data.toZSet()
+                .filter(t -> t.hashCode() % 2 == 0)
+                .map(t -> t.concat(t));
+        Assert.assertFalse(expected.isEmpty());
+        Assert.assertTrue(expected.equals(sequential));
+        try (Workers workers = new Workers(4)) {
+            for (BaseOperator<Long> op: operators) {
+                op.setWorkers(workers);
+                op.step();
+            }
+        }
+        @SuppressWarnings("unchecked")
+        ZSet<SqlTuple, Long> parallel =
+                ((IndexedZSet<SqlTuple, SqlTuple, Long>) index.getOutput()).deindex();
+        Assert.assertTrue(expected.equals(parallel));
+    }
+
+    @Test
+    public void parallelJoinTest() {
+        InputOperator left = new InputOperator();
+        InputOperator right = new InputOperator();
+        IndexedZSet<SqlTuple, SqlTuple, Integer> leftData = new IndexedZSet<>(IntegerWeight.INSTANCE);
+        IndexedZSet<SqlTuple, SqlTuple, Integer> rightData = new IndexedZSet<>(IntegerWeight.INSTANCE);
+        for (int i = 0; i < 500; i++) {
+            leftData.append(tuple(i % 37), tuple(i), 1 + i % 2);
+            rightData.append(tuple(i % 53), tuple(i * 10), i % 5 == 0 ? -1 : 1);
+        }
+        left.value = leftData;
+        right.value = rightData;
+        JoinOperator<Integer> join = new JoinOperator<>(
+                SqlTuple::concat, IntegerWeight.INSTANCE, left, right);
+        join.step();
+        @SuppressWarnings("unchecked")
+        ZSet<SqlTuple, Integer> sequential =
+                ((IndexedZSet<SqlTuple, SqlTuple, Integer>) join.getOutput()).deindex();
+        try (Workers workers = new Workers(4)) {
+            join.setWorkers(workers);
+            join.step();
+        }
+        @SuppressWarnings("unchecked")
+        ZSet<SqlTuple, Integer> parallel =
+                ((IndexedZSet<SqlTuple, SqlTuple, Integer>) join.getOutput()).deindex();
+        Assert.assertFalse(sequential.isEmpty());
+        Assert.assertTrue(sequential.equals(parallel));
+    }
+
     @JsonPropertyOrder({"name", "age"})
     public static class Person {
         @Nullable
@@ -0,0 +1,101 @@
+package org.dbsp.simulator;
+
+import org.dbsp.simulator.collections.LongZSet;
+import org.dbsp.simulator.collections.ZSet;
+import org.dbsp.simulator.types.IntegerWeight;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/** Compares {@link ZSet} with boxed integer weights against {@link LongZSet}.
+ * Not run by the unit tests; run the main method from the test classpath. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ZSetBenchmark {
+    @Param({"1000", "100000"})
+    public int size;
+
+    ZSet<Integer, Integer> zset;
+    LongZSet<Integer> longZSet;
+
+    @Setup
+    public void setup() {
+        this.zset = new ZSet<>(IntegerWeight.INSTANCE);
+        this.longZSet = new LongZSet<>(this.size);
+        for (int i = 0; i < this.size; i++) {
+            this.zset.append(i, 1 + i % 3);
+            this.longZSet.append(i, 1 + i % 3);
+        }
+    }
+
+    @Benchmark
+    public ZSet<Integer, Integer> appendZSet() {
+        ZSet<Integer, Integer> result = new ZSet<>(IntegerWeight.INSTANCE);
+        for (int i = 0; i < this.size; i++)
+            result.append(i % 1000, 1);
+        return result;
+    }
+
+    @Benchmark
+    public LongZSet<Integer> appendLongZSet() {
+        LongZSet<Integer> result = new LongZSet<>();
+        for (int i = 0; i < this.size; i++)
+            result.append(i % 1000, 1);
+        return result;
+    }
+
+    @Benchmark
+    public ZSet<Integer, Integer> addZSet() {
+        return this.zset.add(this.zset);
+    }
+
+    @Benchmark
+    public LongZSet<Integer> addLongZSet() {
+        return this.longZSet.add(this.longZSet);
+    }
+
+    @Benchmark
+    public ZSet<Integer, Integer> mapZSet() {
+        return this.zset.map(i -> i / 2);
+    }
+
+    @Benchmark
+    public LongZSet<Integer> mapLongZSet() {
+        return this.longZSet.map(i -> i / 2);
+    }
+
+    @Benchmark
+    public ZSet<Integer, Integer> filterZSet() {
+        return this.zset.filter(i -> i % 2 == 0);
+    }
+
+    @Benchmark
+    public LongZSet<Integer> filterLongZSet() {
+        return this.longZSet.filter(i -> i % 2 == 0);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(ZSetBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
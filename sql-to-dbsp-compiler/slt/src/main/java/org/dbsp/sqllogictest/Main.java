@@ -41,8 +41,14 @@ import java.util.concurrent.atomic.AtomicReference;
  * Execute all SqlLogicTest tests.
  */
 public class Main {
-    public static final String rustDirectory = "./temp/src/";
+    /** Directory where the Rust sources of the tests are written; can be changed with -rust. */
+    public static String rustDirectory = "./temp/src/";
     public static final String testFileName = "lib";
+    /** Directory holding the hashes of the crates which passed; shared by parallel runs. */
+    public static final String crateCacheDirectory = "./temp/cache/";
+    /** If positive, the batch sizes are adjusted so that compiling and running
+     * a batch takes about this many milliseconds; can be set with -batchMillis. */
+    public static long batchMillis = 0;
 
     @SuppressWarnings("SpellCheckingInspection")
     public static void main(String[] argv) throws IOException, ClassNotFoundException {
@@ -93,6 +99,17 @@ public class Main {
             skip.set(Integer.parseInt(o));
             return true;
         });
+        parser.registerOption("-rust", "directory",
+                "Directory for the Rust test sources (default " + rustDirectory + ")", o -> {
+            rustDirectory = o.endsWith("/") ? o : o + "/";
+            return true;
+        });
+        parser.registerOption("-batchMillis", "millis",
+                "Adjust the number of queries per crate so that a batch takes about this long " +
+                        "(default 0: fixed batch sizes)", o -> {
+            batchMillis = Long.parseLong(o);
+            return true;
+        });
         DBSPExecutor.register(parser, skip);
         DbspJdbcExecutor.register(parser, skip);
         TestStatistics results = net.hydromatic.sqllogictest.Main.execute(parser, args);
@@ -0,0 +1,127 @@
+package org.dbsp.sqllogictest;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Execute SqlLogicTest files in parallel.
+ * Each test file (or directory) is executed by a separate {@link Main} process;
+ * at most N processes run at the same time.  Each worker has its own Rust crate,
+ * a copy of ./temp named ./temp-i, so that compilations do not interfere.
+ * All workers share the cargo target directory ./temp/target, so the dependencies
+ * of the crates (dbsp, sqllib, ...) are only compiled once; cargo serializes the
+ * builds that use the same target directory.  A CARGO_TARGET_DIR set in the
+ * environment takes precedence.
+ * Usage: ParallelMain [-j N] options -- files_or_directories_with_tests
+ * The options are passed to each {@link Main} process.
+ */
+public class ParallelMain {
+    static final String crateTemplate = "./temp";
+    static final String sharedTargetDirectory = crateTemplate + "/target";
+
+    /** Create the crate used by the specified worker, return its source directory. */
+    static String createWorkerCrate(int worker) throws IOException {
+        Path crate = Path.of(crateTemplate + "-" + worker);
+        Path src = crate.resolve("src");
+        Files.createDirectories(src);
+        // Same parent directory as the template, so relative dependency paths still work
+        Files.copy(Path.of(crateTemplate, "Cargo.toml"), crate.resolve("Cargo.toml"),
+                StandardCopyOption.REPLACE_EXISTING);
+        Path lock = Path.of(crateTemplate, "Cargo.lock");
+        if (Files.exists(lock))
+            Files.copy(lock, crate.resolve("Cargo.lock"), StandardCopyOption.REPLACE_EXISTING);
+        return src + "/";
+    }
+
+    /** Run the tests in one file in a child process using the specified Rust directory.
+     * @return The exit code of the process. */
+    static int runFile(List<String> options, String file, String rustDirectory)
+            throws IOException, InterruptedException {
+        String java = ProcessHandle.current().info().command().orElse("java");
+        List<String> command = new ArrayList<>();
+        command.add(java);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(Main.class.getName());
+        command.addAll(options);
+        command.add("-rust");
+        command.add(rustDirectory);
+        command.add(file);
+        File log = new File(rustDirectory, "slt.log");
+        ProcessBuilder builder = new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(log);
+        builder.environment().putIfAbsent("CARGO_TARGET_DIR",
+                Path.of(sharedTargetDirectory).toAbsolutePath().normalize().toString());
+        Process process = builder.start();
+        int exitCode = process.waitFor();
+        String output = Files.readString(log.toPath());
+        synchronized (ParallelMain.class) {
+            System.out.println("==== " + file + " (exit code " + exitCode + ")");
+            System.out.print(output);
+        }
+        return exitCode;
+    }
+
+    public static void main(String[] argv) throws Exception {
+        int workerCount = Runtime.getRuntime().availableProcessors();
+        List<String> options = new ArrayList<>();
+        List<String> files = new ArrayList<>();
+        boolean inFiles = false;
+        for (int i = 0; i < argv.length; i++) {
+            String arg = argv[i];
+            if (inFiles) {
+                files.add(arg);
+            } else if (arg.equals("--")) {
+                inFiles = true;
+            } else if (arg.equals("-j") && i + 1 < argv.length) {
+                workerCount = Integer.parseInt(argv[++i]);
+            } else {
+                options.add(arg);
+            }
+        }
+        if (files.isEmpty() || workerCount < 1) {
+            System.err.println("Usage: ParallelMain [-j N] options -- files_or_directories_with_tests");
+            System.exit(1);
+        }
+
+        workerCount = Math.min(workerCount, files.size());
+        BlockingQueue<String> freeCrates = new ArrayBlockingQueue<>(workerCount);
+        for (int i = 0; i < workerCount; i++)
+            freeCrates.add(createWorkerCrate(i));
+        ExecutorService pool = Executors.newFixedThreadPool(workerCount);
+        List<Future<Integer>> results = new ArrayList<>();
+        for (String file: files) {
+            results.add(pool.submit(() -> {
+                String crate = freeCrates.take();
+                try {
+                    return runFile(options, file, crate);
+                } finally {
+                    freeCrates.add(crate);
+                }
+            }));
+        }
+        pool.shutdown();
+
+        int failed = 0;
+        for (int i = 0; i < files.size(); i++) {
+            int exitCode = results.get(i).get();
+            if (exitCode != 0) {
+                System.out.println("Failed: " + files.get(i));
+                failed++;
+            }
+        }
+        System.out.println(files.size() + " test files executed, " + failed + " failed");
+        System.exit(failed == 0 ? 0 : 1);
+    }
+}
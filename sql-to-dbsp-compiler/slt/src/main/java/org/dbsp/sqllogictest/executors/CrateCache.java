@@ -0,0 +1,187 @@
+package org.dbsp.sqllogictest.executors;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/** Remembers the content hashes of generated Rust crates which
+ * compiled and passed all their tests.  Since the expected results are part
+ * of the generated code, a crate identical to one that passed before does not
+ * need to be compiled and executed again.  The cache is a directory containing
+ * one empty file per hash, so it can be shared by multiple processes.
+ *
+ * <p>A test can also start failing when anything it is built with changes, so
+ * the hash also covers the build environment: the Cargo.toml and Cargo.lock files,
+ * the sources of the local crates the crate depends on, directly or through other
+ * local crates (e.g., sqllib, dbsp and pipeline-types),
+ * the Maven build files of the compiler, and the version of the Rust toolchain. */
+public class CrateCache {
+    final File directory;
+    /** Maps a crate directory to the hash of its build environment. */
+    final Map<Path, byte[]> environments;
+
+    /** Build files of the compiler, relative to the parent of the crate directory. */
+    static final String[] COMPILER_BUILD_FILES = { "pom.xml", "SQL-compiler/pom.xml", "slt/pom.xml" };
+    static final Pattern DEPENDENCY_PATH = Pattern.compile("path\\s*=\\s*\"([^\"]+)\"");
+
+    public CrateCache(String directory) {
+        this.directory = new File(directory);
+        this.environments = new HashMap<>();
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** Add the name and contents of a file to the digest, if the file exists. */
+    static void hashFile(MessageDigest digest, Path root, Path file) throws IOException {
+        if (!Files.isRegularFile(file))
+            return;
+        digest.update(root.relativize(file).toString().getBytes(StandardCharsets.UTF_8));
+        digest.update(Files.readAllBytes(file));
+    }
+
+    /** Add all the files of a crate to the digest, except the build outputs. */
+    static void hashTree(MessageDigest digest, Path root) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> stream = Files.walk(root)) {
+            stream.filter(p -> !root.relativize(p).startsWith("target"))
+                    .filter(Files::isRegularFile)
+                    .forEach(files::add);
+        }
+        files.sort(null);
+        for (Path file: files)
+            hashFile(digest, root, file);
+    }
+
+    /** Version of the Rust toolchain used to build the crate. */
+    static String toolchainVersion(Path crate) throws IOException {
+        try {
+            Process process = new ProcessBuilder("rustc", "-vV")
+                    .directory(crate.toFile())
+                    .redirectErrorStream(true)
+                    .start();
+            String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+            process.waitFor();
+            return output;
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /** Directories of the local path dependencies of a crate, including the
+     * dependencies of the dependencies, sorted.  The crate itself and the
+     * directories inside it are not included. */
+    static Set<Path> pathDependencies(Path crate) throws IOException {
+        Set<Path> result = new TreeSet<>();
+        List<Path> toVisit = new ArrayList<>();
+        toVisit.add(crate);
+        while (!toVisit.isEmpty()) {
+            Path current = toVisit.remove(toVisit.size() - 1);
+            Path cargoToml = current.resolve("Cargo.toml");
+            if (!Files.isRegularFile(cargoToml))
+                continue;
+            Matcher matcher = DEPENDENCY_PATH.matcher(Files.readString(cargoToml));
+            while (matcher.find()) {
+                Path dependency = current.resolve(matcher.group(1)).normalize();
+                // Paths of targets such as [lib] and [[example]] are files
+                if (!Files.isDirectory(dependency) || dependency.startsWith(current) ||
+                        dependency.startsWith(crate))
+                    continue;
+                if (result.add(dependency))
+                    toVisit.add(dependency);
+            }
+        }
+        return result;
+    }
+
+    /** Hash of the build environment of the crate in the specified directory. */
+    byte[] environment(Path crate) throws IOException {
+        crate = crate.toAbsolutePath().normalize();
+        byte[] result = this.environments.get(crate);
+        if (result != null)
+            return result;
+
+        MessageDigest digest = newDigest();
+        Path cargoToml = crate.resolve("Cargo.toml");
+        hashFile(digest, crate, cargoToml);
+        hashFile(digest, crate, crate.resolve("Cargo.lock"));
+        Set<Path> lockFiles = new TreeSet<>();
+        for (Path dependency: pathDependencies(crate)) {
+            hashTree(digest, dependency);
+            // Lock file of the workspace containing the dependency
+            for (Path p = dependency; p != null; p = p.getParent()) {
+                if (Files.isRegularFile(p.resolve("Cargo.lock"))) {
+                    lockFiles.add(p.resolve("Cargo.lock"));
+                    break;
+                }
+            }
+        }
+        for (Path lock: lockFiles)
+            hashFile(digest, lock.getRoot(), lock);
+        Path parent = crate.getParent();
+        if (parent != null) {
+            for (String file: COMPILER_BUILD_FILES)
+                hashFile(digest, parent, parent.resolve(file));
+        }
+        digest.update(toolchainVersion(crate).getBytes(StandardCharsets.UTF_8));
+        result = digest.digest();
+        this.environments.put(crate, result);
+        return result;
+    }
+
+    /** Compute the hash of the crate sources in the specified directory:
+     * all files ending in .rs or .csv, and the build environment of the crate.
+     * The name of the directory is removed from the sources, so identical crates
+     * generated in different directories have the same hash. */
+    public String hash(String rustDirectory) throws IOException {
+        File dir = new File(rustDirectory);
+        File[] files = dir.listFiles((d, name) -> name.endsWith(".rs") || name.endsWith(".csv"));
+        if (files == null)
+            throw new IOException("Cannot list directory " + rustDirectory);
+        Arrays.sort(files);
+        MessageDigest digest = newDigest();
+        Path crate = dir.toPath().toAbsolutePath().normalize().getParent();
+        if (crate != null)
+            digest.update(this.environment(crate));
+        for (File file: files) {
+            digest.update(file.getName().getBytes(StandardCharsets.UTF_8));
+            String contents = Files.readString(file.toPath());
+            contents = contents.replace(rustDirectory, "");
+            digest.update(contents.getBytes(StandardCharsets.UTF_8));
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    public boolean contains(String hash) {
+        return new File(this.directory, hash).exists();
+    }
+
+    public void add(String hash) throws IOException {
+        if (!this.directory.exists() && !this.directory.mkdirs())
+            throw new IOException("Cannot create directory " + this.directory);
+        File marker = new File(this.directory, hash);
+        // Returns false if another process has created it concurrently
+        //noinspection ResultOfMethodCallIgnored
+        marker.createNewFile();
+    }
+}
@@ -104,8 +104,13 @@ public class DBSPExecutor extends SqlSltTestExecutor {
     final SqlTestPrepareTables tablePreparation;
     final SqlTestPrepareViews viewPreparation;
     private final List<SqlTestQuery> queriesToRun;
+    final CrateCache crateCache;
 
     public int toSkip = 0;
+    /** Number of queries compiled into one Rust crate.  Adjusted after each batch
+     * when {@link Main#batchMillis} is set. */
+    int batchSize = MAX_BATCH_SIZE;
+    static final int MAX_BATCH_SIZE = 500;
 
     /**
      * Create an executor that executes SqlLogicTest queries directly compiling to
@@ -123,6 +128,7 @@ public class DBSPExecutor extends SqlSltTestExecutor {
         this.compilerOptions = compilerOptions;
         this.queriesToRun = new ArrayList<>();
         this.connectionString = connectionString;
+        this.crateCache = new CrateCache(Main.crateCacheDirectory);
     }
 
     public void skip(int toSkip) {
@@ -197,8 +203,16 @@ public class DBSPExecutor extends SqlSltTestExecutor {
             this.writeCodeToFile(compiler, Linq.list(inputFunction), codeGenerated);
             this.startTest();
             if (this.execute) {
-                String[] extraArgs = new String[0];
-                Utilities.compileAndTestRust(Main.rustDirectory, true, extraArgs);
+                String hash = this.crateCache.hash(Main.rustDirectory);
+                if (this.crateCache.contains(hash)) {
+                    this.options.message("Identical crate already passed, skipping compilation\n", 1);
+                } else {
+                    String[] extraArgs = new String[0];
+                    long start = System.currentTimeMillis();
+                    Utilities.compileAndTestRust(Main.rustDirectory, true, extraArgs);
+                    this.adjustBatchSize(queryNo, System.currentTimeMillis() - start);
+                    this.crateCache.add(hash);
+                }
             }
             this.queriesToRun.clear();
             System.out.println(elapsedTime(queryNo));
@@ -215,6 +229,24 @@ public class DBSPExecutor extends SqlSltTestExecutor {
         return true;
     }
 
+    /** Adjust the batch size so that compiling and running a batch takes
+     * roughly {@link Main#batchMillis}.  The right target depends on the machine:
+     * larger batches amortize the cost of building the crate, but compile slower
+     * and make a failure more expensive, since the whole batch is reported as failed.
+     * @param queries Number of queries in the batch that was executed.
+     * @param millis  Time taken to compile and run the batch. */
+    void adjustBatchSize(int queries, long millis) {
+        if (Main.batchMillis <= 0 || this.toSkip > 0 || queries < this.batchSize)
+            // Incomplete batches do not say much about the batch size
+            return;
+        if (millis < Main.batchMillis / 2)
+            this.batchSize = Math.min(this.batchSize * 2, MAX_BATCH_SIZE);
+        else if (millis > Main.batchMillis * 2)
+            this.batchSize = Math.max(this.batchSize / 2, 1);
+        this.options.message("Batch of " + queries + " queries took " + millis +
+                "ms, batch size is now " + this.batchSize + "\n", 1);
+    }
+
     /**
      * Convert a description of the data in the SLT format to a ZSet.
      */
@@ -339,20 +371,21 @@ public class DBSPExecutor extends SqlSltTestExecutor {
     public TestStatistics execute(SltTestFile file, OptionsParser.SuppliedOptions options)
             throws SQLException {
         this.startTest();
-        int batchSize = 500;
+        // Initial batch sizes; adjusted after each batch if Main.batchMillis is set
+        this.batchSize = MAX_BATCH_SIZE;
         String name = file.toString();
         if (name.contains("/"))
             name = name.substring(name.lastIndexOf('/') + 1);
         if (name.startsWith("select"))
-            batchSize = 20;
+            this.batchSize = 20;
         if (name.startsWith("select5"))
-            batchSize = 5;
+            this.batchSize = 5;
         if (this.toSkip > 0)
-            batchSize = 1;
+            this.batchSize = 1;
 
         TestStatistics result = new TestStatistics(options.stopAtFirstError, options.verbosity);
         boolean seenQueries = false;
-        int remainingInBatch = batchSize;
+        int remainingInBatch = this.batchSize;
         boolean skipped = this.toSkip > 0;
         for (ISqlTestOperation operation: file.fileContents) {
             SltSqlStatement stat = operation.as(SltSqlStatement.class);
@@ -361,7 +394,7 @@ public class DBSPExecutor extends SqlSltTestExecutor {
                     boolean success = this.runBatch(result, !skipped);
                     if (options.stopAtFirstError && !success)
                         return result;
-                    remainingInBatch = batchSize;
+                    remainingInBatch = this.batchSize;
                     seenQueries = false;
                 }
                 try {
@@ -396,7 +429,7 @@ public class DBSPExecutor extends SqlSltTestExecutor {
                     boolean success = this.runBatch(result, !skipped);
                     if (!success && options.stopAtFirstError)
                         return result;
-                    remainingInBatch = batchSize;
+                    remainingInBatch = this.batchSize;
                     seenQueries = false;
                 }
                 if (skipped)
@@ -404,7 +437,7 @@ public class DBSPExecutor extends SqlSltTestExecutor {
                     return result;
             }
         }
-        if (remainingInBatch != batchSize)
+        if (remainingInBatch != this.batchSize)
             this.runBatch(result, !skipped);
         // Make sure there are no left-overs if this executor
         // is invoked to process a new file.